@@ -0,0 +1,566 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+    * This class holds the command line settings for CensusAnalyzer. The
+    * positional arguments keep their original meaning:
+    * 1. An input file from which to read census data
+    * 2. An output file path, to which summarized data will be written
+    * 3. If supplied, the number of records to read, otherwise all records
+    *
+    * Optional switches start with "--" and may appear anywhere on the
+    * command line:
+    *   --mmap          read the input file through a memory mapping
+    *   --parallel[=N]  split the input into ranges scanned on N threads
+    *                   (defaults to the number of processors)
+    *   --pipeline[=N]  read, decode and add up the lines on three threads
+    *                   at once, with up to N blocks of lines queued before
+    *                   each stage (default 16; see CensusPipeline)
+    *   --districts     also summarize by school district, written to a
+    *                   second file next to the output file
+    *   --rollup        write district, state, Census division, Census
+    *                   region and national totals to the output file
+    *                   (format 2 or 3)
+    *   --top=K         rank the K districts with the highest child poverty
+    *                   rate in each state, written as a text report next
+    *                   to the output file
+    *   --quantiles     sketch the median, 90th and 99th percentile district
+    *                   child poverty rate of each state into the output
+    *                   file (format 2 or 3)
+    *   --stats         keep the child population weighted mean, variance
+    *                   and Theil inequality index of the district child
+    *                   poverty rates of each state (format 2 or 3)
+    *   --validate=MODE strict (default) stops at the first line that breaks
+    *                   the population constraints; deferred checks lines in
+    *                   bulk, leaves failing and malformed lines out of the
+    *                   totals and lists them in a reject report next to
+    *                   the output file
+    *   --state=CODES   only summarize lines of the given comma separated
+    *                   state codes, e.g. --state=06,48
+    *   --min-pop=N     only summarize lines with a total population of at
+    *                   least N
+    *   --compare=FILE  compare the input, district by district, against an
+    *                   older vintage of the file, written as a text report
+    *                   next to the output file
+    *   --sample=N      preview: estimate state and national totals, with
+    *                   95% confidence intervals, from a stratified random
+    *                   sample of about N lines instead of reading them all
+    *                   (format 2 or 3)
+    *   --seed=S        seed of the --sample draw, to repeat a preview
+    *                   (default: a new seed per run)
+    *   --checkpoint[=FILE]  keep a checkpoint of what has been summarized
+    *                   (default: the output file name plus ".ckpt") and, on
+    *                   later runs, only read lines appended since then
+    *   --format=N      output file format, 2 (default), 3 for columns, or
+    *                   1 for the original headerless layout (see
+    *                   CensusDataFile)
+    *   --no-percent    leave the child poverty percentage, which can be
+    *                   derived from the counts, out of a format 3 file
+    *   --cache[=DIR]   serve a run identical to an earlier one (same input
+    *                   bytes and settings) from a result cache (default:
+    *                   .census-cache in the home directory)
+    *   --cache-size=MB largest size of the cache (default 256)
+    *
+    * @version 1.0.0.0
+*/
+public class AnalyzerOptions
+{
+    private List<String> positional = new ArrayList<>(); //Non-switch arguments
+    private boolean mappedInput; //Whether to memory-map the input file
+    private int threads; //Worker threads for a parallel scan, 0 if sequential
+    private int pipelineBatches; //Blocks queued per pipeline stage, 0 if no pipeline
+    private int format = CensusDataFile.FORMAT_2; //Output file format version
+    private boolean percentageColumn = true; //Whether format 3 keeps the percentage
+    private boolean districtLevel; //Whether to summarize by district too
+    private boolean rollup; //Whether to write every geographic level
+    private int topK; //Districts ranked per state, 0 if no ranking
+    private boolean quantiles; //Whether to sketch rate quantiles per state
+    private boolean statistics; //Whether to keep rate statistics per state
+    private boolean deferredValidation; //Whether to reject lines instead of stopping
+    private int[] stateCodes; //States to summarize, or null for all
+    private int minPopulation; //Smallest total population to summarize
+    private CensusLineFilter filter; //Filter built from the two above, or null
+    private String compareFile; //Older vintage to compare against, or null
+    private int sampleSize; //Lines to sample for a preview, 0 to read all
+    private long seed = System.nanoTime(); //Seed of the sample
+    private boolean checkpoint; //Whether to keep an input checkpoint
+    private String checkpointFile; //Explicit checkpoint file, or null
+    private boolean cache; //Whether to use the result cache
+    private String cacheDirectory; //Explicit cache directory, or null
+    private long cacheSize = 256L << 20; //Largest size of the cache, in bytes
+
+    /**
+        * Splits the command line into switches and positional arguments.
+        * An unrecognized switch is rejected rather than silently ignored,
+        * since it most likely is a typing mistake.
+        *
+        * @param args String array as passed to main
+        * @return AnalyzerOptions holding the parsed settings
+    */
+    public static AnalyzerOptions parse(String[] args)
+    {
+        AnalyzerOptions options = new AnalyzerOptions();
+
+        for (String arg : args)
+        {
+            //Anything not starting with "--" is a positional argument
+            if (!arg.startsWith("--"))
+            {
+                options.positional.add(arg);
+            }
+            else if (arg.equals("--mmap"))
+            {
+                options.mappedInput = true;
+            }
+            else if (arg.equals("--parallel"))
+            {
+                options.threads = Runtime.getRuntime().availableProcessors();
+            }
+            else if (arg.startsWith("--parallel="))
+            {
+                options.threads = parsePositive(arg, "--parallel=".length());
+            }
+            else if (arg.equals("--pipeline"))
+            {
+                options.pipelineBatches = CensusPipeline.DEFAULT_QUEUE_BATCHES;
+            }
+            else if (arg.startsWith("--pipeline="))
+            {
+                options.pipelineBatches = parsePositive(arg, "--pipeline=".length());
+            }
+            else if (arg.equals("--districts"))
+            {
+                options.districtLevel = true;
+            }
+            else if (arg.equals("--rollup"))
+            {
+                options.rollup = true;
+            }
+            else if (arg.startsWith("--top="))
+            {
+                options.topK = parsePositive(arg, "--top=".length());
+            }
+            else if (arg.equals("--quantiles"))
+            {
+                options.quantiles = true;
+            }
+            else if (arg.equals("--stats"))
+            {
+                options.statistics = true;
+            }
+            else if (arg.equals("--validate=strict") || arg.equals("--validate=deferred"))
+            {
+                options.deferredValidation = arg.endsWith("deferred");
+            }
+            else if (arg.startsWith("--state="))
+            {
+                String[] codes = arg.substring("--state=".length()).split(",");
+                options.stateCodes = new int[codes.length];
+                for (int i = 0; i < codes.length; i++)
+                {
+                    options.stateCodes[i] = parseStateCode(arg, codes[i]);
+                }
+            }
+            else if (arg.startsWith("--min-pop="))
+            {
+                options.minPopulation = parsePositive(arg, "--min-pop=".length());
+            }
+            else if (arg.startsWith("--compare="))
+            {
+                options.compareFile = arg.substring("--compare=".length());
+            }
+            else if (arg.startsWith("--sample="))
+            {
+                options.sampleSize = parsePositive(arg, "--sample=".length());
+            }
+            else if (arg.startsWith("--seed="))
+            {
+                try
+                {
+                    options.seed = Long.parseLong(arg.substring("--seed=".length()));
+                }
+                catch (NumberFormatException ex) //Not a number
+                {
+                    throw new IllegalArgumentException("Invalid value in option: " + arg);
+                }
+            }
+            else if (arg.equals("--checkpoint"))
+            {
+                options.checkpoint = true;
+            }
+            else if (arg.startsWith("--checkpoint="))
+            {
+                options.checkpoint = true;
+                options.checkpointFile = arg.substring("--checkpoint=".length());
+            }
+            else if (arg.equals("--cache"))
+            {
+                options.cache = true;
+            }
+            else if (arg.startsWith("--cache-size="))
+            {
+                options.cacheSize = (long)parsePositive(arg, "--cache-size=".length()) << 20;
+            }
+            else if (arg.startsWith("--cache="))
+            {
+                options.cache = true;
+                options.cacheDirectory = arg.substring("--cache=".length());
+            }
+            else if (arg.startsWith("--format="))
+            {
+                options.format = parsePositive(arg, "--format=".length());
+                if (options.format != CensusDataFile.FORMAT_1 && 
+                    options.format != CensusDataFile.FORMAT_2 &&
+                    options.format != CensusDataFile.FORMAT_3)
+                {
+                    throw new IllegalArgumentException("Unsupported format in option: " + arg);
+                }
+            }
+            else if (arg.equals("--no-percent"))
+            {
+                options.percentageColumn = false;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        
+        //Only the columnar format can leave a column out
+        if (!options.percentageColumn && options.format != CensusDataFile.FORMAT_3)
+        {
+            throw new IllegalArgumentException("Option --no-percent needs --format=3");
+        }
+        
+        //Only the versioned formats can tell the levels apart
+        if (options.rollup && options.format == CensusDataFile.FORMAT_1)
+        {
+            throw new IllegalArgumentException("Option --rollup needs --format=2 or 3");
+        }
+        
+        //The pipeline does its own reading, on one thread
+        if (options.pipelineBatches > 0 && (options.threads > 0 || options.mappedInput))
+        {
+            throw new IllegalArgumentException(
+                "Option --pipeline cannot be combined with --parallel or --mmap");
+        }
+        
+        //One filter for the whole run, only if something is filtered
+        if (options.stateCodes != null || options.minPopulation > 0)
+        {
+            options.filter = new CensusLineFilter(options.stateCodes, options.minPopulation);
+        }
+        return options;
+    }
+
+    /**
+        * Method to return the number of positional arguments.
+        *
+        * @return count of positional arguments
+    */
+    public int getPositionalCount()
+    {
+        return positional.size();
+    }
+
+    /**
+        * Method to return the input file name, or null if it was not given.
+        *
+        * @return inputFile String
+    */
+    public String getInputFile()
+    {
+        return positional.size() > 0 ? positional.get(0) : null;
+    }
+
+    /**
+        * Method to return the output file name, or null if it was not given.
+        *
+        * @return outputFile String
+    */
+    public String getOutputFile()
+    {
+        return positional.size() > 1 ? positional.get(1) : null;
+    }
+
+    /**
+        * Method to return the number of records to read. If none was given,
+        * the maximum possible value is returned so that all records are read.
+        *
+        * @return numRecords integer
+    */
+    public int getNumRecords()
+    {
+        return positional.size() > 2 ?
+               Integer.parseInt(positional.get(2)) : Integer.MAX_VALUE;
+    }
+
+    /**
+        * Method to return whether the input file should be memory-mapped.
+        *
+        * @return mappedInput boolean
+    */
+    public boolean isMappedInput()
+    {
+        return mappedInput;
+    }
+
+    /**
+        * Method to return the number of blocks of lines queued before each
+        * stage of a pipelined scan, or 0 if the input is not pipelined.
+        *
+        * @return pipelineBatches integer
+    */
+    public int getPipelineBatches()
+    {
+        return pipelineBatches;
+    }
+
+    /**
+        * Method to return the number of threads for a parallel scan, or 0 if
+        * the input should be scanned on the calling thread.
+        *
+        * @return threads integer
+    */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+        * Method to return the output file format version.
+        *
+        * @return format integer
+    */
+    public int getFormat()
+    {
+        return format;
+    }
+
+    /**
+        * Method to return whether a format 3 file keeps the child poverty
+        * percentage column.
+        *
+        * @return true unless --no-percent was given
+    */
+    public boolean isPercentageColumn()
+    {
+        return percentageColumn;
+    }
+
+    /**
+        * Method to return whether district level totals should be written.
+        *
+        * @return districtLevel boolean
+    */
+    public boolean isDistrictLevel()
+    {
+        return districtLevel;
+    }
+
+    /**
+        * Method to return whether every geographic level should be written.
+        *
+        * @return rollup boolean
+    */
+    public boolean isRollup()
+    {
+        return rollup;
+    }
+
+    /**
+        * Method to return how many districts per state should be ranked, or
+        * 0 if no ranking was asked for.
+        *
+        * @return topK integer
+    */
+    public int getTopK()
+    {
+        return topK;
+    }
+
+    /**
+        * Method to return whether rate quantiles should be sketched per state.
+        *
+        * @return quantiles boolean
+    */
+    public boolean isQuantiles()
+    {
+        return quantiles;
+    }
+
+    /**
+        * Method to return whether rate statistics should be kept per state.
+        *
+        * @return statistics boolean
+    */
+    public boolean isStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+        * Method to return whether validation should be deferred, rejecting
+        * failing lines instead of stopping at the first one.
+        *
+        * @return deferredValidation boolean
+    */
+    public boolean isDeferredValidation()
+    {
+        return deferredValidation;
+    }
+
+    /**
+        * Method to return the filter selecting the lines to summarize, or
+        * null if every line should be summarized.
+        *
+        * @return filter CensusLineFilter
+    */
+    public CensusLineFilter getFilter()
+    {
+        return filter;
+    }
+
+    /**
+        * Method to return the older vintage to compare the input against, or
+        * null if no comparison was asked for.
+        *
+        * @return compareFile String
+    */
+    public String getCompareFile()
+    {
+        return compareFile;
+    }
+
+    /**
+        * Method to return the number of lines to sample for a preview, or 0
+        * if every line should be read.
+        *
+        * @return sampleSize integer
+    */
+    public int getSampleSize()
+    {
+        return sampleSize;
+    }
+
+    /**
+        * Method to return the seed of the preview sample.
+        *
+        * @return seed long
+    */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+        * Method to return the checkpoint file name, or null if no checkpoint
+        * should be kept. Unless named explicitly, it is the output file name
+        * with ".ckpt" appended.
+        *
+        * @return checkpoint file name String
+    */
+    public String getCheckpointFile()
+    {
+        if (!checkpoint)
+        {
+            return null;
+        }
+        return (checkpointFile != null) ? checkpointFile : getOutputFile() + ".ckpt";
+    }
+
+    /**
+        * Method to return the result cache directory, or null if the cache
+        * should not be used.
+        *
+        * @return cache directory String
+    */
+    public String getCacheDirectory()
+    {
+        if (!cache)
+        {
+            return null;
+        }
+        return (cacheDirectory != null) ? cacheDirectory :
+            System.getProperty("user.home") + File.separator + ".census-cache";
+    }
+
+    /**
+        * Method to return the largest size of the result cache.
+        *
+        * @return cacheSize long, in bytes
+    */
+    public long getCacheSize()
+    {
+        return cacheSize;
+    }
+
+    /**
+        * Method to return every setting that changes the output files, as
+        * text, so that two runs with equal text and input write the same
+        * files. How the input is read (--mmap, --parallel) does not change
+        * them, and is left out.
+        *
+        * @return the settings String
+    */
+    public String getRunParameters()
+    {
+        int[] states = (stateCodes == null) ? null : stateCodes.clone();
+        if (states != null)
+        {
+            Arrays.sort(states);
+        }
+        return "records=" + getNumRecords() + " format=" + format + " percent=" + percentageColumn +
+               " districts=" + districtLevel + " rollup=" + rollup + " quantiles=" + quantiles +
+               " stats=" + statistics + " deferred=" + deferredValidation + 
+               " state=" + Arrays.toString(states) + " min-pop=" + minPopulation;
+    }
+
+    /**
+        * Helper method to read the positive integer value of a switch.
+        *
+        * @param arg String holding the whole switch
+        * @param offset int position where the value starts
+        * @return the parsed value
+    */
+    private static int parsePositive(String arg, int offset)
+    {
+        try
+        {
+            int value = Integer.parseInt(arg.substring(offset));
+            if (value > 0)
+            {
+                return value;
+            }
+        }
+        catch (NumberFormatException ex) //Fall through to the error below
+        {
+        }
+        throw new IllegalArgumentException("Invalid value in option: " + arg);
+    }
+
+    /**
+        * Helper method to read one two digit state code of the --state switch.
+        *
+        * @param arg String holding the whole switch
+        * @param code String holding the code
+        * @return the parsed code
+    */
+    private static int parseStateCode(String arg, String code)
+    {
+        try
+        {
+            int value = Integer.parseInt(code.trim());
+            if (value >= 0 && value < StateAggregator.STATE_CODES)
+            {
+                return value;
+            }
+        }
+        catch (NumberFormatException ex) //Fall through to the error below
+        {
+        }
+        throw new IllegalArgumentException("Invalid state code in option: " + arg);
+    }
+}
@@ -0,0 +1,344 @@
+import java.io.*;
+
+/**
+    * This class bundles every summary CensusAnalyzer builds from a single
+    * scan of the input. State totals are always kept; district totals, the
+    * per-state top-K district ranking, quantile sketches and rate
+    * statistics are kept only when asked for, since they cost memory or time that a
+    * plain state summary does not need.
+    *
+    * Each line is handed to every enabled summary in turn, so adding a
+    * summary never adds a pass over the input. If validation is deferred,
+    * lines that fail it are logged in a RejectLog instead. A filter, if
+    * set, keeps unwanted lines from being parsed in the first place. Partial bundles built from
+    * separate ranges of a file can be merged.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusAggregates implements CensusRecordHandler
+{
+    private final AnalyzerOptions options; //Settings the bundle was made with
+    private final StateAggregator states = new StateAggregator(); //Per-state totals
+    private final DistrictAggregator districts; //Per-district totals, or null
+    private final TopKDistricts topDistricts; //Top-K ranking per state, or null
+    private final StateQuantiles quantiles; //Rate sketches per state, or null
+    private final StateRateStatistics statistics; //Rate statistics per state, or null
+    private final CensusLineFilter filter; //Lines wanted, or null for all
+    private final RejectLog rejects = new RejectLog(); //Lines rejected so far
+    private long lineCount; //Number of lines read, rejected ones included
+
+    /**
+        * Constructor, taking whether district level totals should be kept.
+        *
+        * @param districtLevel boolean true to keep per-district totals
+    */
+    public CensusAggregates(boolean districtLevel)
+    {
+        this(AnalyzerOptions.parse(districtLevel ? new String[] {"--districts"} : new String[0]));
+    }
+
+    /**
+        * Constructor, enabling the summaries the command line asks for.
+        * District totals are also kept for a rollup, which writes them.
+        *
+        * @param options AnalyzerOptions selecting the summaries
+    */
+    public CensusAggregates(AnalyzerOptions options)
+    {
+        this.options = options;
+        this.districts = (options.isDistrictLevel() || options.isRollup()) ?
+                         new DistrictAggregator() : null;
+        this.topDistricts = (options.getTopK() > 0) ? new TopKDistricts(options.getTopK()) : null;
+        this.quantiles = options.isQuantiles() ? new StateQuantiles() : null;
+        this.statistics = options.isStatistics() ? new StateRateStatistics() : null;
+        this.filter = options.getFilter();
+    }
+
+    /**
+        * Creates an empty bundle with the same summaries enabled as this one,
+        * for summarizing another range of the same input.
+        *
+        * @return an empty CensusAggregates
+    */
+    public CensusAggregates newPartial()
+    {
+        return new CensusAggregates(options);
+    }
+
+    /**
+        * Hands a parsed line to every enabled summary.
+        *
+        * @param line CensusLineParser holding the decoded values of the line
+    */
+    public void record(CensusLineParser line)
+    {
+        lineCount++;
+        states.record(line);
+        if (districts != null)
+        {
+            districts.record(line);
+        }
+        if (topDistricts != null)
+        {
+            topDistricts.record(line);
+        }
+        if (quantiles != null)
+        {
+            quantiles.record(line);
+        }
+        if (statistics != null)
+        {
+            statistics.record(line);
+        }
+    }
+
+    /**
+        * Method to return whether lines failing validation are rejected and
+        * logged, rather than ending the scan.
+        *
+        * @return true if validation is deferred
+    */
+    public boolean isValidationDeferred()
+    {
+        return options.isDeferredValidation();
+    }
+
+    /**
+        * Method to return the filter selecting the lines to summarize, or
+        * null if every line is wanted.
+        *
+        * @return filter CensusLineFilter
+    */
+    public CensusLineFilter getFilter()
+    {
+        return filter;
+    }
+
+    /**
+        * Counts lines passed over by the filter as read, so that checkpoints
+        * and record limits stay in line with the input.
+        *
+        * @param lines long number of lines filtered out
+    */
+    public void skipped(long lines)
+    {
+        lineCount += lines;
+    }
+
+    /**
+        * Logs a line that failed deferred validation. It counts as read, but
+        * is left out of every summary.
+        *
+        * @param line CensusLineParser holding the values of the line
+        * @param reason integer RejectLog REASON flags
+    */
+    public void reject(CensusLineParser line, int reason)
+    {
+        lineCount++;
+        rejects.add(line.getLineOffset(), reason, line.getTotalPopulation(),
+                    line.getChildPopulation(), line.getChildPovertyPopulation());
+    }
+
+    /**
+        * Folds another bundle, built from a later range of the input, into
+        * this one.
+        *
+        * @param other CensusAggregates with the same summaries enabled
+    */
+    public void merge(CensusAggregates other)
+    {
+        lineCount += other.lineCount;
+        rejects.merge(other.rejects);
+        states.merge(other.states);
+        if (districts != null)
+        {
+            districts.merge(other.districts);
+        }
+        if (topDistricts != null)
+        {
+            topDistricts.merge(other.topDistricts);
+        }
+        if (quantiles != null)
+        {
+            quantiles.merge(other.quantiles);
+        }
+        if (statistics != null)
+        {
+            statistics.merge(other.statistics);
+        }
+    }
+
+    /**
+        * Method to return the number of lines read, rejected lines included.
+        *
+        * @return lineCount long
+    */
+    public long getLineCount()
+    {
+        return lineCount;
+    }
+
+    /**
+        * Method to return whether district level totals are kept.
+        *
+        * @return true if per-district totals are kept
+    */
+    public boolean isDistrictLevel()
+    {
+        return districts != null;
+    }
+
+    /**
+        * Method to return how many districts per state are ranked, or 0 if
+        * no ranking is kept.
+        *
+        * @return K integer
+    */
+    public int getTopK()
+    {
+        return (topDistricts != null) ? topDistricts.getK() : 0;
+    }
+
+    /**
+        * Writes every enabled summary to a stream, so that the bundle can be
+        * restored with readFrom(). The settings of the bundle are written
+        * first, so that they can be checked on the way back in.
+        *
+        * @param dout DataOutputStream to write to
+    */
+    public void writeTo(DataOutputStream dout) throws IOException
+    {
+        dout.writeBoolean(isDistrictLevel());
+        dout.writeInt(getTopK());
+        dout.writeBoolean(quantiles != null);
+        dout.writeBoolean(statistics != null);
+        dout.writeUTF(filterText());
+        dout.writeLong(lineCount);
+        rejects.writeTo(dout);
+        states.writeTo(dout);
+        if (districts != null)
+        {
+            districts.writeTo(dout);
+        }
+        if (topDistricts != null)
+        {
+            topDistricts.writeTo(dout);
+        }
+        if (quantiles != null)
+        {
+            quantiles.writeTo(dout);
+        }
+        if (statistics != null)
+        {
+            statistics.writeTo(dout);
+        }
+    }
+
+    /**
+        * Adds summaries previously written with writeTo() to this bundle.
+        * They must have been written by a bundle with the same summaries
+        * enabled, otherwise an IOException is thrown.
+        *
+        * @param din DataInputStream to read from
+    */
+    public void readFrom(DataInputStream din) throws IOException
+    {
+        if (din.readBoolean() != isDistrictLevel() || din.readInt() != getTopK() ||
+            din.readBoolean() != (quantiles != null) || din.readBoolean() != (statistics != null) ||
+            !din.readUTF().equals(filterText()))
+        {
+            throw new IOException("Summaries were written with different settings");
+        }
+        lineCount += din.readLong();
+        rejects.readFrom(din);
+        states.readFrom(din);
+        if (districts != null)
+        {
+            districts.readFrom(din);
+        }
+        if (topDistricts != null)
+        {
+            topDistricts.readFrom(din);
+        }
+        if (quantiles != null)
+        {
+            quantiles.readFrom(din);
+        }
+        if (statistics != null)
+        {
+            statistics.readFrom(din);
+        }
+    }
+
+    /**
+        * Method to return the per-state totals.
+        *
+        * @return states StateAggregator
+    */
+    public StateAggregator getStates()
+    {
+        return states;
+    }
+
+    /**
+        * Method to return the per-district totals, or null if district
+        * level totals were not requested.
+        *
+        * @return districts DistrictAggregator
+    */
+    public DistrictAggregator getDistricts()
+    {
+        return districts;
+    }
+
+    /**
+        * Method to return the per-state top-K district ranking, or null if
+        * no ranking was requested.
+        *
+        * @return topDistricts TopKDistricts
+    */
+    public TopKDistricts getTopDistricts()
+    {
+        return topDistricts;
+    }
+
+    /**
+        * Method to return the per-state quantile sketches, or null if they
+        * were not requested.
+        *
+        * @return quantiles StateQuantiles
+    */
+    public StateQuantiles getQuantiles()
+    {
+        return quantiles;
+    }
+
+    /**
+        * Method to return the per-state rate statistics, or null if they
+        * were not requested.
+        *
+        * @return statistics StateRateStatistics
+    */
+    public StateRateStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+        * Method to return the lines rejected by deferred validation.
+        *
+        * @return rejects RejectLog
+    */
+    public RejectLog getRejects()
+    {
+        return rejects;
+    }
+
+    /**
+        * Returns the description of the filter, empty if there is none.
+    */
+    private String filterText()
+    {
+        return (filter != null) ? filter.toString() : "";
+    }
+}
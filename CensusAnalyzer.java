@@ -1,4 +1,6 @@
 import java.io.*;
+import java.util.List;
+import java.util.zip.CRC32C;
 
 /**
     * This program processed Census information as provided through 
@@ -15,9 +17,14 @@ public class CensusAnalyzer
         * This method is called as the startup location for the program.
         * It expects a minimum of two command line arguments, and will
         * accept a third if furnished.
-        * 1. An input file from which to read census data
+        * 1. An input file from which to read census data, or a comma
+        *    separated list of files and glob patterns (see CensusBatch)
         * 2. An output file path, to which summarized data will be written
-        * 3. If supplied, the number of records to read, otherwise all records
+        * 3. If supplied, the number of records to read (per file),
+        *    otherwise all records
+        *
+        * Optional switches, described in AnalyzerOptions, may be added
+        * anywhere on the command line (e.g. --mmap to memory-map the input).
         *
         * precondition The input file exists and can be accessed
         * precondition The output filepath is a legal file path
@@ -30,9 +37,22 @@ public class CensusAnalyzer
     {
         int numRecords; //Number of records to read
         String inputFile; //Input Filename
+        AnalyzerOptions options; //Parsed command line
+        
+        //Separate optional switches from the positional arguments
+        try
+        {
+            options = AnalyzerOptions.parse(args);
+        }
+        catch (IllegalArgumentException ex) //Unknown switch
+        {
+            System.out.println("\n" + ex.getMessage() + 
+                ". Exiting application.....");
+            return; //Exit app
+        }
         
         //Test if at least two arguments were included, 1 input file, 1 output
-        switch (args.length)
+        switch (options.getPositionalCount())
         {
             case 0: //No command line arguments
                 System.out.println("\nNo input file specified. " +
@@ -44,38 +64,87 @@ public class CensusAnalyzer
                 return; //Exit app
         }
         
-        //Get filename of input file from command line arguments
-        inputFile = args[0];
-        
-        //Create a temporary file to test if the file exists and is valid.
-        File temp = new File(inputFile);
+        //Get filename of input file from command line arguments. It may
+        //name several files (see CensusBatch), which are summarized together
+        List<String> inputFiles;
+        try
+        {
+            inputFiles = CensusBatch.resolveInputs(options.getInputFile());
+            if (inputFiles.size() > 1)
+            {
+                CensusBatch.checkOptions(options);
+            }
+        }
+        catch (IllegalArgumentException ex) //Switch for a single file only
+        {
+            System.out.println("\n" + ex.getMessage() + ". Exiting application.....");
+            return; //Exit app
+        }
+        catch (FileNotFoundException ex) //A named file is missing
+        {
+            System.out.println("\n" + ex.getMessage() + ". Exiting application.....");
+            return; //Exit app
+        }
+        catch (IOException ex) //A directory could not be listed
+        {
+            System.out.println("\n" + ex + ". Exiting application.....");
+            return; //Exit app
+        }
         
-        //If file doesn't exist, or it points to a directory, quit.
-        if (!temp.exists() || !temp.isFile())
+        //If no file exists, or the name points to a directory, quit.
+        if (inputFiles.isEmpty())
         {
             System.out.println("\nThe input file does not exist. " +
                 "Exiting application.....");
                 return;  //Exit on error
         }
+        inputFile = inputFiles.get(0);
         
-        //If no command line argument is given for number of records, set this
-        //value to the maximum possible value, otherwise, set numRecords to 
+        //If no command line argument is given for number of records, this
+        //value is the maximum possible value, otherwise, numRecords is the
         //appropriate command line argument. 
         //NOTE: numRecords should never be negative, but we need not explicitly 
         //check for it to prevent errors. The method to which numRecords is 
         //passed has a loop that will never engage if the numRecords is less
         //than zero. There will just be no output.
         
-        numRecords = (args.length > 2) ? 
-                     Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+        numRecords = options.getNumRecords();
+        
+        //A preview estimates from a sample instead of reading every line
+        if (options.getSampleSize() > 0)
+        {
+            try
+            {
+                writeSamplePreview(inputFile, options);
+            }
+            catch (Exception ex) //Catch all exceptions and print exception
+            {
+                System.out.println(ex);
+            }
+            return; //nothing else is summarized
+        }
+        
+        //An identical earlier run is answered from the result cache
+        CensusResultCache cache = null;
+        if (options.getCacheDirectory() != null)
+        {
+            cache = openCache(inputFile, options);
+            if (cache != null && restoreFromCache(cache, options.getOutputFile()))
+            {
+                return; //nothing else is written
+            }
+        }
         
-        //Return an array containing all of the entries from the input file up to 
+        //Return the summaries of all entries from the input file up to 
         //the appropriate number of records.
-        StateCensus[] stateCensus = null;
+        CensusAggregates stateCensus = null;
         try
         {
-            //Populate stateCensus with output from readCensusData() method
-            stateCensus = readCensusData(inputFile, numRecords);    
+            //Populate stateCensus with output from readCensusData() method,
+            //or the merged output for each of several files
+            stateCensus = (inputFiles.size() > 1) ?
+                CensusBatch.readAll(inputFiles, numRecords, options) :
+                readCensusData(inputFile, numRecords, options);    
         }
         catch (Exception ex) //Catch all errors and report exception 
         {
@@ -84,11 +153,53 @@ public class CensusAnalyzer
             return; //exit application
         }
         
-        //Write the relevant data from the array into the file designated by the command
+        //Write the relevant data from the totals into the file designated by the command
         //line argument
         try
         {
-            writeDataToFile(args[1], stateCensus);
+            writeDataToFile(options.getOutputFile(), stateCensus, options.getFormat(), 
+                            options.isRollup(), options.isPercentageColumn());
+            
+            //District totals go to their own file next to the state one,
+            //unless the rollup already wrote them into the output file
+            if (stateCensus.getDistricts() != null && !options.isRollup())
+            {
+                writeDistrictFile(districtFileName(options.getOutputFile()),
+                                  stateCensus.getDistricts(), options.getFormat(),
+                                  options.isPercentageColumn());
+            }
+            
+            //Only cacheable runs get this far with a cache
+            if (cache != null)
+            {
+                storeInCache(cache, options);
+            }
+            
+            //The ranking is read back from the input, so it is text, not data
+            if (stateCensus.getTopDistricts() != null)
+            {
+                stateCensus.getTopDistricts().writeRanking(
+                    topFileName(options.getOutputFile()), inputFile);
+            }
+            
+            //The comparison joins both vintages on its own two scans
+            if (options.getCompareFile() != null)
+            {
+                String compareFile = compareFileName(options.getOutputFile());
+                new CensusComparison(options.getFilter()).compare(inputFile, 
+                    options.getCompareFile(), compareFile);
+                System.out.println("\nComparison with " + options.getCompareFile() + 
+                    " written to " + compareFile);
+            }
+            
+            //Deferred validation always leaves a report, even an empty one
+            if (stateCensus.isValidationDeferred())
+            {
+                String rejectFile = rejectFileName(options.getOutputFile());
+                stateCensus.getRejects().writeReport(rejectFile, inputFile);
+                System.out.println("\n" + stateCensus.getRejects().size() + 
+                    " line(s) rejected; see " + rejectFile);
+            }
         }
         catch (Exception ex) //Catch all exceptions and print exception
         {
@@ -96,86 +207,210 @@ public class CensusAnalyzer
         }
     }
     
+    /**
+        * This method opens the result cache for a run, or returns null if
+        * the run cannot be cached or the cache cannot be used; the run then
+        * goes ahead without it.
+        *
+        * @param inputFile String detailing the input file's location
+        * @param options AnalyzerOptions of the run
+        * @return the CensusResultCache, or null
+    */
+    private static CensusResultCache openCache(String inputFile, AnalyzerOptions options)
+    {
+        if (!CensusResultCache.isCacheable(options))
+        {
+            System.out.println("\nRuns with --top, --compare, --checkpoint or " +
+                "--validate=deferred are not cached.");
+            return null;
+        }
+        try
+        {
+            return new CensusResultCache(options.getCacheDirectory(), options.getCacheSize(),
+                                         inputFile, options);
+        }
+        catch (IOException ex) //Run without the cache
+        {
+            System.out.println("\nThe result cache cannot be used: " + ex);
+            return null;
+        }
+    }
+    
+    /**
+        * This method writes the output files of a run from the result cache,
+        * if it holds them, and reports the hit or miss.
+        *
+        * @param cache CensusResultCache of the run
+        * @param outputFile String detailing the output file path
+        * @return true if the output files were written from the cache
+    */
+    private static boolean restoreFromCache(CensusResultCache cache, String outputFile)
+    {
+        try
+        {
+            boolean hit = cache.restore(outputFile);
+            System.out.println("\nResult cache " + (hit ? "hit" : "miss") + " (" + 
+                cache.getHits() + " hit(s), " + cache.getMisses() + " miss(es) in all)");
+            return hit;
+        }
+        catch (IOException ex) //Run without the cache
+        {
+            System.out.println("\nThe result cache cannot be used: " + ex);
+            return false;
+        }
+    }
+    
+    /**
+        * This method stores the output files of a run in the result cache. A
+        * failure is reported but does not fail the run, whose files are
+        * written.
+        *
+        * @param cache CensusResultCache of the run
+        * @param options AnalyzerOptions of the run
+    */
+    private static void storeInCache(CensusResultCache cache, AnalyzerOptions options)
+    {
+        try
+        {
+            cache.store(options.getOutputFile(), CensusResultCache.outputSuffixes(options));
+        }
+        catch (IOException ex) //The files are written all the same
+        {
+            System.out.println("\nThe output could not be cached: " + ex);
+        }
+    }
+    
+    /**
+        * This method samples the input file, writes the estimated state and
+        * national totals to the output file in format 2 or 3, with their
+        * confidence intervals in a sample block, and prints the estimates.
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * postcondition An output file exists at the designated path
+        *
+        * @param fileName String detailing the input file's location
+        * @param options AnalyzerOptions holding the sample size, seed and filter
+    */
+    private static void writeSamplePreview(String fileName, AnalyzerOptions options)
+        throws FileNotFoundException, IOException, InvalidArgumentException
+    {
+        //Only the versioned formats can carry the confidence intervals
+        if (options.getFormat() == CensusDataFile.FORMAT_1)
+        {
+            throw new IOException("A sample preview needs format 2 or 3");
+        }
+        
+        CensusSampler sampler = new CensusSampler(options.getSampleSize(), 
+            options.getSeed(), options.getFilter());
+        sampler.sample(fileName);
+        
+        //Use try-with-resources to leverage auto close
+        try (DataOutputStream dout = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(options.getOutputFile()))))
+        {
+            sampler.writeTo(dout, options.getFormat(), options.isPercentageColumn());
+        }
+        
+        //The printed table is the one the report prints from the block
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        sampler.writeBlock(new DataOutputStream(block));
+        CensusSampler.printBlock(new DataInputStream(
+            new ByteArrayInputStream(block.toByteArray())), System.out);
+        System.out.println("\nSeed " + options.getSeed() + "; estimates written to " + 
+            options.getOutputFile());
+    }
+    
     /**
         * This method reads in the data stored in the input file, 
         * and summarizes the data by state. It outputs the summarized
-        * data to an array that holds objects of StateCensus type.
+        * data as a CensusAggregates, which holds the totals of every state
+        * and, if requested, of every district.
         *
         * precondition The input file exists and can be accessed
         *
-        * postcondition An array exists with the relevant data
+        * postcondition A CensusAggregates exists with the relevant data
         *
         * @author Baseem Astiphan
         * @param fileName String detailing the input file's location
         * @param numRecords int limiting the number of records to read
-        * @return an array of StateCensus objects
+        * @param options AnalyzerOptions selecting how the file is read
+        * @return a CensusAggregates holding the summaries
     */    
-    private static StateCensus[] readCensusData(String fileName, int numRecords)
+    static CensusAggregates readCensusData(String fileName, int numRecords,
+                                        AnalyzerOptions options)
         throws FileNotFoundException, IOException, InvalidArgumentException
     {
-        //Initialize an array to an appropriate length. Note: I really dislike 
-        //hardcoding in a size such as I am doing here, but in Java, arrays
-        //don't offer resizing flexibility, and we're not permitted to use any
-        //other data structures in this assignment. I made a judgement call that
-        //since there are 50 states, and a handful of territories, 60 should be
-        //an appropriate length to handle all potential input files. This can 
-        //be addressed with a project manager.
-        StateCensus[] stateCensus = new StateCensus[60];
-        
-        //Number of items that have been assigned to the array; helps with tracking
-        //indexes.
-        int allocatedLength = 0;  
-        int counter = 0; //how many records have been processed
-        String str; //String to hold read in values.
-        
-        //Create a BufferedReader that leverages a FileReader. Since this
-        //is a text file, a Reader is more appropriate than an InputStream,
-        //and a BufferedReader offers some efficiency. Use try-with-resources
-        //to leverage auto close
-        try (BufferedReader br = new BufferedReader(new FileReader(fileName)))
-        {
-            //Create a BufferedReader that leverages a FileReader. Since this
-            //is a text file, a Reader is more appropriate than an InputStream,
-            //and a BufferedReader offers some efficiency
-            // br = new BufferedReader(new FileReader(fileName));
+        //Adds each parsed line to the totals of its state, and to every
+        //other summary the options ask for
+        CensusAggregates aggregator = new CensusAggregates(options);
+        long start = 0; //offset of the first line still to be read
+        long limit = (numRecords == Integer.MAX_VALUE) ? Long.MAX_VALUE : numRecords;
+        CRC32C prefixHash = new CRC32C(); //hash of every byte summarized
+        
+        //Resume from a checkpoint if the input still starts with the lines
+        //it summarized, and it holds no more lines than are wanted
+        String checkpointFile = options.getCheckpointFile();
+        if (checkpointFile != null)
+        {
+            CensusCheckpoint checkpoint = CensusCheckpoint.load(checkpointFile, 
+                aggregator.newPartial());
+            if (checkpoint != null && checkpoint.getLineCount() <= limit &&
+                checkpoint.matches(fileName, prefixHash))
+            {
+                aggregator = checkpoint.getAggregates();
+                start = checkpoint.getOffset();
+                limit -= (limit == Long.MAX_VALUE) ? 0 : checkpoint.getLineCount();
+                System.out.println("\nResuming from checkpoint after " + 
+                    checkpoint.getLineCount() + " lines.");
+            }
+            else
+            {
+                prefixHash.reset(); //full rebuild; hash from the start
+            }
+        }
+        
+        CensusScanner scanner = new CensusScanner(aggregator, limit);
+        long end; //offset just past the last line read
+        
+        try
+        {
+            //All paths hand identical lines to the aggregator(s)
+            if (options.getThreads() > 0)
+            {
+                //Each range is summarized into its own aggregator, and the
+                //partials are merged back in file order
+                end = ParallelCensusScanner.findLimitOffset(fileName, start, limit);
+                aggregator.merge(ParallelCensusScanner.scanRange(fileName, start, end,
+                    options.getThreads(), aggregator::newPartial,
+                    CensusAggregates::merge));
+            }
+            else if (options.getPipelineBatches() > 0)
+            {
+                //Read, decoded and added up on a stage each, in file order
+                end = ParallelCensusScanner.findLimitOffset(fileName, start, limit);
+                CensusPipeline pipeline = new CensusPipeline(aggregator, 
+                    options.getPipelineBatches());
+                pipeline.run(fileName, start, end);
+                System.out.println("\nPipeline stages:\n" + pipeline);
+            }
+            else if (options.isMappedInput())
+            {
+                scanner.scanMapped(fileName, start);
+                end = scanner.getPosition();
+            }
+            else
+            {
+                scanner.scanStream(fileName, start);
+                end = scanner.getPosition();
+            }
             
-            //Have not reached end of file, and haven't surpassed desired records
-            while ((str = br.readLine()) != null && counter < numRecords)
+            //Record how far this run got, so the next one can carry on from
+            //here. Only done if the last line read was complete.
+            if (checkpointFile != null && CensusCheckpoint.endsWithLine(fileName, end))
             {
-                //Create a StateCensus object from line that is read in
-                StateCensus censusItem = StateCensus.parse(str);
-                
-                //Nothing has been added to our output array
-                if (allocatedLength == 0)
-                {
-                    //Add  censusItem at first position, and increment allocatedLength
-                    stateCensus[allocatedLength++] = censusItem;
-                    // allocatedLength++;
-                }
-                else
-                {
-                    // Use a label statement to break out of loop if a state code is found
-                    found : {                     
-                        //Loop through array up to allocatedLength to see if state code
-                        //has already been added
-                        for (int i = 0; i < allocatedLength; i++)
-                        {
-                            // ? stateCode exists?
-                            if (censusItem.getStateCode() == stateCensus[i].getStateCode())
-                            {
-                                //Increment stateCensus object at found array location
-                                stateCensus[i].populationIncrementer(
-                                        censusItem.getTotalPopulation(),
-                                        censusItem.getChildPopulation(),
-                                        censusItem.getChildPovertyPopulation());
-                                break found; //exit to found label
-                            }
-                        }
-                        //add stateCensus instance to next place in array
-                        stateCensus[allocatedLength++] = censusItem;
-                    }
-                }
-                counter++;  //increment number of records read
+                CensusCheckpoint.hash(fileName, start, end, prefixHash);
+                CensusCheckpoint.save(checkpointFile, end, prefixHash.getValue(), aggregator);
             }
         }
         catch (FileNotFoundException ex) //File is not avaialable
@@ -186,27 +421,58 @@ public class CensusAnalyzer
         {
             throw ex; //Propagate exception to calling code
         }
-        return stateCensus; //return array of stateCensu objects
+        return aggregator; //return the summaries
     }    
     
     /**
-        * This method writes the data from a StateCensus array to a file.
+        * This method writes the per-state totals of a CensusAggregates to a file.
         * Because the summarized data is stored in primitive types
-        * (double, and int), a buffered DataOutputStream is used for writing
+        * (double, int and long), a buffered DataOutputStream is used for writing
         * efficiently. 
         *
+        * Format 2 (see CensusDataFile) carries 64-bit counts and ends with a
+        * national total row. Format 3 holds the same rows column by column,
+        * optionally without the derivable percentage. Format 1 is the
+        * original layout of 32-bit counts with no national row; it is refused
+        * if a total does not fit an int.
+        *
+        * Per-state rate quantile sketches and rate statistics, if kept,
+        * follow the rows in tagged blocks.
+        *
+        * With rollup set, every level is written in the same pass, from the
+        * bottom up: districts, states, Census divisions, Census regions and
+        * the nation. This needs format 2 or 3 and district totals.
+        *
         * precondition The output file path is legal and accessible
-        * precondition An array with StateCensus objects exists
+        * precondition A CensusAggregates holding the totals exists
         *
         * postcondition An output file exists.
         *
         * @author Baseem Astiphan
         * @param fileName String detailing the output file path
-        * @param census an array of StateCensus objects
+        * @param census CensusAggregates holding the summaries
+        * @param format integer CensusDataFile format version to write
+        * @param rollup boolean true to write all geographic levels
+        * @param percentageColumn boolean false to leave the percentage out of
+        * format 3
     */    
-    private static void writeDataToFile(String fileName, StateCensus[] census)
+    static void writeDataToFile(String fileName, CensusAggregates census,
+                                int format, boolean rollup, boolean percentageColumn)
         throws FileNotFoundException, IOException
     {
+        StateAggregator states = census.getStates(); //per-state totals
+        
+        //Only the versioned formats can tell the levels apart or carry blocks
+        if (rollup && format == CensusDataFile.FORMAT_1)
+        {
+            throw new IOException("A rollup of all levels needs format 2 or 3");
+        }
+        if ((census.getQuantiles() != null || census.getStatistics() != null) && 
+            format == CensusDataFile.FORMAT_1)
+        {
+            throw new IOException("Rate quantiles and statistics need format 2 or 3");
+        }
+        
         //Use try-with-resources to create a DataOutputStream that encloses
         //a BufferedOutputStream that encloses a FileOutputStream. This design
         //decision was based on writing primitive types (ints and doubles) to 
@@ -215,25 +481,31 @@ public class CensusAnalyzer
         try (DataOutputStream dout = new DataOutputStream(
                 new BufferedOutputStream(new FileOutputStream(fileName))))
         {
-            //Loop through all stateCensus objects in array
-            for (StateCensus sc : census)
+            if (format == CensusDataFile.FORMAT_1)
             {
-                //This defensive pattern is necessary because we have an 
-                //arbitrarily large array (since we can't resize). Once we 
-                //hit a null item, this means that we have gone through all
-                //stateCensus instances.
-                if (sc == null)
-                {
-                    break;
-                }
-                
-                //Below five lines write appropriate information to output file
-                dout.writeInt(sc.getStateCode());
-                dout.writeInt(sc.getTotalPopulation());
-                dout.writeInt(sc.getChildPopulation());
-                dout.writeInt(sc.getChildPovertyPopulation());
-                dout.writeDouble(sc.getChildPovertyPercentage());
+                writeFormat1(dout, states);
+                return;
             }
+            
+            CensusDataWriter out = new CensusDataWriter(dout, format, percentageColumn,
+                                                        countRows(census, rollup));
+            writeRows(census, rollup, out);
+            
+            //The sketches and running values themselves are written, so
+            //that files can still be merged; readers only query them
+            if (census.getQuantiles() != null)
+            {
+                ByteArrayOutputStream block = new ByteArrayOutputStream();
+                census.getQuantiles().writeTo(new DataOutputStream(block));
+                out.writeBlock(CensusDataFile.BLOCK_QUANTILES, block.toByteArray());
+            }
+            if (census.getStatistics() != null)
+            {
+                ByteArrayOutputStream block = new ByteArrayOutputStream();
+                census.getStatistics().writeTo(new DataOutputStream(block));
+                out.writeBlock(CensusDataFile.BLOCK_STATISTICS, block.toByteArray());
+            }
+            out.finish();
         }
         catch (FileNotFoundException ex) //Input file is not available
         {
@@ -246,4 +518,244 @@ public class CensusAnalyzer
             throw ex;
         }
     }
+    
+    /**
+        * This method returns how many rows writeRows() produces: one per
+        * district, state, division and region written, plus the nation.
+        *
+        * @param census CensusAggregates holding the summaries
+        * @param rollup boolean true to count all geographic levels
+        * @return number of rows
+    */
+    static int countRows(CensusAggregates census, boolean rollup)
+    {
+        StateAggregator states = census.getStates(); //per-state totals
+        int rows = states.getStateCount() + 1;
+        if (rollup)
+        {
+            CensusRollup levels = new CensusRollup(states);
+            rows += census.getDistricts().size() + levels.getDivisionCount() + 
+                    levels.getRegionCount();
+        }
+        return rows;
+    }
+    
+    /**
+        * This method hands the rows of a versioned data file to a sink, in
+        * file order, straight from the in-memory totals: districts (with
+        * rollup), states, divisions and regions (with rollup), then the
+        * nation. writeDataToFile() writes them, and CensusDashboard prints
+        * them without a file in between.
+        *
+        * precondition With rollup, the aggregates hold district totals
+        *
+        * @param census CensusAggregates holding the summaries
+        * @param rollup boolean true to produce all geographic levels
+        * @param out CensusRowSink taking the rows
+    */
+    static void writeRows(CensusAggregates census, boolean rollup, CensusRowSink out)
+        throws IOException
+    {
+        StateAggregator states = census.getStates(); //per-state totals
+        
+        //Divisions and regions come from the state totals; districts
+        //are sorted by key so they come out grouped by state
+        CensusRollup levels = rollup ? new CensusRollup(states) : null;
+        long[] keys = rollup ? census.getDistricts().sortedKeys() : new long[0];
+        
+        writeDistrictRows(out, census.getDistricts(), keys);
+        
+        //Loop through all states, in the order they were first seen
+        for (int i = 0; i < states.getStateCount(); i++)
+        {
+            int code = states.getStateCode(i);
+            out.writeRow(CensusDataFile.LEVEL_STATE, code,
+                states.getTotalPopulation(code), states.getChildPopulation(code),
+                states.getChildPovertyPopulation(code));
+        }
+        
+        if (rollup)
+        {
+            //Below two loops write the divisions and regions in number order
+            for (int d = 1; d < CensusGeography.DIVISIONS; d++)
+            {
+                if (levels.hasDivision(d))
+                {
+                    out.writeRow(CensusDataFile.LEVEL_DIVISION, d,
+                        levels.getDivisionTotalPopulation(d), levels.getDivisionChildPopulation(d),
+                        levels.getDivisionChildPovertyPopulation(d));
+                }
+            }
+            for (int r = 1; r < CensusGeography.REGIONS; r++)
+            {
+                if (levels.hasRegion(r))
+                {
+                    out.writeRow(CensusDataFile.LEVEL_REGION, r,
+                        levels.getRegionTotalPopulation(r), levels.getRegionChildPopulation(r),
+                        levels.getRegionChildPovertyPopulation(r));
+                }
+            }
+        }
+        
+        //National totals were accumulated in the same pass as the states
+        out.writeRow(CensusDataFile.LEVEL_NATION, 0,
+            states.getNationTotalPopulation(), states.getNationChildPopulation(),
+            states.getNationChildPovertyPopulation());
+    }
+    
+    /**
+        * This method writes the per-district totals to a file in format 2, or
+        * format 3 if that is the format asked for (see CensusDataFile), one
+        * row per district sorted by state and LEA code, with the district key
+        * as the row's code.
+        *
+        * precondition The output file path is legal and accessible
+        *
+        * postcondition An output file exists.
+        *
+        * @param fileName String detailing the output file path
+        * @param districts DistrictAggregator holding the per-district totals
+        * @param format integer CensusDataFile format version asked for
+        * @param percentageColumn boolean false to leave the percentage out of
+        * format 3
+    */    
+    static void writeDistrictFile(String fileName, DistrictAggregator districts,
+                                  int format, boolean percentageColumn)
+        throws FileNotFoundException, IOException
+    {
+        //Same stream design as writeDataToFile()
+        try (DataOutputStream dout = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(fileName))))
+        {
+            long[] keys = districts.sortedKeys(); //districts in output order
+            CensusDataWriter out = new CensusDataWriter(dout, 
+                (format == CensusDataFile.FORMAT_3) ? format : CensusDataFile.FORMAT_2,
+                percentageColumn, keys.length);
+            writeDistrictRows(out, districts, keys);
+            out.finish();
+        }
+        catch (FileNotFoundException ex) //Output file is not available
+        {
+            //Propagate exception to the calling code.
+            throw new FileNotFoundException(fileName + " could not be found");
+        }
+    }
+    
+    /**
+        * Helper method to write one row per district, in the order of the
+        * keys given.
+        *
+        * @param out CensusRowSink to write to
+        * @param districts DistrictAggregator holding the per-district totals
+        * @param keys long array of district keys to write
+    */
+    private static void writeDistrictRows(CensusRowSink out, 
+                                          DistrictAggregator districts, long[] keys)
+        throws IOException
+    {
+        for (long key : keys)
+        {
+            int slot = districts.find(key);
+            out.writeRow(CensusDataFile.LEVEL_DISTRICT, (int)key,
+                districts.getTotalPopulation(slot), districts.getChildPopulation(slot),
+                districts.getChildPovertyPopulation(slot));
+        }
+    }
+    
+    /**
+        * Helper method to derive the district file name from the state output
+        * file name, by inserting ".districts" before the extension (or at
+        * the end if there is none): outputData.dat becomes
+        * outputData.districts.dat.
+        *
+        * @param fileName String state output file path
+        * @return String district output file path
+    */
+    static String districtFileName(String fileName)
+    {
+        int dot = extensionStart(fileName);
+        return fileName.substring(0, dot) + ".districts" + fileName.substring(dot);
+    }
+    
+    /**
+        * Helper method to derive the top-K ranking file name from the state
+        * output file name, by replacing the extension (if any) with
+        * ".top.txt": outputData.dat becomes outputData.top.txt.
+        *
+        * @param fileName String state output file path
+        * @return String ranking output file path
+    */
+    static String topFileName(String fileName)
+    {
+        return fileName.substring(0, extensionStart(fileName)) + ".top.txt";
+    }
+    
+    /**
+        * Helper method to derive the comparison report file name from the
+        * state output file name, by replacing the extension (if any) with
+        * ".compare.txt": outputData.dat becomes outputData.compare.txt.
+        *
+        * @param fileName String state output file path
+        * @return String comparison report file path
+    */
+    static String compareFileName(String fileName)
+    {
+        return fileName.substring(0, extensionStart(fileName)) + ".compare.txt";
+    }
+    
+    /**
+        * Helper method to derive the reject report file name from the state
+        * output file name, by replacing the extension (if any) with
+        * ".rejects.txt": outputData.dat becomes outputData.rejects.txt.
+        *
+        * @param fileName String state output file path
+        * @return String reject report file path
+    */
+    static String rejectFileName(String fileName)
+    {
+        return fileName.substring(0, extensionStart(fileName)) + ".rejects.txt";
+    }
+    
+    /**
+        * Helper method to return where the extension of a file name starts,
+        * or its length if there is none (or it is a hidden file name).
+    */
+    private static int extensionStart(String fileName)
+    {
+        int dot = fileName.lastIndexOf('.');
+        int slash = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf(File.separatorChar));
+        return (dot <= slash + 1) ? fileName.length() : dot;
+    }
+    
+    /**
+        * Helper method to write the totals in the original headerless format
+        * of four ints and a double per state.
+        *
+        * @param dout DataOutputStream to write to
+        * @param census StateAggregator holding the per-state totals
+    */
+    private static void writeFormat1(DataOutputStream dout, StateAggregator census)
+        throws IOException
+    {
+        try
+        {
+            //Loop through all states, in the order they were first seen
+            for (int i = 0; i < census.getStateCount(); i++)
+            {
+                int code = census.getStateCode(i);
+                
+                //Below five lines write appropriate information to output file
+                dout.writeInt(code);
+                dout.writeInt(Math.toIntExact(census.getTotalPopulation(code)));
+                dout.writeInt(Math.toIntExact(census.getChildPopulation(code)));
+                dout.writeInt(Math.toIntExact(census.getChildPovertyPopulation(code)));
+                dout.writeDouble(census.getChildPovertyPercentage(code));
+            }
+        }
+        catch (ArithmeticException ex) //A total does not fit in 32 bits
+        {
+            throw new IOException("State totals exceed the range of format 1; " +
+                                  "use format 2 instead");
+        }
+    }
 }
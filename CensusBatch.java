@@ -0,0 +1,242 @@
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+    * This class summarizes several Census input files in one run, such as
+    * the state-split files or vintages of a monthly job, into one set of
+    * totals. The files are named as a comma separated list, and each name
+    * may be a glob pattern in its last part, e.g. "drops/*.txt,extra.txt".
+    *
+    * Every file is summarized on its own, on a pool of at most one thread
+    * per processor, and the summaries are then merged in the order the
+    * files were named (a pattern's files in name order), so the output
+    * does not depend on which file finished first. If a file fails, the
+    * files still being read are cancelled, and the error names every file
+    * that failed, with its reason, and how many were cancelled.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusBatch
+{
+    /**
+        * Returns the input files an input argument names: the files of each
+        * comma separated item, where an item with glob characters (*, ?, [
+        * or {) in its last part names the matching files of its directory.
+        * Files named twice are read once. A name that is not a file, or a
+        * pattern that matches none, fails with an error naming it, so a
+        * mistyped name cannot leave a file out of the totals unnoticed.
+        *
+        * @param argument String input file argument
+        * @return List of file names, in order
+    */
+    public static List<String> resolveInputs(String argument) throws IOException
+    {
+        Set<String> files = new LinkedHashSet<>();
+        for (String item : argument.split(","))
+        {
+            Path path = Paths.get(item);
+            Path name = path.getFileName();
+            if (name == null || !isPattern(name.toString()))
+            {
+                if (!Files.isRegularFile(path))
+                {
+                    throw new FileNotFoundException("The input file " + item + " does not exist");
+                }
+                files.add(item);
+                continue;
+            }
+
+            //Below lines list the matching files, sorted by name
+            Path directory = (path.getParent() != null) ? path.getParent() : Paths.get("");
+            List<String> matches = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(
+                    directory.toString().isEmpty() ? Paths.get(".") : directory, name.toString()))
+            {
+                for (Path file : stream)
+                {
+                    if (Files.isRegularFile(file))
+                    {
+                        matches.add(directory.resolve(file.getFileName()).toString());
+                    }
+                }
+            }
+            catch (NoSuchFileException | NotDirectoryException ex) //Nothing matches
+            {
+            }
+            if (matches.isEmpty())
+            {
+                throw new FileNotFoundException("No input file matches " + item);
+            }
+            matches.sort(null);
+            files.addAll(matches);
+        }
+        return new ArrayList<>(files);
+    }
+
+    /**
+        * Turns down the switches that cannot apply to several files at
+        * once: a ranking, rejects and samples point at lines of one file,
+        * and a checkpoint, comparison or cache entry follows one file.
+        *
+        * @param options AnalyzerOptions parsed from the command line
+    */
+    public static void checkOptions(AnalyzerOptions options)
+    {
+        if (options.getTopK() > 0 || options.getCompareFile() != null ||
+            options.getSampleSize() > 0 || options.getCheckpointFile() != null ||
+            options.isDeferredValidation() || options.getCacheDirectory() != null)
+        {
+            throw new IllegalArgumentException("Options --top, --compare, --sample, " +
+                "--checkpoint, --cache and --validate=deferred need a single input file");
+        }
+    }
+
+    /**
+        * Summarizes the files in parallel and merges their summaries. Up to
+        * numRecords lines are read from each file.
+        *
+        * precondition The input files exist and can be accessed
+        *
+        * postcondition A CensusAggregates exists with the relevant data
+        *
+        * @param files List of input file names
+        * @param numRecords int limiting the number of records read per file
+        * @param options AnalyzerOptions selecting what is summarized
+        * @return a CensusAggregates holding the merged summaries
+    */
+    public static CensusAggregates readAll(List<String> files, int numRecords,
+                                           AnalyzerOptions options)
+        throws IOException, InterruptedException
+    {
+        int threads = Math.min(files.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1));
+        CompletionService<CensusAggregates> done = new ExecutorCompletionService<>(pool);
+        List<Future<CensusAggregates>> futures = new ArrayList<>();
+        try
+        {
+            for (String file : files)
+            {
+                futures.add(done.submit(() -> CensusAnalyzer.readCensusData(file, numRecords, options)));
+            }
+
+            //Below loop waits for the files as they finish, and stops the
+            //rest at the first failure
+            for (int i = 0; i < files.size(); i++)
+            {
+                Future<CensusAggregates> finished = done.take();
+                if (failure(finished) != null)
+                {
+                    for (Future<CensusAggregates> future : futures)
+                    {
+                        future.cancel(true);
+                    }
+                    pool.shutdown();
+                    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                    throw new IOException(describeFailures(files, futures));
+                }
+            }
+
+            //All files were read; merge in the order they were named
+            CensusAggregates merged = new CensusAggregates(options);
+            for (Future<CensusAggregates> future : futures)
+            {
+                merged.merge(future.get());
+            }
+            return merged;
+        }
+        catch (ExecutionException ex) //Checked by failure() already
+        {
+            throw new IOException(ex.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+        * Helper method to return whether a file name has glob characters.
+        *
+        * @param name String last part of a path
+        * @return true if the name is a pattern
+    */
+    private static boolean isPattern(String name)
+    {
+        for (char c : name.toCharArray())
+        {
+            if (c == '*' || c == '?' || c == '[' || c == '{')
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+        * Helper method to return why a finished file failed, or null if it
+        * was read or cancelled.
+        *
+        * @param future Future of the file, done
+        * @return the Throwable it failed with, or null
+    */
+    private static Throwable failure(Future<CensusAggregates> future)
+        throws InterruptedException
+    {
+        if (future.isCancelled())
+        {
+            return null;
+        }
+        try
+        {
+            future.get();
+            return null;
+        }
+        catch (ExecutionException ex) //The file failed
+        {
+            return ex.getCause();
+        }
+    }
+
+    /**
+        * Helper method to describe the outcome of a failed batch: every file
+        * that failed with its reason, then how many were cancelled. A file
+        * that failed only because it was cancelled counts as cancelled.
+        *
+        * @param files List of input file names
+        * @param futures List of their Futures, all done
+        * @return the description String
+    */
+    private static String describeFailures(List<String> files, List<Future<CensusAggregates>> futures)
+        throws InterruptedException
+    {
+        StringBuilder message = new StringBuilder();
+        int failed = 0; //files that failed
+        int cancelled = 0; //files cancelled before they were read
+        for (int i = 0; i < files.size(); i++)
+        {
+            Throwable cause = failure(futures.get(i));
+            if (futures.get(i).isCancelled() || cause instanceof InterruptedIOException)
+            {
+                cancelled++;
+            }
+            else if (cause != null)
+            {
+                failed++;
+                message.append("\n  ").append(files.get(i)).append(": ")
+                       .append(cause.getMessage() != null ? cause.getMessage() : cause.toString());
+            }
+        }
+        return failed + " of " + files.size() + " input files failed:" + message +
+               (cancelled > 0 ? "\n  " + cancelled + " other file(s) were cancelled" : "");
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+    * This class records how far into an input file CensusAnalyzer has
+    * already summarized, so that a later run over the same file, after new
+    * lines have been appended to it, only has to parse the new lines.
+    *
+    * A checkpoint is a small sidecar file holding:
+    * 1. The byte offset just past the last summarized line
+    * 2. The number of lines summarized
+    * 3. A CRC32C hash of every byte in front of that offset
+    * 4. The serialized summaries (see CensusAggregates.writeTo())
+    *
+    * A checkpoint is only used if the input still starts with exactly the
+    * bytes that were summarized (same hash); if anything in that prefix
+    * has changed, the input is summarized again from the beginning.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusCheckpoint
+{
+    //First int of every checkpoint file ("CKPT" in ASCII)
+    private static final int MAGIC = 0x434B5054;
+
+    //Layout version of the checkpoint file
+    private static final int VERSION = 3;
+
+    //Bytes hashed per mapping of the input
+    private static final long HASH_WINDOW = 256L * 1024 * 1024;
+
+    private long offset; //Offset just past the last summarized line
+    private long lineCount; //Number of lines summarized
+    private long prefixHash; //CRC32C of the bytes in front of offset
+    private CensusAggregates aggregates; //Summaries of those lines
+
+    /**
+        * Loads a checkpoint written by save(). Returns null if there is no
+        * checkpoint, if it cannot be read, or if it was written with a
+        * different set of summaries than empty has enabled, since it then
+        * cannot be resumed.
+        *
+        * @param fileName String detailing the checkpoint file's location
+        * @param empty CensusAggregates with the wanted summaries enabled,
+        *        which the checkpointed summaries are read into
+        * @return the checkpoint, or null
+    */
+    public static CensusCheckpoint load(String fileName, CensusAggregates empty)
+    {
+        //No checkpoint yet, e.g. on the first run
+        if (!new File(fileName).isFile())
+        {
+            return null;
+        }
+
+        try (DataInputStream din = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(fileName))))
+        {
+            if (din.readInt() != MAGIC || din.readInt() != VERSION)
+            {
+                return null; //not a checkpoint this version understands
+            }
+
+            CensusCheckpoint checkpoint = new CensusCheckpoint();
+            checkpoint.offset = din.readLong();
+            checkpoint.lineCount = din.readLong();
+            checkpoint.prefixHash = din.readLong();
+            checkpoint.aggregates = empty;
+            checkpoint.aggregates.readFrom(din);
+            return checkpoint;
+        }
+        catch (IOException ex) //Damaged, truncated or different summaries
+        {
+            return null;
+        }
+    }
+
+    /**
+        * Checks that the input file still starts with the bytes this
+        * checkpoint summarized. The prefix is hashed into crc, which the
+        * caller can keep updating with the rest of the file.
+        *
+        * @param inputFile String detailing the input file's location
+        * @param crc CRC32C to hash the prefix into; should be fresh
+        * @return true if the checkpoint can be resumed
+    */
+    public boolean matches(String inputFile, CRC32C crc) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile),
+                StandardOpenOption.READ))
+        {
+            //A file that shrank cannot hold the same prefix
+            if (channel.size() < offset)
+            {
+                return false;
+            }
+            hash(channel, 0, offset, crc);
+            return crc.getValue() == prefixHash;
+        }
+    }
+
+    /**
+        * Writes a checkpoint for the summaries of the input bytes in front of
+        * offset. The file is written under a temporary name first and then
+        * moved into place, so a reader never sees half a checkpoint.
+        *
+        * @param fileName String detailing the checkpoint file's location
+        * @param offset long offset just past the last summarized line
+        * @param prefixHash long CRC32C of the bytes in front of offset
+        * @param aggregates CensusAggregates summarizing those bytes
+    */
+    public static void save(String fileName, long offset, long prefixHash,
+                            CensusAggregates aggregates)
+        throws IOException
+    {
+        Path target = Paths.get(fileName).toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), ".ckpt", ".tmp");
+
+        try
+        {
+            try (DataOutputStream dout = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp))))
+            {
+                dout.writeInt(MAGIC);
+                dout.writeInt(VERSION);
+                dout.writeLong(offset);
+                dout.writeLong(aggregates.getLineCount());
+                dout.writeLong(prefixHash);
+                aggregates.writeTo(dout);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(temp); //only left behind if the move failed
+        }
+    }
+
+    /**
+        * Updates crc with the input bytes between the offsets from and to.
+        *
+        * @param inputFile String detailing the input file's location
+        * @param from long offset of the first byte to hash
+        * @param to long offset one past the last byte to hash
+        * @param crc CRC32C to update
+    */
+    public static void hash(String inputFile, long from, long to, CRC32C crc)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile),
+                StandardOpenOption.READ))
+        {
+            hash(channel, from, to, crc);
+        }
+    }
+
+    /**
+        * Returns whether the byte in front of offset is a line terminator,
+        * i.e. whether the summarized prefix ends with a complete line. A
+        * checkpoint taken in the middle of a line being appended would
+        * otherwise resume from the wrong place.
+        *
+        * @param inputFile String detailing the input file's location
+        * @param offset long end of the summarized prefix
+        * @return true if a checkpoint at offset can be resumed safely
+    */
+    public static boolean endsWithLine(String inputFile, long offset)
+        throws IOException
+    {
+        if (offset == 0)
+        {
+            return true; //nothing summarized yet
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile),
+                StandardOpenOption.READ))
+        {
+            MappedByteBuffer last = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                offset - 1, 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    /**
+        * Method to return the offset just past the last summarized line.
+        *
+        * @return offset long
+    */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    /**
+        * Method to return the number of lines summarized.
+        *
+        * @return lineCount long
+    */
+    public long getLineCount()
+    {
+        return lineCount;
+    }
+
+    /**
+        * Method to return the summaries restored from the checkpoint.
+        *
+        * @return aggregates CensusAggregates
+    */
+    public CensusAggregates getAggregates()
+    {
+        return aggregates;
+    }
+
+    /**
+        * Helper method to hash a range of an open channel, a mapped window at
+        * a time.
+    */
+    private static void hash(FileChannel channel, long from, long to, CRC32C crc)
+        throws IOException
+    {
+        for (long position = from; position < to; position += HASH_WINDOW)
+        {
+            long length = Math.min(HASH_WINDOW, to - position);
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+        }
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+    * This class compares two vintages of the Census file, e.g. this year's
+    * release against last year's, district by district. It is a hash join:
+    * 1. The smaller of the two files is loaded into a DistrictAggregator,
+    *    keyed by state and LEA code (the build side)
+    * 2. The other file is streamed, and each of its districts is looked up
+    *    in the table (the probe side). A change row is written for it at
+    *    once, so memory is bounded by the smaller file, plus the districts
+    *    found in only one of the two files
+    * 3. Districts of the build side never looked up exist in one vintage
+    *    only, as do probe districts that were not found
+    *
+    * The comparison is written as a text report: the change in child
+    * poverty count and rate for every district found in both vintages,
+    * the districts added and removed, and the change per state.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusComparison
+{
+    private final CensusLineFilter filter; //Lines to compare, or null for all
+    private final StateAggregator baselineStates = new StateAggregator(); //Baseline state totals
+    private final StateAggregator currentStates = new StateAggregator(); //Current state totals
+    private final DistrictAggregator build = new DistrictAggregator(); //Smaller file's districts
+    private final DistrictAggregator unmatched = new DistrictAggregator(); //Probe districts not in build
+    private boolean[] matched; //Per build slot, whether the probe side had it
+    private boolean buildIsBaseline; //Whether the baseline file is the smaller one
+    private String baselineVintage = ""; //Vintage tag of the baseline file
+    private String currentVintage = ""; //Vintage tag of the current file
+    private long common; //Districts found in both files
+
+    /**
+        * Constructor, taking the filter selecting which lines of both files
+        * take part in the comparison.
+        *
+        * @param filter CensusLineFilter, or null to compare every line
+    */
+    public CensusComparison(CensusLineFilter filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+        * Compares the current file against the baseline file and writes the
+        * report. Both files are validated the same way CensusAnalyzer
+        * validates its input.
+        *
+        * precondition Both input files exist and can be accessed
+        *
+        * postcondition A report file exists at the designated path
+        *
+        * @param currentFile String detailing the newer vintage's location
+        * @param baselineFile String detailing the older vintage's location
+        * @param reportFile String detailing the report file path
+    */
+    public void compare(String currentFile, String baselineFile, String reportFile)
+        throws FileNotFoundException, IOException, InvalidArgumentException
+    {
+        //The smaller file is the one held in memory
+        buildIsBaseline = Files.size(Paths.get(baselineFile)) <= Files.size(Paths.get(currentFile));
+        String buildFile = buildIsBaseline ? baselineFile : currentFile;
+        String probeFile = buildIsBaseline ? currentFile : baselineFile;
+
+        new CensusScanner(new BuildHandler(), Long.MAX_VALUE).scanMapped(buildFile);
+        matched = new boolean[build.getCapacity()];
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(reportFile))))
+        {
+            //District rows are written as the probe file streams by; the
+            //vintage tags and counts follow them, once they are known
+            out.printf("Comparison of %s (current) against %s (baseline)%n",
+                       currentFile, baselineFile);
+            if (filter != null)
+            {
+                out.printf("Filter: %s%n", filter);
+            }
+
+            out.printf("%nChanges by District%n");
+            printHeadings(out, "District");
+            new CensusScanner(new ProbeHandler(out), Long.MAX_VALUE).scanMapped(probeFile);
+
+            out.printf("%nVintages: %s (current), %s (baseline)%n", currentVintage, baselineVintage);
+            out.printf("%,d district(s) in both, %,d added, %,d removed%n", common,
+                       oneSided(!buildIsBaseline).length, oneSided(buildIsBaseline).length);
+
+            //Districts only in the current file were added, and the rest removed
+            out.printf("%nAdded Districts%n");
+            printDistricts(out, oneSided(!buildIsBaseline), !buildIsBaseline);
+            out.printf("%nRemoved Districts%n");
+            printDistricts(out, oneSided(buildIsBaseline), buildIsBaseline);
+
+            out.printf("%nChanges by State%n");
+            printHeadings(out, "   State");
+            for (int code = 0; code < StateAggregator.STATE_CODES; code++)
+            {
+                if (baselineStates.contains(code) || currentStates.contains(code))
+                {
+                    printChange(out, String.format("%8s", String.format("%02d", code)),
+                        baselineStates.getChildPopulation(code),
+                        baselineStates.getChildPovertyPopulation(code),
+                        currentStates.getChildPopulation(code),
+                        currentStates.getChildPovertyPopulation(code));
+                }
+            }
+            printChange(out, String.format("%8s", "US"),
+                baselineStates.getNationChildPopulation(),
+                baselineStates.getNationChildPovertyPopulation(),
+                currentStates.getNationChildPopulation(),
+                currentStates.getNationChildPovertyPopulation());
+        }
+    }
+
+    /**
+        * Returns, sorted, the keys of the districts found on one side only:
+        * the build side's keys that were never matched if build is true,
+        * otherwise the probe side's keys that were not found.
+    */
+    private long[] oneSided(boolean buildSide)
+    {
+        if (!buildSide)
+        {
+            return unmatched.sortedKeys();
+        }
+
+        long[] keys = build.sortedKeys();
+        int count = 0; //unmatched keys kept so far
+        for (long key : keys)
+        {
+            if (!matched[build.find(key)])
+            {
+                keys[count++] = key;
+            }
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    /**
+        * Helper method to print the districts of one side with their counts.
+    */
+    private void printDistricts(PrintWriter out, long[] keys, boolean buildSide)
+    {
+        DistrictAggregator table = buildSide ? build : unmatched; //where the counts are
+        out.printf("District  Child Population  Child Poverty Population  %% Child Poverty%n");
+        out.printf("--------  ----------------  ------------------------  ---------------%n");
+        for (long key : keys)
+        {
+            int slot = table.find(key);
+            out.printf("%02d-%05d  %,16d  %,24d  %15.2f%n", DistrictAggregator.stateOf(key),
+                DistrictAggregator.leaOf(key), table.getChildPopulation(slot),
+                table.getChildPovertyPopulation(slot),
+                CensusDataFile.percentage(table.getChildPovertyPopulation(slot),
+                                          table.getChildPopulation(slot)));
+        }
+    }
+
+    /**
+        * Helper method to print the column headings of a change section.
+    */
+    private static void printHeadings(PrintWriter out, String firstColumn)
+    {
+        out.printf("%s  Baseline Poverty  Current Poverty      Change  " +
+                   "Baseline %%  Current %%  Change (pts)%n", firstColumn);
+        out.printf("%s  ----------------  ---------------  ----------  " +
+                   "----------  ---------  ------------%n", "-".repeat(firstColumn.length()));
+    }
+
+    /**
+        * Helper method to print one change row: child poverty counts and
+        * rates of both vintages and the differences between them.
+    */
+    private static void printChange(PrintWriter out, String label, long baselineChild,
+                                    long baselinePoverty, long currentChild, long currentPoverty)
+    {
+        double baselineRate = CensusDataFile.percentage(baselinePoverty, baselineChild);
+        double currentRate = CensusDataFile.percentage(currentPoverty, currentChild);
+        out.printf("%s  %,16d  %,15d  %,+10d  %10.2f  %9.2f  %+12.2f%n", label,
+                   baselinePoverty, currentPoverty, currentPoverty - baselinePoverty,
+                   baselineRate, currentRate, currentRate - baselineRate);
+    }
+
+    /**
+        * Handler loading the build side into the district table.
+    */
+    private class BuildHandler implements CensusRecordHandler
+    {
+        public void record(CensusLineParser line)
+        {
+            if (build.size() == 0) //first line; remember the vintage
+            {
+                setVintage(buildIsBaseline, line.getVintage());
+            }
+            build.record(line);
+            (buildIsBaseline ? baselineStates : currentStates).record(line);
+        }
+
+        public CensusLineFilter getFilter()
+        {
+            return filter;
+        }
+    }
+
+    /**
+        * Handler streaming the probe side against the district table and
+        * writing a change row for every district found in both.
+    */
+    private class ProbeHandler implements CensusRecordHandler
+    {
+        private final PrintWriter out; //Report being written
+        private boolean first = true; //Whether no line has been seen yet
+
+        ProbeHandler(PrintWriter out)
+        {
+            this.out = out;
+        }
+
+        public void record(CensusLineParser line)
+        {
+            if (first) //first line; remember the vintage
+            {
+                setVintage(!buildIsBaseline, line.getVintage());
+                first = false;
+            }
+            (buildIsBaseline ? currentStates : baselineStates).record(line);
+
+            int state = line.getStateCode();
+            int lea = line.getLeaCode();
+            long key = DistrictAggregator.key(state, lea);
+            int slot = build.find(key);
+            if (slot < 0)
+            {
+                //Only in the probe file; kept for the added or removed list
+                unmatched.record(line);
+                return;
+            }
+            matched[slot] = true;
+            common++;
+
+            //Below lines arrange both sides as baseline and current
+            long probeChild = line.getChildPopulation();
+            long probePoverty = line.getChildPovertyPopulation();
+            long buildChild = build.getChildPopulation(slot);
+            long buildPoverty = build.getChildPovertyPopulation(slot);
+            printChange(out, String.format("%02d-%05d", state, lea),
+                buildIsBaseline ? buildChild : probeChild,
+                buildIsBaseline ? buildPoverty : probePoverty,
+                buildIsBaseline ? probeChild : buildChild,
+                buildIsBaseline ? probePoverty : buildPoverty);
+        }
+
+        public CensusLineFilter getFilter()
+        {
+            return filter;
+        }
+    }
+
+    /**
+        * Helper method to remember the vintage tag of one of the files.
+    */
+    private void setVintage(boolean baseline, String vintage)
+    {
+        if (baseline)
+        {
+            baselineVintage = vintage;
+        }
+        else
+        {
+            currentVintage = vintage;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+    * This program analyzes a Census file and reports on it in one run. The
+    * totals CensusAnalyzer builds are handed, still in memory, straight to
+    * the report CensusDataOutputReport prints, instead of being written to
+    * a data file and read back in.
+    *
+    * Writing the data file becomes optional. If an output file is named it
+    * is written, in any output format, on a background thread while the
+    * report is printed, and the run waits for it before ending.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusDashboard
+{
+    /**
+        * This method is called as the startup location for the program.
+        * It expects a minimum of one command line argument, and will
+        * accept two more if furnished.
+        * 1. An input file from which to read census data
+        * 2. If supplied, an output file path to which the summarized data is
+        *    also written, as by CensusAnalyzer; "-" for none
+        * 3. If supplied, the number of records to read, otherwise all records
+        *
+        * The switches of CensusAnalyzer (see AnalyzerOptions) are accepted,
+        * except those that only write reports of their own (--top, --compare
+        * and --sample). Those that write next to the output file need one.
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * postcondition Formatted Census Information printed to screen, and
+        * an output file created at the designated path, if one was given
+    */
+    public static void main(String[] args)
+    {
+        AnalyzerOptions options; //Parsed command line
+        String outputFile; //Output Filename, or null for none
+
+        //Separate optional switches from the positional arguments, and turn
+        //down the ones the dashboard has no place for
+        try
+        {
+            options = AnalyzerOptions.parse(args);
+            outputFile = "-".equals(options.getOutputFile()) ? null : options.getOutputFile();
+            checkOptions(options, outputFile);
+        }
+        catch (IllegalArgumentException ex) //Unknown or unsupported switch
+        {
+            System.out.println("\n" + ex.getMessage() + ". Exiting application.....");
+            return; //Exit app
+        }
+
+        if (options.getPositionalCount() == 0) //No command line arguments
+        {
+            System.out.println("\nNo input file specified. " +
+                "Exiting application......");
+            return; //Exit app
+        }
+
+        //If file doesn't exist, or it points to a directory, quit.
+        String inputFile = options.getInputFile();
+        File temp = new File(inputFile);
+        if (!temp.exists() || !temp.isFile())
+        {
+            System.out.println("\nThe input file does not exist. " +
+                "Exiting application.....");
+            return;  //Exit on error
+        }
+
+        CensusAggregates census;
+        try
+        {
+            census = CensusAnalyzer.readCensusData(inputFile, options.getNumRecords(), options);
+        }
+        catch (Exception ex) //Catch all errors and report exception
+        {
+            System.out.println("There was an error reading and analyzing the data: \n"
+                                + ex.getMessage());
+            return; //exit application
+        }
+
+        //The file is written from the same totals the report reads; neither
+        //changes them (quantile queries sort copies of the sketch levels),
+        //so both can go on at once
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<String> written = (outputFile == null) ? null :
+                writer.submit(() -> writeFiles(inputFile, outputFile, census, options));
+
+            try
+            {
+                System.out.println("\nFile: " + temp.getAbsolutePath());
+                CensusDataOutputReport.printAggregates(new CensusReportWriter(System.out),
+                    census, options.isRollup(), Integer.MAX_VALUE);
+            }
+            catch (Exception ex) //Catch all exceptions and print exception
+            {
+                System.out.println(ex);
+            }
+
+            //Only now, so that nothing is printed into the report
+            if (written != null)
+            {
+                System.out.println(written.get());
+            }
+        }
+        catch (ExecutionException ex) //The file could not be written
+        {
+            System.out.println(ex.getCause());
+        }
+        catch (InterruptedException ex) //Stopped while waiting for the file
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            writer.shutdown();
+        }
+    }
+
+    /**
+        * Helper method to turn down the switches the dashboard cannot honour:
+        * the ones that only write separate reports, and, with no output
+        * file, the ones that write next to it.
+        *
+        * @param options AnalyzerOptions parsed from the command line
+        * @param outputFile String output file path, or null for none
+    */
+    static void checkOptions(AnalyzerOptions options, String outputFile)
+    {
+        if (options.getTopK() > 0 || options.getCompareFile() != null ||
+            options.getSampleSize() > 0)
+        {
+            throw new IllegalArgumentException(
+                "Options --top, --compare and --sample need CensusAnalyzer");
+        }
+        if (outputFile == null && (options.isDeferredValidation() ||
+                                   options.getCheckpointFile() != null))
+        {
+            throw new IllegalArgumentException(
+                "Options --validate=deferred and --checkpoint need an output file");
+        }
+    }
+
+    /**
+        * Helper method, run on the background thread, to write the output
+        * file, and the district file and reject report next to it when
+        * CensusAnalyzer would. Its messages are returned rather than
+        * printed, so they follow the report.
+        *
+        * @param inputFile String detailing the input file's location
+        * @param outputFile String detailing the output file path
+        * @param census CensusAggregates holding the summaries
+        * @param options AnalyzerOptions selecting what is written
+        * @return String message for the end of the run
+    */
+    private static String writeFiles(String inputFile, String outputFile,
+                                     CensusAggregates census, AnalyzerOptions options)
+        throws IOException
+    {
+        CensusAnalyzer.writeDataToFile(outputFile, census, options.getFormat(),
+                                       options.isRollup(), options.isPercentageColumn());
+        String message = "\nData written to " + outputFile;
+
+        //Below as in CensusAnalyzer
+        if (census.getDistricts() != null && !options.isRollup())
+        {
+            CensusAnalyzer.writeDistrictFile(CensusAnalyzer.districtFileName(outputFile),
+                census.getDistricts(), options.getFormat(), options.isPercentageColumn());
+        }
+        if (census.isValidationDeferred())
+        {
+            String rejectFile = CensusAnalyzer.rejectFileName(outputFile);
+            census.getRejects().writeReport(rejectFile, inputFile);
+            message += "\n\n" + census.getRejects().size() +
+                " line(s) rejected; see " + rejectFile;
+        }
+        return message;
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+    * This class reads a format 3 (columnar) data file, as described in
+    * CensusDataFile. The file is memory-mapped and its footer read first,
+    * through the trailer at the very end, so any value of any row can then
+    * be read directly from its column without touching the other columns.
+    *
+    * A file written without the percentage column still answers for it,
+    * by deriving the percentage from the counts.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusDataColumns
+{
+    //Bytes of the trailer: the footer offset and MAGIC
+    private static final int TRAILER_SIZE = 12;
+
+    private final MappedByteBuffer map; //Whole file
+    private final int rowCount; //Rows in the file
+    private final int blocksOffset; //Offset of the first tagged block
+    private final int[] offsets = new int[CensusDataFile.COLUMNS]; //Per column, -1 if absent
+    private final long[] minimums = new long[CensusDataFile.COLUMNS]; //Per column, as stored
+    private final long[] maximums = new long[CensusDataFile.COLUMNS]; //Per column, as stored
+
+    /**
+        * Constructor, mapping the file and reading its header and footer.
+        *
+        * precondition The file exists and can be accessed
+        *
+        * @param fileName String detailing the data file's location
+    */
+    public CensusDataColumns(String fileName) throws FileNotFoundException, IOException
+    {
+        //The mapping stays valid once the channel is closed
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException(fileName + " is too large for format 3");
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        //Below checks make sure this is a whole format 3 file
+        int size = map.limit();
+        if (size < 12 + TRAILER_SIZE || map.getInt(0) != CensusDataFile.MAGIC ||
+            map.getInt(size - 4) != CensusDataFile.MAGIC)
+        {
+            throw new IOException(fileName + " is not a complete format 3 file");
+        }
+        if (map.getInt(4) != CensusDataFile.FORMAT_3)
+        {
+            throw new IOException(fileName + " has unsupported format version " + map.getInt(4));
+        }
+
+        //Header names the columns in stored order; footer follows that order
+        int columns = map.getInt(8);
+        int footer = (int)map.getLong(size - TRAILER_SIZE);
+        rowCount = (int)map.getLong(footer);
+        blocksOffset = (int)map.getLong(footer + 8);
+        Arrays.fill(offsets, -1);
+        for (int c = 0; c < columns; c++)
+        {
+            int column = map.getInt(12 + 4 * c);
+            int entry = footer + 16 + 24 * c; //offset, min, max of the column
+            if (column < 0 || column >= CensusDataFile.COLUMNS)
+            {
+                continue; //a column this reader does not know
+            }
+            offsets[column] = (int)map.getLong(entry);
+            minimums[column] = map.getLong(entry + 8);
+            maximums[column] = map.getLong(entry + 16);
+        }
+        for (int c = 0; c < CensusDataFile.COLUMN_PERCENTAGE; c++)
+        {
+            if (offsets[c] < 0)
+            {
+                throw new IOException(fileName + " lacks column " + c);
+            }
+        }
+    }
+
+    /**
+        * Method to return the number of rows.
+        *
+        * @return rowCount integer
+    */
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+        * Method to return whether the file holds a column, rather than
+        * deriving it.
+        *
+        * @param column integer CensusDataFile COLUMN constant
+        * @return true if the column is stored
+    */
+    public boolean hasColumn(int column)
+    {
+        return offsets[column] >= 0;
+    }
+
+    /**
+        * Method to return the smallest value of a stored column, from the
+        * footer. Counts are exact, as populations stay far below 2^53.
+        *
+        * @param column integer CensusDataFile COLUMN constant
+        * @return minimum value double
+    */
+    public double getMinimum(int column)
+    {
+        return (column == CensusDataFile.COLUMN_PERCENTAGE) ?
+            Double.longBitsToDouble(minimums[column]) : minimums[column];
+    }
+
+    /**
+        * Method to return the largest value of a stored column, from the
+        * footer.
+        *
+        * @param column integer CensusDataFile COLUMN constant
+        * @return maximum value double
+    */
+    public double getMaximum(int column)
+    {
+        return (column == CensusDataFile.COLUMN_PERCENTAGE) ?
+            Double.longBitsToDouble(maximums[column]) : maximums[column];
+    }
+
+    /**
+        * Method to return the LEVEL constant of a row.
+        *
+        * @param row integer row, 0 to getRowCount() - 1
+        * @return level integer
+    */
+    public int getLevel(int row)
+    {
+        return map.getInt(offsets[CensusDataFile.COLUMN_LEVEL] + 4 * row);
+    }
+
+    /**
+        * Method to return the code of a row within its level.
+        *
+        * @param row integer row, 0 to getRowCount() - 1
+        * @return code integer
+    */
+    public int getCode(int row)
+    {
+        return map.getInt(offsets[CensusDataFile.COLUMN_CODE] + 4 * row);
+    }
+
+    /**
+        * Method to return the total population of a row.
+        *
+        * @param row integer row, 0 to getRowCount() - 1
+        * @return totalPopulation long
+    */
+    public long getTotalPopulation(int row)
+    {
+        return map.getLong(offsets[CensusDataFile.COLUMN_TOTAL] + 8 * row);
+    }
+
+    /**
+        * Method to return the child population of a row.
+        *
+        * @param row integer row, 0 to getRowCount() - 1
+        * @return childPopulation long
+    */
+    public long getChildPopulation(int row)
+    {
+        return map.getLong(offsets[CensusDataFile.COLUMN_CHILD] + 8 * row);
+    }
+
+    /**
+        * Method to return the child poverty population of a row.
+        *
+        * @param row integer row, 0 to getRowCount() - 1
+        * @return childPovertyPopulation long
+    */
+    public long getChildPovertyPopulation(int row)
+    {
+        return map.getLong(offsets[CensusDataFile.COLUMN_POVERTY] + 8 * row);
+    }
+
+    /**
+        * Method to return the child poverty percentage of a row, as stored
+        * or else derived from the counts.
+        *
+        * @param row integer row, 0 to getRowCount() - 1
+        * @return childPovertyPercentage double
+    */
+    public double getPercentage(int row)
+    {
+        if (hasColumn(CensusDataFile.COLUMN_PERCENTAGE))
+        {
+            return map.getDouble(offsets[CensusDataFile.COLUMN_PERCENTAGE] + 8 * row);
+        }
+        return CensusDataFile.percentage(getChildPovertyPopulation(row), getChildPopulation(row));
+    }
+
+    /**
+        * Method to return the offset of the first tagged block in the file.
+        *
+        * @return blocksOffset integer
+    */
+    public int getBlocksOffset()
+    {
+        return blocksOffset;
+    }
+
+    /**
+        * Returns a stream over the tagged blocks, positioned at the first
+        * block's tag.
+        *
+        * @return DataInputStream over the blocks
+    */
+    public DataInputStream openBlocks()
+    {
+        int footer = (int)map.getLong(map.limit() - TRAILER_SIZE);
+        byte[] blocks = new byte[footer - blocksOffset];
+        map.get(blocksOffset, blocks);
+        return new DataInputStream(new ByteArrayInputStream(blocks));
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.*;
+
+/**
+    * This class describes the layout of the summarized data files written
+    * by CensusAnalyzer and read by CensusDataOutputReport.
+    *
+    * Format 1 (the original layout) has no header. Each record is a state
+    * code, total population, child population and child poverty population
+    * as ints, followed by the child poverty percentage as a double.
+    *
+    * Format 2 starts with a header of three ints: the MAGIC number, the
+    * format version and the number of rows. Each row holds a level (see the
+    * LEVEL constants), a code within that level, the three population
+    * counts as longs and the child poverty percentage as a double. After
+    * the rows come zero or more tagged blocks (int tag, int byte length,
+    * content), ended by a BLOCK_END tag; readers skip tags they do not know.
+    *
+    * Format 3 holds the same rows column by column, so that a reader can
+    * pick out a single column without reading the others:
+    * 1. Header: MAGIC, the format version, the number of columns and the
+    *    COLUMN constant of each column, in the order they are stored
+    * 2. Columns: all rows' values of one column, then of the next. Levels
+    *    and codes are ints, the counts longs and the percentage a double
+    * 3. Blocks: the tagged blocks of format 2, ended by BLOCK_END
+    * 4. Footer: the row count, the offset of the first block, then per
+    *    column its offset and its minimum and maximum value (longs, or
+    *    doubles for the percentage, which skips undefined rates)
+    * 5. Trailer: the offset of the footer, then MAGIC again
+    * The percentage column may be left out, since it can be derived from
+    * the counts. Format 3 files are written by CensusDataWriter and read by
+    * CensusDataColumns.
+    *
+    * A format 1 file can never start with MAGIC, since its first int is a
+    * two digit state code, so readers can tell the formats apart.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusDataFile
+{
+    //First int of every versioned file ("CSDT" in ASCII)
+    public static final int MAGIC = 0x43534454;
+
+    //Below 3 constants are the known format versions
+    public static final int FORMAT_1 = 1;
+    public static final int FORMAT_2 = 2;
+    public static final int FORMAT_3 = 3;
+
+    //Below 6 constants identify the columns of a format 3 file
+    public static final int COLUMN_LEVEL = 0;
+    public static final int COLUMN_CODE = 1;
+    public static final int COLUMN_TOTAL = 2;
+    public static final int COLUMN_CHILD = 3;
+    public static final int COLUMN_POVERTY = 4;
+    public static final int COLUMN_PERCENTAGE = 5;
+    public static final int COLUMNS = 6;
+
+    //Below 5 constants identify the geographic level of a format 2 row. A
+    //district row's code is its DistrictAggregator key (state and LEA code);
+    //division and region codes are those of CensusGeography
+    public static final int LEVEL_NATION = 0;
+    public static final int LEVEL_STATE = 1;
+    public static final int LEVEL_DISTRICT = 2;
+    public static final int LEVEL_DIVISION = 3;
+    public static final int LEVEL_REGION = 4;
+
+    //Tag ending the list of blocks after the rows
+    public static final int BLOCK_END = 0;
+
+    //Tag of the block holding per-state rate quantile sketches, as written
+    //by StateQuantiles.writeTo()
+    public static final int BLOCK_QUANTILES = 1;
+
+    //Tag of the block holding per-state rate statistics, as written by
+    //StateRateStatistics.writeTo()
+    public static final int BLOCK_STATISTICS = 2;
+
+    //Tag of the block holding sample estimates and their confidence
+    //intervals, as written by CensusSampler.writeBlock()
+    public static final int BLOCK_SAMPLE = 3;
+
+    //Tag of the directory block listing every row by level and code, as
+    //written by CensusDataWriter and searched by CensusDataIndex
+    public static final int BLOCK_INDEX = 4;
+
+    //Bits of the row number in a packed directory entry; files with more
+    //rows than that are written without a directory
+    public static final int INDEX_ROW_BITS = 28;
+
+    //Bytes of a format 2 header and of a format 2 row
+    public static final int FORMAT_2_HEADER_SIZE = 12;
+    public static final int FORMAT_2_ROW_SIZE = 40;
+
+    /**
+        * Writes the format 2 header.
+        *
+        * @param dout DataOutputStream positioned at the start of the file
+        * @param rowCount integer number of rows that will follow
+    */
+    public static void writeHeader(DataOutputStream dout, int rowCount)
+        throws IOException
+    {
+        //Below three lines write the header
+        dout.writeInt(MAGIC);
+        dout.writeInt(FORMAT_2);
+        dout.writeInt(rowCount);
+    }
+
+    /**
+        * Writes a single format 2 row. The child poverty percentage is
+        * derived from the counts the same way StateCensus derives it.
+        *
+        * @param dout DataOutputStream positioned after the previous row
+        * @param level integer LEVEL constant of the row
+        * @param code integer code of the row within its level
+        * @param totalPop long total population
+        * @param childPop long child population
+        * @param childPovPop long child poverty population
+    */
+    public static void writeRow(DataOutputStream dout, int level, int code,
+                                long totalPop, long childPop, long childPovPop)
+        throws IOException
+    {
+        //Below six lines write appropriate information to output file
+        dout.writeInt(level);
+        dout.writeInt(code);
+        dout.writeLong(totalPop);
+        dout.writeLong(childPop);
+        dout.writeLong(childPovPop);
+        dout.writeDouble(percentage(childPovPop, childPop));
+    }
+
+    /**
+        * Writes a tagged block: the tag, the length of the content in bytes
+        * and the content itself.
+        *
+        * @param dout DataOutputStream positioned after the rows or a block
+        * @param tag integer BLOCK constant identifying the content
+        * @param content byte array holding the block's content
+    */
+    public static void writeBlock(DataOutputStream dout, int tag, byte[] content)
+        throws IOException
+    {
+        //Below three lines write the block
+        dout.writeInt(tag);
+        dout.writeInt(content.length);
+        dout.write(content);
+    }
+
+    /**
+        * Calculated method to return the percentage of children living in
+        * poverty, as the child poverty population divided by the child
+        * population, multiplied by 100.
+        *
+        * @param childPovPop long child poverty population
+        * @param childPop long child population
+        * @return childPovertyPercentage double
+    */
+    public static double percentage(long childPovPop, long childPop)
+    {
+        //Calculate and return the childPovertyPercentage
+        return 100 * (double)childPovPop / (double)childPop;
+    }
+}
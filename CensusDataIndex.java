@@ -0,0 +1,301 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+    * This class finds rows of a format 2 or format 3 data file by level and
+    * code, such as one state or one district, without reading the rest of
+    * the file. The file is memory-mapped, and the directory block written
+    * by CensusDataWriter (BLOCK_INDEX) is searched in place by binary
+    * search. The row it names is then read directly: a format 2 row lies at
+    * a fixed offset, as every row has the same size, and a format 3 row is
+    * read across its columns.
+    *
+    * Files written before there was a directory are still understood; their
+    * directory is built in memory from the rows when the index is opened.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusDataIndex
+{
+    //Bytes of one directory entry: level, code and row number
+    private static final int ENTRY_SIZE = 12;
+
+    private final MappedByteBuffer map; //Whole file
+    private final CensusDataColumns columns; //Format 3 columns, or null for format 2
+    private final int rowCount; //Rows in the file
+    private ByteBuffer directory; //Directory entries, from the file or built
+    private int directoryStart; //Position of the first entry in directory
+    private boolean stored; //Whether the file carried its directory
+
+    /**
+        * Constructor, mapping the file and finding its directory.
+        *
+        * precondition The file exists and can be accessed
+        *
+        * @param fileName String detailing the data file's location
+    */
+    public CensusDataIndex(String fileName) throws FileNotFoundException, IOException
+    {
+        //The mapping stays valid once the channel is closed
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException(fileName + " is too large to index");
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (map.limit() < CensusDataFile.FORMAT_2_HEADER_SIZE ||
+            map.getInt(0) != CensusDataFile.MAGIC)
+        {
+            throw new IOException(fileName + " has no header; only formats 2 and 3 can be indexed");
+        }
+
+        //Find the rows and where the blocks after them start
+        int blocks; //offset of the first block
+        int version = map.getInt(4);
+        if (version == CensusDataFile.FORMAT_2)
+        {
+            columns = null;
+            rowCount = map.getInt(8);
+            blocks = CensusDataFile.FORMAT_2_HEADER_SIZE + rowCount * CensusDataFile.FORMAT_2_ROW_SIZE;
+        }
+        else if (version == CensusDataFile.FORMAT_3)
+        {
+            columns = new CensusDataColumns(fileName);
+            rowCount = columns.getRowCount();
+            blocks = columns.getBlocksOffset();
+        }
+        else
+        {
+            throw new IOException(fileName + " has unsupported format version " + version);
+        }
+
+        //Walk the block tags, only reading their lengths, to the directory
+        int tag; //tag of the current block
+        while ((tag = map.getInt(blocks)) != CensusDataFile.BLOCK_END)
+        {
+            if (tag == CensusDataFile.BLOCK_INDEX)
+            {
+                directory = map;
+                directoryStart = blocks + 12; //past tag, length and entry count
+                stored = true;
+                return;
+            }
+            blocks += 8 + map.getInt(blocks + 4);
+        }
+        buildDirectory();
+    }
+
+    /**
+        * Method to return the number of rows.
+        *
+        * @return rowCount integer
+    */
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+        * Method to return whether the file carried its own directory, rather
+        * than one built when it was opened.
+        *
+        * @return true if the directory was read from the file
+    */
+    public boolean isStored()
+    {
+        return stored;
+    }
+
+    /**
+        * Finds the row of a level and code.
+        *
+        * @param level integer CensusDataFile LEVEL constant
+        * @param code integer code within the level
+        * @return row number, or -1 if the file has no such row
+    */
+    public int find(int level, int code)
+    {
+        int entry = lowerBound(level, code);
+        if (entry < rowCount && levelAt(entry) == level && codeAt(entry) == code)
+        {
+            return rowAt(entry);
+        }
+        return -1;
+    }
+
+    /**
+        * Finds the rows of a level whose codes lie in a range, such as all
+        * districts of one state.
+        *
+        * @param level integer CensusDataFile LEVEL constant
+        * @param fromCode integer smallest code wanted
+        * @param toCode integer one past the largest code wanted
+        * @return row numbers, in code order
+    */
+    public int[] findRange(int level, int fromCode, int toCode)
+    {
+        int from = lowerBound(level, fromCode);
+        int to = lowerBound(level, toCode);
+        int[] rows = new int[to - from];
+        for (int i = from; i < to; i++)
+        {
+            rows[i - from] = rowAt(i);
+        }
+        return rows;
+    }
+
+    /**
+        * Method to return the LEVEL constant of a row.
+        *
+        * @param row integer row, 0 to getRowCount() - 1
+        * @return level integer
+    */
+    public int getLevel(int row)
+    {
+        return (columns != null) ? columns.getLevel(row) : map.getInt(rowOffset(row));
+    }
+
+    /**
+        * Method to return the code of a row within its level.
+        *
+        * @param row integer row, 0 to getRowCount() - 1
+        * @return code integer
+    */
+    public int getCode(int row)
+    {
+        return (columns != null) ? columns.getCode(row) : map.getInt(rowOffset(row) + 4);
+    }
+
+    /**
+        * Method to return the total population of a row.
+        *
+        * @param row integer row, 0 to getRowCount() - 1
+        * @return totalPopulation long
+    */
+    public long getTotalPopulation(int row)
+    {
+        return (columns != null) ? columns.getTotalPopulation(row) : map.getLong(rowOffset(row) + 8);
+    }
+
+    /**
+        * Method to return the child population of a row.
+        *
+        * @param row integer row, 0 to getRowCount() - 1
+        * @return childPopulation long
+    */
+    public long getChildPopulation(int row)
+    {
+        return (columns != null) ? columns.getChildPopulation(row) : map.getLong(rowOffset(row) + 16);
+    }
+
+    /**
+        * Method to return the child poverty population of a row.
+        *
+        * @param row integer row, 0 to getRowCount() - 1
+        * @return childPovertyPopulation long
+    */
+    public long getChildPovertyPopulation(int row)
+    {
+        return (columns != null) ?
+            columns.getChildPovertyPopulation(row) : map.getLong(rowOffset(row) + 24);
+    }
+
+    /**
+        * Method to return the child poverty percentage of a row.
+        *
+        * @param row integer row, 0 to getRowCount() - 1
+        * @return childPovertyPercentage double
+    */
+    public double getPercentage(int row)
+    {
+        return (columns != null) ? columns.getPercentage(row) : map.getDouble(rowOffset(row) + 32);
+    }
+
+    /**
+        * Returns the first directory entry not ordered before the level and
+        * code, or rowCount if there is none.
+    */
+    private int lowerBound(int level, int code)
+    {
+        int low = 0;
+        int high = rowCount;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            int midLevel = levelAt(mid);
+            if (midLevel < level || (midLevel == level && codeAt(mid) < code))
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+        * Builds the directory of a file written without one, in the layout
+        * of the stored directory, from every row's level and code.
+    */
+    private void buildDirectory()
+    {
+        long[] entries = new long[rowCount]; //level, code and row packed per row
+        for (int i = 0; i < rowCount; i++)
+        {
+            entries[i] = ((long)getLevel(i) << (CensusDataFile.INDEX_ROW_BITS + 31)) |
+                         ((long)getCode(i) << CensusDataFile.INDEX_ROW_BITS) | i;
+        }
+        Arrays.sort(entries);
+
+        directory = ByteBuffer.allocate(ENTRY_SIZE * rowCount);
+        directoryStart = 0;
+        for (int i = 0; i < rowCount; i++)
+        {
+            int row = (int)(entries[i] & ((1 << CensusDataFile.INDEX_ROW_BITS) - 1));
+            directory.putInt(ENTRY_SIZE * i, getLevel(row));
+            directory.putInt(ENTRY_SIZE * i + 4, getCode(row));
+            directory.putInt(ENTRY_SIZE * i + 8, row);
+        }
+    }
+
+    /**
+        * Helper method to return the level of a directory entry.
+    */
+    private int levelAt(int entry)
+    {
+        return directory.getInt(directoryStart + ENTRY_SIZE * entry);
+    }
+
+    /**
+        * Helper method to return the code of a directory entry.
+    */
+    private int codeAt(int entry)
+    {
+        return directory.getInt(directoryStart + ENTRY_SIZE * entry + 4);
+    }
+
+    /**
+        * Helper method to return the row number of a directory entry.
+    */
+    private int rowAt(int entry)
+    {
+        return directory.getInt(directoryStart + ENTRY_SIZE * entry + 8);
+    }
+
+    /**
+        * Helper method to return where a format 2 row starts in the file.
+    */
+    private int rowOffset(int row)
+    {
+        return CensusDataFile.FORMAT_2_HEADER_SIZE + CensusDataFile.FORMAT_2_ROW_SIZE * row;
+    }
+}
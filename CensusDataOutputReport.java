@@ -1,5 +1,6 @@
 import java.io.*;
-
+import java.util.ArrayList;
+import java.util.List;
 
 /**
     * This program consumes processed Census information as provided through 
@@ -11,6 +12,25 @@ import java.io.*;
 */
 public class CensusDataOutputReport
 {
+    //Below 4 constants are the first column headings of each kind of row
+    private static final String STATE_HEADING = "State";
+    private static final String DISTRICT_HEADING = "District";
+    //Division and region rows are named, so these headings are right
+    //aligned over the longest name ("East North Central", "Northeast")
+    private static final String DIVISION_HEADING = String.format("%18s", "Division");
+    private static final String REGION_HEADING = String.format("%9s", "Region");
+
+    //Below 2 constants are the widths of the Population column: 10 in the
+    //original layout, and 11 in versioned files, whose national and region
+    //totals pass 99,999,999
+    private static final int POPULATION_WIDTH = 10;
+    private static final int WIDE_POPULATION_WIDTH = 11;
+
+    //Buffer a report is captured into as text, made once per thread so
+    //that reports captured at the same time neither wait for nor mix with
+    //each other
+    private static final ThreadLocal<Capture> CAPTURE = ThreadLocal.withInitial(Capture::new);
+
     /**
         * This method is called as the startup location for the program.
         * It expects a minimum of one command line argument, and will
@@ -18,6 +38,14 @@ public class CensusDataOutputReport
         * 1. An input file from which to read census analyzed information
         * 2. If supplied, the number of records to read, otherwise all records
         *
+        * Instead of the whole file, only some rows of a format 2 or format 3
+        * file can be printed, found through its directory (see
+        * CensusDataIndex) with these switches:
+        *   --state=CODES      the comma separated states, e.g. --state=06,48;
+        *                      in a district file, all districts of each
+        *   --district=KEYS    the comma separated districts, each a state
+        *                      and LEA code, e.g. --district=36-12510
+        *
         * precondition The input file exists and can be accessed
         *
         * postcondition Formatted Census Information printed to screen
@@ -28,6 +56,51 @@ public class CensusDataOutputReport
 	{
 		int numRecords; //Number of records to read
         String inputFile; //Input Filename
+        List<Integer> states = new ArrayList<>(); //States to look up
+        List<Long> districts = new ArrayList<>(); //District keys to look up
+        
+        //Separate the lookup switches from the positional arguments
+        List<String> positional = new ArrayList<>();
+        try
+        {
+            for (String arg : args)
+            {
+                if (arg.startsWith("--state="))
+                {
+                    for (String code : arg.substring("--state=".length()).split(","))
+                    {
+                        states.add(parseCode(arg, code, 100));
+                    }
+                }
+                else if (arg.startsWith("--district="))
+                {
+                    for (String key : arg.substring("--district=".length()).split(","))
+                    {
+                        String[] parts = key.split("-");
+                        if (parts.length != 2)
+                        {
+                            throw new IllegalArgumentException("Invalid value in option: " + arg);
+                        }
+                        districts.add(DistrictAggregator.key(parseCode(arg, parts[0], 100), 
+                                                             parseCode(arg, parts[1], 100000)));
+                    }
+                }
+                else if (arg.startsWith("--"))
+                {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+                else
+                {
+                    positional.add(arg);
+                }
+            }
+        }
+        catch (IllegalArgumentException ex) //Unknown switch or bad code
+        {
+            System.out.println("\n" + ex.getMessage() + ". Exiting application.....");
+            return; //Exit application
+        }
+        args = positional.toArray(new String[0]);
 
         if (args.length == 0) //No command line arguments
         {
@@ -60,10 +133,18 @@ public class CensusDataOutputReport
         numRecords = (args.length > 1) ? 
                      Integer.parseInt(args[1]) : Integer.MAX_VALUE;
 
-        //Create output report to screen
+        //Create output report to screen, of the whole file or the rows asked for
+        CensusReportWriter report = new CensusReportWriter(System.out);
         try
         {
-            generateReport(inputFile, numRecords);
+            if (states.isEmpty() && districts.isEmpty())
+            {
+                generateReport(report, inputFile, numRecords);
+            }
+            else
+            {
+                printLookup(report, inputFile, states, districts);
+            }
         }
         catch (Exception ex) //catch all exceptions
         {
@@ -76,17 +157,19 @@ public class CensusDataOutputReport
         * This method prints the data from a StateCensus analyzed file to screen.
         * Because the summarized data is stored in primitive types
         * (double, and int), a buffered DataInputStream is used for reading
-        * efficiently. 
+        * efficiently. The original headerless format and both versioned
+        * formats described in CensusDataFile are understood.
         *
         * precondition The input file path is legal and accessible
         *
         * postcondition Analyzed information is printed to screen
         *
         * @author Baseem Astiphan
+        * @param report CensusReportWriter the report is printed with
         * @param fileName String detailing the output file path
         * @param numRec total records to process
     */    
-	private static void generateReport(String fileName, int numRec)
+	private static void generateReport(CensusReportWriter report, String fileName, int numRec)
         throws FileNotFoundException, IOException
 	{
 		int counter = 0; //how many records have been processed
@@ -99,16 +182,36 @@ public class CensusDataOutputReport
 		try (DataInputStream din = new DataInputStream(
 				new BufferedInputStream(new FileInputStream(fileName)))) 
 		{
+            //Print full file path to the screen
+			System.out.println("\nFile: " + new File(fileName).getAbsolutePath());
+            
+            //Versioned files start with the magic number; the original
+            //format has no header, so put the first int back if it is not
+            din.mark(4);
+            if (din.readInt() == CensusDataFile.MAGIC)
+            {
+                printVersioned(report, din, fileName, numRec);
+                return;
+            }
+            din.reset();
+            
             //Call helper method to generate the headings
-			printHeadings(fileName);
+			printHeadings(report, STATE_HEADING, POPULATION_WIDTH);
             
             //Loop until we hit the desired number of records
 			while(counter < numRec)
 			{
-                //Use a formatted string to output to screen the data with appropriate 
-                //formatting. Will print state, totalPop, childPop, childPovPop, childPov%
-				System.out.printf("   %02d  %,10d  %,16d  %,24d  %15.2f%n", 
-					din.readInt(), din.readInt(), din.readInt(), din.readInt(), din.readDouble());
+                //Below five lines read a whole record before any of it is printed
+                int code = din.readInt();
+                int totalPop = din.readInt();
+                int childPop = din.readInt();
+                int childPovPop = din.readInt();
+                double percentage = din.readDouble();
+                
+                //Will print state, totalPop, childPop, childPovPop, childPov%, 
+                //as "   %02d  %,10d  %,16d  %,24d  %15.2f%n"
+                report.spaces(3).zeroPadded(code, 2);
+                printCounts(report, POPULATION_WIDTH, totalPop, childPop, childPovPop, percentage);
 				
                 counter++; //incremenet record counter
 			}
@@ -136,34 +239,542 @@ public class CensusDataOutputReport
             //Propagate to calling code
 			throw ex;
 		}
+        finally
+        {
+            report.flush(); //rows still buffered
+        }
 	}
 
+    /**
+        * This method prints summaries still held in memory, as handed over
+        * by CensusDashboard, exactly as it would print a format 2 file written
+        * from them. The rows come straight from CensusAnalyzer.writeRows(),
+        * and the quantiles and statistics from the aggregates themselves, so
+        * nothing is written out and read back in between.
+        *
+        * postcondition The summaries are printed to screen
+        *
+        * @param report CensusReportWriter the report is printed with
+        * @param census CensusAggregates holding the summaries
+        * @param rollup boolean true to print all geographic levels
+        * @param numRec total state and district records to print
+    */
+    static void printAggregates(CensusReportWriter report, CensusAggregates census,
+                                boolean rollup, int numRec)
+        throws IOException
+    {
+        try
+        {
+            CensusAnalyzer.writeRows(census, rollup, new ReportRows(report, numRec));
+        }
+        finally
+        {
+            report.flush(); //rows still buffered
+        }
+        if (census.getQuantiles() != null)
+        {
+            printQuantiles(report.stream(), census.getQuantiles());
+        }
+        if (census.getStatistics() != null)
+        {
+            printStatistics(report.stream(), census.getStatistics());
+        }
+    }
+
+    /**
+        * This method returns the text printAggregates() prints, so that it
+        * can be kept and handed out, e.g. by CensusServer, without printing
+        * it.
+        *
+        * @param census CensusAggregates holding the summaries
+        * @param rollup boolean true to include all geographic levels
+        * @return byte array of the report text
+    */
+    static byte[] renderAggregates(CensusAggregates census, boolean rollup) throws IOException
+    {
+        Capture capture = CAPTURE.get();
+        capture.bytes.reset();
+        printAggregates(capture.report, census, rollup, Integer.MAX_VALUE);
+        capture.report.flush();
+        return capture.bytes.toByteArray();
+    }
+
+    /**
+        * This method returns the text a lookup prints for a single row: the
+        * row under its headings.
+        *
+        * @param level integer CensusDataFile LEVEL constant of the row
+        * @param code integer code of the row within its level
+        * @param totalPop long total population
+        * @param childPop long child population
+        * @param childPovPop long child poverty population
+        * @return byte array of the row text
+    */
+    static byte[] renderRow(int level, int code, long totalPop, long childPop, long childPovPop)
+    {
+        Capture capture = CAPTURE.get();
+        capture.bytes.reset();
+        printRow(capture.report, null, level, code, totalPop, childPop, childPovPop,
+                 CensusDataFile.percentage(childPovPop, childPop));
+        capture.report.flush();
+        return capture.bytes.toByteArray();
+    }
+
+    /**
+        * This method prints only the rows of the given states and districts,
+        * looked up through the file's directory rather than read in order.
+        * A state with no row of its own, as in a district file, is printed
+        * as all of its districts instead.
+        *
+        * precondition The input file is a format 2 or format 3 file
+        *
+        * postcondition The rows found are printed to screen
+        *
+        * @param report CensusReportWriter the rows are printed with
+        * @param fileName String detailing the data file path
+        * @param states List of state codes to print
+        * @param districts List of district keys to print
+    */
+    private static void printLookup(CensusReportWriter report, String fileName,
+                                    List<Integer> states, List<Long> districts)
+        throws IOException
+    {
+        System.out.println("\nFile: " + new File(fileName).getAbsolutePath());
+        CensusDataIndex index = new CensusDataIndex(fileName);
+        String heading = null; //first column heading of the current section
+        
+        for (int code : states)
+        {
+            int row = index.find(CensusDataFile.LEVEL_STATE, code);
+            int[] rows = (row >= 0) ? new int[] {row} :
+                index.findRange(CensusDataFile.LEVEL_DISTRICT, (int)DistrictAggregator.key(code, 0),
+                                (int)DistrictAggregator.key(code + 1, 0));
+            if (rows.length == 0)
+            {
+                report.flush();
+                System.out.printf("%nState %02d not found%n", code);
+                heading = null; //headings again after the message
+            }
+            for (int r : rows)
+            {
+                heading = printRow(report, heading, index.getLevel(r), index.getCode(r),
+                    index.getTotalPopulation(r), index.getChildPopulation(r),
+                    index.getChildPovertyPopulation(r), index.getPercentage(r));
+            }
+        }
+        for (long key : districts)
+        {
+            int r = index.find(CensusDataFile.LEVEL_DISTRICT, (int)key);
+            if (r < 0)
+            {
+                report.flush();
+                System.out.printf("%nDistrict %02d-%05d not found%n", 
+                    DistrictAggregator.stateOf(key), DistrictAggregator.leaOf(key));
+                heading = null; //headings again after the message
+                continue;
+            }
+            heading = printRow(report, heading, index.getLevel(r), index.getCode(r),
+                index.getTotalPopulation(r), index.getChildPopulation(r),
+                index.getChildPovertyPopulation(r), index.getPercentage(r));
+        }
+        report.flush();
+    }
+
+    /**
+        * Helper method to read one code of a lookup switch, such as a state
+        * or an LEA code.
+        *
+        * @param arg String holding the whole switch
+        * @param code String holding the code
+        * @param limit integer one past the largest valid code
+        * @return the parsed code
+    */
+    private static int parseCode(String arg, String code, int limit)
+    {
+        try
+        {
+            int value = Integer.parseInt(code);
+            if (value >= 0 && value < limit)
+            {
+                return value;
+            }
+        }
+        catch (NumberFormatException ex) //Fall through to the error below
+        {
+        }
+        throw new IllegalArgumentException("Invalid value in option: " + arg);
+    }
+
+    /**
+        * Helper method to print the rows of a versioned file, with its header
+        * already consumed up to the magic number. Format 2 rows are read from
+        * the stream; a format 3 file is read again through CensusDataColumns.
+        * Rows of each level are printed under their own headings, limited to
+        * numRec rows in all; the national total row follows them below a
+        * border.
+        *
+        * @param report CensusReportWriter the rows are printed with
+        * @param din DataInputStream positioned after the magic number
+        * @param fileName String file name, for error messages
+        * @param numRec total state and district records to print
+    */
+    private static void printVersioned(CensusReportWriter report, DataInputStream din,
+                                       String fileName, int numRec)
+        throws IOException
+    {
+        int version = din.readInt(); //format version of the file
+        if (version == CensusDataFile.FORMAT_3)
+        {
+            printFormat3(report, new CensusDataColumns(fileName), numRec);
+            return;
+        }
+        if (version != CensusDataFile.FORMAT_2)
+        {
+            throw new IOException(fileName + " has unsupported format version " + version);
+        }
+        
+        int rows = din.readInt(); //number of rows in the file
+        int counter = 0; //how many state and district records have been printed
+        String heading = null; //first column heading of the current section
+        
+        for (int i = 0; i < rows; i++)
+        {
+            //Below six lines read a single row
+            int level = din.readInt();
+            int code = din.readInt();
+            long totalPop = din.readLong();
+            long childPop = din.readLong();
+            long childPovPop = din.readLong();
+            double percentage = din.readDouble();
+            
+            if (level != CensusDataFile.LEVEL_NATION && counter++ >= numRec)
+            {
+                continue; //past the desired number of records
+            }
+            heading = printRow(report, heading, level, code, totalPop, childPop, childPovPop, percentage);
+        }
+        printBlocks(report, din);
+    }
+
+    /**
+        * Helper method to print the rows of a format 3 file, the same way as
+        * those of a format 2 file, reading each row across the columns.
+        *
+        * @param report CensusReportWriter the rows are printed with
+        * @param columns CensusDataColumns of the file
+        * @param numRec total state and district records to print
+    */
+    private static void printFormat3(CensusReportWriter report, CensusDataColumns columns,
+                                     int numRec)
+        throws IOException
+    {
+        int counter = 0; //how many state and district records have been printed
+        String heading = null; //first column heading of the current section
+        
+        for (int i = 0; i < columns.getRowCount(); i++)
+        {
+            int level = columns.getLevel(i);
+            if (level != CensusDataFile.LEVEL_NATION && counter++ >= numRec)
+            {
+                continue; //past the desired number of records
+            }
+            heading = printRow(report, heading, level, columns.getCode(i), 
+                columns.getTotalPopulation(i), columns.getChildPopulation(i), 
+                columns.getChildPovertyPopulation(i), columns.getPercentage(i));
+        }
+        printBlocks(report, columns.openBlocks());
+    }
+
+    /**
+        * Helper method to print one row of a versioned file, under new
+        * headings if its level differs from the previous row's. The national
+        * total row is set apart below a border instead.
+        *
+        * @param report CensusReportWriter the row is printed with
+        * @param heading String first column heading of the current section,
+        * or null before the first row
+        * @param level integer CensusDataFile LEVEL constant of the row
+        * @param code integer code of the row within its level
+        * @param totalPop long total population
+        * @param childPop long child population
+        * @param childPovPop long child poverty population
+        * @param percentage double child poverty percentage
+        * @return String heading of the section the row was printed in
+    */
+    private static String printRow(CensusReportWriter report, String heading, int level,
+                                   int code, long totalPop, long childPop, long childPovPop,
+                                   double percentage)
+    {
+        if (level == CensusDataFile.LEVEL_NATION)
+        {
+            //Set the national total apart from the rows above it
+            String width = (heading == null ? STATE_HEADING : heading);
+            printBorder(report, width, WIDE_POPULATION_WIDTH);
+            report.put("US", width.length());
+            printCounts(report, WIDE_POPULATION_WIDTH, totalPop, childPop, childPovPop, percentage);
+            return heading;
+        }
+        
+        //Start a new section when the level changes
+        String rowHeading = headingOf(level);
+        if (!rowHeading.equals(heading))
+        {
+            heading = rowHeading;
+            printHeadings(report, heading, WIDE_POPULATION_WIDTH);
+        }
+        
+        //Will print code, totalPop, childPop, childPovPop, childPov%, with
+        //the code right aligned under its heading: a district as %02d-%05d
+        //(always 8 characters), a division or region by its name, anything
+        //else as %02d
+        String name = placeName(level, code);
+        if (level == CensusDataFile.LEVEL_DISTRICT)
+        {
+            report.spaces(heading.length() - 8)
+                  .zeroPadded(DistrictAggregator.stateOf(code), 2).put("-")
+                  .zeroPadded(DistrictAggregator.leaOf(code), 5);
+        }
+        else if (name != null)
+        {
+            report.put(name, heading.length());
+        }
+        else
+        {
+            int length = (code >= 0 && code < 100) ? 2 : String.valueOf(code).length();
+            report.spaces(heading.length() - length).zeroPadded(code, 2);
+        }
+        printCounts(report, WIDE_POPULATION_WIDTH, totalPop, childPop, childPovPop, percentage);
+        return heading;
+    }
+
+    /**
+        * Helper method to print the four numeric columns of a row and end the
+        * line, as "  %,10d  %,16d  %,24d  %15.2f%n" with the Population
+        * column as wide as asked.
+        *
+        * @param report CensusReportWriter the row is printed with
+        * @param populationWidth integer width of the Population column
+        * @param totalPop long total population
+        * @param childPop long child population
+        * @param childPovPop long child poverty population
+        * @param percentage double child poverty percentage
+    */
+    private static void printCounts(CensusReportWriter report, int populationWidth, long totalPop,
+                                    long childPop, long childPovPop, double percentage)
+    {
+        report.spaces(2).grouped(totalPop, populationWidth).spaces(2).grouped(childPop, 16)
+              .spaces(2).grouped(childPovPop, 24).spaces(2).fixed2(percentage, 15).newLine();
+    }
+
+    /**
+        * Helper method to print the tagged blocks that follow the rows. The
+        * ones understood are printed and the rest skipped.
+        *
+        * @param report CensusReportWriter the rows were printed with
+        * @param din DataInputStream positioned at the first block's tag
+    */
+    private static void printBlocks(CensusReportWriter report, DataInputStream din)
+        throws IOException
+    {
+        PrintStream screen = report.stream(); //blocks print straight to its stream
+        int tag; //tag of the current block
+        while ((tag = din.readInt()) != CensusDataFile.BLOCK_END)
+        {
+            int length = din.readInt(); //content bytes of the block
+            if (tag == CensusDataFile.BLOCK_QUANTILES)
+            {
+                StateQuantiles quantiles = new StateQuantiles();
+                quantiles.readFrom(din);
+                printQuantiles(screen, quantiles);
+            }
+            else if (tag == CensusDataFile.BLOCK_STATISTICS)
+            {
+                StateRateStatistics statistics = new StateRateStatistics();
+                statistics.readFrom(din);
+                printStatistics(screen, statistics);
+            }
+            else if (tag == CensusDataFile.BLOCK_SAMPLE)
+            {
+                CensusSampler.printBlock(din, screen);
+            }
+            else
+            {
+                din.skipNBytes(length);
+            }
+        }
+    }
+
+    /**
+        * Helper method to print the median, 90th and 99th percentile district
+        * child poverty rate of every state that has a sketch, in state code
+        * order.
+        *
+        * @param screen PrintStream the table is printed to
+        * @param quantiles StateQuantiles read from the file
+    */
+    private static void printQuantiles(PrintStream screen, StateQuantiles quantiles)
+    {
+        //Print column headings and borders
+        screen.print("\nDistrict % Child Poverty by State\n");
+        screen.print("\nState   Districts  Median  90th Percentile  99th Percentile\n");
+        screen.print("-----  ----------  ------  ---------------  ---------------\n");
+        
+        for (int code = 0; code < StateAggregator.STATE_CODES; code++)
+        {
+            QuantileSketch sketch = quantiles.getSketch(code);
+            if (sketch != null)
+            {
+                //Will print state, districts with a rate, median, p90, p99
+                screen.printf("   %02d  %,10d  %6.2f  %15.2f  %15.2f%n", code, 
+                    sketch.getCount(), sketch.quantile(StateQuantiles.MEDIAN),
+                    sketch.quantile(StateQuantiles.P90), sketch.quantile(StateQuantiles.P99));
+            }
+        }
+    }
+
+    /**
+        * Helper method to print the child population weighted mean, standard
+        * deviation and Theil index of the district child poverty rates of
+        * every state with districts, in state code order.
+        *
+        * @param screen PrintStream the table is printed to
+        * @param statistics StateRateStatistics read from the file
+    */
+    private static void printStatistics(PrintStream screen, StateRateStatistics statistics)
+    {
+        //Print column headings and borders
+        screen.print("\nDistrict % Child Poverty by State, Weighted by Child Population\n");
+        screen.print("\nState   Districts    Mean  Std Deviation  Theil Index\n");
+        screen.print("-----  ----------  ------  -------------  -----------\n");
+        
+        for (int code = 0; code < StateAggregator.STATE_CODES; code++)
+        {
+            if (statistics.getDistrictCount(code) > 0)
+            {
+                //Will print state, districts with a rate, mean, std dev, Theil
+                screen.printf("   %02d  %,10d  %6.2f  %13.2f  %11.4f%n", code,
+                    statistics.getDistrictCount(code), statistics.getMean(code),
+                    Math.sqrt(statistics.getVariance(code)), statistics.getTheilIndex(code));
+            }
+        }
+    }
+
+    /**
+        * Helper method to return the name of a division or region row, or
+        * null for other levels and codes that name no division or region.
+        *
+        * @param level integer CensusDataFile LEVEL constant of the row
+        * @param code integer code of the row within its level
+        * @return String division or region name, or null
+    */
+    private static String placeName(int level, int code)
+    {
+        if (level == CensusDataFile.LEVEL_DIVISION && code > 0 && code < CensusGeography.DIVISIONS)
+        {
+            return CensusGeography.divisionName(code);
+        }
+        if (level == CensusDataFile.LEVEL_REGION && code > 0 && code < CensusGeography.REGIONS)
+        {
+            return CensusGeography.regionName(code);
+        }
+        return null;
+    }
+
+    /**
+        * Helper method to return the first column heading for rows of a level
+        *
+        * @param level integer CensusDataFile LEVEL constant
+        * @return String column heading
+    */
+    private static String headingOf(int level)
+    {
+        switch (level)
+        {
+            case CensusDataFile.LEVEL_DISTRICT:
+                return DISTRICT_HEADING;
+            case CensusDataFile.LEVEL_DIVISION:
+                return DIVISION_HEADING;
+            case CensusDataFile.LEVEL_REGION:
+                return REGION_HEADING;
+            default:
+                return STATE_HEADING;
+        }
+    }
+
     /**
         * Helper method to encapsulate logic for printing headers to the screen
         *
         * @author Baseem Astiphan
-        * @param fileName String file name to be printed as part of the header
+        * @param report CensusReportWriter the headings are printed with
+        * @param firstColumn String heading of the first column
+        * @param populationWidth integer width of the Population column
     */
-	private static void printHeadings(String fileName)
+	private static void printHeadings(CensusReportWriter report, String firstColumn,
+	                                  int populationWidth)
 	{
-        //Print full file path to the screen
-		System.out.println("\nFile: " + new File(fileName).getAbsolutePath());
-
         //Print column headings
-		System.out.print("\nState  ");
-		System.out.print("Population  ");
-		System.out.print("Child Population  ");
-		System.out.print("Child Poverty Population  ");
-		System.out.print("% Child Poverty\n");
+		report.put("\n" + firstColumn + "  ");
+		report.put("Population", populationWidth).put("  ");
+		report.put("Child Population  ");
+		report.put("Child Poverty Population  ");
+		report.put("% Child Poverty\n");
 
         //Print borders, for formatting purposes
-		System.out.print("-----  ");
-		System.out.print("----------  ");
-		System.out.print("----------------  ");
-		System.out.print("------------------------  ");
-		System.out.print("---------------\n");
-
+		printBorder(report, firstColumn, populationWidth);
+	}
 
+    /**
+        * Helper method to print the border drawn beneath the column headings
+        *
+        * @param report CensusReportWriter the border is printed with
+        * @param firstColumn String heading of the first column
+        * @param populationWidth integer width of the Population column
+    */
+	private static void printBorder(CensusReportWriter report, String firstColumn,
+	                                int populationWidth)
+	{
+		report.put("-".repeat(firstColumn.length()) + "  ");
+		report.put("-".repeat(populationWidth) + "  ");
+		report.put("----------------  ");
+		report.put("------------------------  ");
+		report.put("---------------\n");
 	}
 
+    /**
+        * Buffer a report is captured into, and the writer printing into it.
+    */
+    private static class Capture
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(); //Captured text
+        private final CensusReportWriter report = new CensusReportWriter(new PrintStream(bytes));
+    }
+
+    /**
+        * Row sink printing the rows handed to it by printAggregates(), with
+        * the percentage derived as CensusDataFile would store it.
+    */
+    private static class ReportRows implements CensusRowSink
+    {
+        private final CensusReportWriter report; //Prints the rows
+        private final int numRec; //State and district records to print
+        private int counter; //How many have been printed
+        private String heading; //First column heading of the current section
+
+        ReportRows(CensusReportWriter report, int numRec)
+        {
+            this.report = report;
+            this.numRec = numRec;
+        }
+
+        @Override
+        public void writeRow(int level, int code, long totalPop, long childPop, long childPovPop)
+        {
+            if (level != CensusDataFile.LEVEL_NATION && counter++ >= numRec)
+            {
+                return; //past the desired number of records
+            }
+            heading = printRow(report, heading, level, code, totalPop, childPop, childPovPop,
+                CensusDataFile.percentage(childPovPop, childPop));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,293 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+    * This class writes the rows and blocks of a versioned data file, in
+    * format 2 or format 3 (see CensusDataFile), so that whatever produces
+    * the rows need not know which format it is writing.
+    *
+    * Format 2 rows are written as they come. Format 3 stores each column
+    * in one piece, so rows are held column by column, in primitive arrays
+    * sized by the announced row count, and blocks are held as they are,
+    * until finish() writes the whole file.
+    *
+    * Either way, finish() adds a directory block (BLOCK_INDEX) listing
+    * every row by level and code, so readers can find a row without
+    * reading the ones before it (see CensusDataIndex).
+    *
+    * As a CensusRowSink, it takes the rows straight from CensusAnalyzer.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusDataWriter implements CensusRowSink
+{
+    private final DataOutputStream dout; //Where the file is written
+    private final int format; //FORMAT_2 or FORMAT_3
+    private final boolean percentageColumn; //Whether format 3 keeps the percentage
+    private final int rowCount; //Rows that will be written
+
+    //Below 2 arrays hold every row's level and code, for the directory
+    private final int[] levels;
+    private final int[] codes;
+    private long[][] counts; //Total, child and poverty pop per format 3 row
+
+    private final List<Integer> blockTags = new ArrayList<>(); //Held format 3 block tags
+    private final List<byte[]> blockContents = new ArrayList<>(); //Their content
+    private int rows; //Rows written so far
+
+    /**
+        * Constructor, writing the format 2 header at once.
+        *
+        * precondition Nothing has been written to dout yet, since its byte
+        * count gives the format 3 offsets
+        *
+        * @param dout DataOutputStream positioned at the start of the file
+        * @param format integer FORMAT_2 or FORMAT_3
+        * @param percentageColumn false to leave the percentage out of format 3
+        * @param rowCount integer number of rows that will be written
+    */
+    public CensusDataWriter(DataOutputStream dout, int format, boolean percentageColumn,
+                            int rowCount) throws IOException
+    {
+        if (format != CensusDataFile.FORMAT_2 && format != CensusDataFile.FORMAT_3)
+        {
+            throw new IOException("Unsupported format version " + format);
+        }
+        this.dout = dout;
+        this.format = format;
+        this.percentageColumn = percentageColumn;
+        this.rowCount = rowCount;
+
+        levels = new int[rowCount];
+        codes = new int[rowCount];
+        if (format == CensusDataFile.FORMAT_2)
+        {
+            CensusDataFile.writeHeader(dout, rowCount);
+        }
+        else
+        {
+            counts = new long[3][rowCount];
+        }
+    }
+
+    /**
+        * Writes a single row.
+        *
+        * @param level integer LEVEL constant of the row
+        * @param code integer code of the row within its level
+        * @param totalPop long total population
+        * @param childPop long child population
+        * @param childPovPop long child poverty population
+    */
+    public void writeRow(int level, int code, long totalPop, long childPop, long childPovPop)
+        throws IOException
+    {
+        if (rows == rowCount)
+        {
+            throw new IOException("More rows written than the " + rowCount + " announced");
+        }
+        levels[rows] = level;
+        codes[rows] = code;
+        if (format == CensusDataFile.FORMAT_2)
+        {
+            CensusDataFile.writeRow(dout, level, code, totalPop, childPop, childPovPop);
+        }
+        else
+        {
+            //Below three lines store the counts
+            counts[0][rows] = totalPop;
+            counts[1][rows] = childPop;
+            counts[2][rows] = childPovPop;
+        }
+        rows++;
+    }
+
+    /**
+        * Writes a tagged block; all rows must have been written first.
+        *
+        * @param tag integer BLOCK constant identifying the content
+        * @param content byte array holding the block's content
+    */
+    public void writeBlock(int tag, byte[] content) throws IOException
+    {
+        if (format == CensusDataFile.FORMAT_2)
+        {
+            CensusDataFile.writeBlock(dout, tag, content);
+        }
+        else
+        {
+            blockTags.add(tag);
+            blockContents.add(content);
+        }
+    }
+
+    /**
+        * Ends the file: writes BLOCK_END for format 2, or the whole file for
+        * format 3. The stream is left open.
+        *
+        * postcondition The rows and blocks are written in full
+    */
+    public void finish() throws IOException
+    {
+        if (rows != rowCount)
+        {
+            throw new IOException(rows + " rows written of the " + rowCount + " announced");
+        }
+        if (format == CensusDataFile.FORMAT_2)
+        {
+            writeIndex();
+            dout.writeInt(CensusDataFile.BLOCK_END);
+            return;
+        }
+
+        //Header, listing the columns in the order they are stored
+        int columns = percentageColumn ? CensusDataFile.COLUMNS : CensusDataFile.COLUMNS - 1;
+        dout.writeInt(CensusDataFile.MAGIC);
+        dout.writeInt(CensusDataFile.FORMAT_3);
+        dout.writeInt(columns);
+        for (int c = 0; c < columns; c++)
+        {
+            dout.writeInt(c);
+        }
+
+        //Below loop writes each column in one piece, noting where it starts
+        //and its range as it goes
+        long[] offsets = new long[columns];
+        long[] minimums = new long[columns]; //longs, or double bits for the percentage
+        long[] maximums = new long[columns];
+        for (int c = 0; c < columns; c++)
+        {
+            offsets[c] = dout.size();
+            if (c == CensusDataFile.COLUMN_PERCENTAGE)
+            {
+                writePercentages(minimums, maximums);
+                continue;
+            }
+
+            long min = (rows > 0) ? Long.MAX_VALUE : 0; //smallest value so far
+            long max = (rows > 0) ? Long.MIN_VALUE : 0; //largest value so far
+            for (int i = 0; i < rows; i++)
+            {
+                long value = valueOf(c, i);
+                if (c <= CensusDataFile.COLUMN_CODE)
+                {
+                    dout.writeInt((int)value);
+                }
+                else
+                {
+                    dout.writeLong(value);
+                }
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            minimums[c] = min;
+            maximums[c] = max;
+        }
+
+        //Blocks, as in format 2
+        long blocksOffset = dout.size();
+        for (int b = 0; b < blockTags.size(); b++)
+        {
+            CensusDataFile.writeBlock(dout, blockTags.get(b), blockContents.get(b));
+        }
+        writeIndex();
+        dout.writeInt(CensusDataFile.BLOCK_END);
+
+        //Footer, then the trailer pointing back at it. The stream counts
+        //its bytes in an int, which stops at 2 GB
+        long footerOffset = dout.size();
+        if (footerOffset == Integer.MAX_VALUE)
+        {
+            throw new IOException("Format 3 files are limited to 2 GB");
+        }
+        dout.writeLong(rows);
+        dout.writeLong(blocksOffset);
+        for (int c = 0; c < columns; c++)
+        {
+            dout.writeLong(offsets[c]);
+            dout.writeLong(minimums[c]);
+            dout.writeLong(maximums[c]);
+        }
+        dout.writeLong(footerOffset);
+        dout.writeInt(CensusDataFile.MAGIC);
+    }
+
+    /**
+        * Helper method to write the directory block: the number of entries,
+        * then per row its level, code and row number, sorted by level and
+        * then code. Each entry is packed into one long (level, code and row
+        * from the highest bits down) so that a plain sort orders them; files
+        * with too many rows for that go without a directory.
+    */
+    private void writeIndex() throws IOException
+    {
+        if (rows >= (1 << CensusDataFile.INDEX_ROW_BITS))
+        {
+            return; //readers fall back to scanning the rows
+        }
+        long[] entries = new long[rows];
+        for (int i = 0; i < rows; i++)
+        {
+            entries[i] = ((long)levels[i] << (CensusDataFile.INDEX_ROW_BITS + 31)) |
+                         ((long)codes[i] << CensusDataFile.INDEX_ROW_BITS) | i;
+        }
+        Arrays.sort(entries);
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(4 + 12 * rows);
+        DataOutputStream index = new DataOutputStream(block);
+        index.writeInt(rows);
+        for (long entry : entries)
+        {
+            int row = (int)(entry & ((1 << CensusDataFile.INDEX_ROW_BITS) - 1));
+            index.writeInt(levels[row]);
+            index.writeInt(codes[row]);
+            index.writeInt(row);
+        }
+        CensusDataFile.writeBlock(dout, CensusDataFile.BLOCK_INDEX, block.toByteArray());
+    }
+
+    /**
+        * Helper method to write the percentage column and store its range,
+        * as double bits, skipping undefined rates.
+    */
+    private void writePercentages(long[] minimums, long[] maximums) throws IOException
+    {
+        double min = Double.POSITIVE_INFINITY; //smallest rate so far
+        double max = Double.NEGATIVE_INFINITY; //largest rate so far
+        for (int i = 0; i < rows; i++)
+        {
+            double percentage = CensusDataFile.percentage(counts[2][i], counts[1][i]);
+            dout.writeDouble(percentage);
+            if (!Double.isNaN(percentage))
+            {
+                min = Math.min(min, percentage);
+                max = Math.max(max, percentage);
+            }
+        }
+        if (min > max) //no defined rate at all
+        {
+            min = 0;
+            max = 0;
+        }
+        minimums[CensusDataFile.COLUMN_PERCENTAGE] = Double.doubleToLongBits(min);
+        maximums[CensusDataFile.COLUMN_PERCENTAGE] = Double.doubleToLongBits(max);
+    }
+
+    /**
+        * Helper method to return the value of an integer column of a row.
+    */
+    private long valueOf(int column, int row)
+    {
+        switch (column)
+        {
+            case CensusDataFile.COLUMN_LEVEL:
+                return levels[row];
+            case CensusDataFile.COLUMN_CODE:
+                return codes[row];
+            default:
+                return counts[column - CensusDataFile.COLUMN_TOTAL][row];
+        }
+    }
+}
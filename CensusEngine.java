@@ -0,0 +1,260 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+    * This class offers the summarizing CensusAnalyzer does to other Java
+    * code, such as a service that would otherwise start a JVM per file.
+    * The input may be a file, bytes already in memory or a stream, and the
+    * summaries come back as a CensusAggregates, whose totals are kept in
+    * primitive arrays (StateAggregator, DistrictAggregator and the rest).
+    *
+    * The switches of CensusAnalyzer that choose what is summarized and how
+    * a file is read (see AnalyzerOptions) are accepted; those that read or
+    * write files of their own (--compare, --sample, --checkpoint, --cache)
+    * are not. How a file is read only applies to files.
+    *
+    * Lines may also be visited one at a time, as district rows handed to a
+    * CensusRowSink, so a caller can go through every district without the
+    * district totals being kept.
+    *
+    * An engine holds nothing but its options, and every call reads into
+    * summaries of its own, so one engine can be used by any number of
+    * threads at once. The returned summaries belong to the caller.
+    *
+    * @version 1.0.0.0
+*/
+public final class CensusEngine
+{
+    private final AnalyzerOptions options; //Settings of every call
+
+    /**
+        * Constructor, taking the settings to summarize with.
+        *
+        * @param options AnalyzerOptions, e.g. from AnalyzerOptions.parse()
+    */
+    public CensusEngine(AnalyzerOptions options)
+    {
+        if (options.getCompareFile() != null || options.getSampleSize() > 0 ||
+            options.getCheckpointFile() != null || options.getCacheDirectory() != null)
+        {
+            throw new IllegalArgumentException(
+                "Options --compare, --sample, --checkpoint and --cache need CensusAnalyzer");
+        }
+        this.options = options;
+    }
+
+    /**
+        * Creates an engine from switches as they would be given to
+        * CensusAnalyzer, e.g. CensusEngine.of("--districts", "--state=06").
+        *
+        * @param switches String switches
+        * @return the CensusEngine
+    */
+    public static CensusEngine of(String... switches)
+    {
+        return new CensusEngine(AnalyzerOptions.parse(switches));
+    }
+
+    /**
+        * Summarizes every line of a file, read as the options say (stream,
+        * memory mapping, parallel ranges or pipeline).
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * @param file Path of the input file
+        * @return a CensusAggregates holding the summaries
+    */
+    public CensusAggregates analyze(Path file)
+        throws IOException, InvalidArgumentException
+    {
+        CensusAggregates aggregator = new CensusAggregates(options);
+        String fileName = file.toString();
+
+        //Below as in CensusAnalyzer.readCensusData(), without a limit
+        if (options.getThreads() > 0)
+        {
+            aggregator.merge(ParallelCensusScanner.scan(fileName, Long.MAX_VALUE,
+                options.getThreads(), aggregator::newPartial, CensusAggregates::merge));
+        }
+        else if (options.getPipelineBatches() > 0)
+        {
+            new CensusPipeline(aggregator, options.getPipelineBatches())
+                .run(fileName, 0, file.toFile().length());
+        }
+        else if (options.isMappedInput())
+        {
+            new CensusScanner(aggregator, Long.MAX_VALUE).scanMapped(fileName);
+        }
+        else
+        {
+            new CensusScanner(aggregator, Long.MAX_VALUE).scanStream(fileName);
+        }
+        return aggregator;
+    }
+
+    /**
+        * Summarizes every line between the position and the limit of a
+        * buffer, which is left as it was. Line offsets count from the
+        * position.
+        *
+        * @param data ByteBuffer holding the lines
+        * @return a CensusAggregates holding the summaries
+    */
+    public CensusAggregates analyze(ByteBuffer data)
+        throws InvalidArgumentException
+    {
+        CensusAggregates aggregator = new CensusAggregates(options);
+        new CensusScanner(aggregator, Long.MAX_VALUE).scanRange(data.slice(), data.remaining(), 0);
+        return aggregator;
+    }
+
+    /**
+        * Summarizes every line of a stream, until it ends. The stream is not
+        * closed.
+        *
+        * @param in InputStream of the lines
+        * @return a CensusAggregates holding the summaries
+    */
+    public CensusAggregates analyze(InputStream in)
+        throws IOException, InvalidArgumentException
+    {
+        CensusAggregates aggregator = new CensusAggregates(options);
+        new CensusScanner(aggregator, Long.MAX_VALUE).scanStream(in);
+        return aggregator;
+    }
+
+    /**
+        * Hands every line of a file that passes the filter and validation
+        * to the sink, in file order, as a district row: level
+        * CensusDataFile.LEVEL_DISTRICT, code DistrictAggregator.key() of the
+        * line. Nothing is kept, so a district listed on two lines is
+        * visited twice. With deferred validation failing lines are left
+        * out; otherwise the first one ends the visit. The file is read on
+        * the calling thread, through a memory mapping with --mmap and a
+        * stream otherwise.
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * @param file Path of the input file
+        * @param sink CensusRowSink taking the rows
+        * @return number of rows visited
+    */
+    public long visitDistricts(Path file, CensusRowSink sink)
+        throws IOException, InvalidArgumentException
+    {
+        Visit visit = new Visit(sink);
+        try
+        {
+            if (options.isMappedInput())
+            {
+                new CensusScanner(visit, Long.MAX_VALUE).scanMapped(file.toString());
+            }
+            else
+            {
+                new CensusScanner(visit, Long.MAX_VALUE).scanStream(file.toString());
+            }
+        }
+        catch (UncheckedIOException ex) //The sink failed
+        {
+            throw ex.getCause();
+        }
+        return visit.rows;
+    }
+
+    /**
+        * Variant of visitDistricts() for the lines between the position and
+        * the limit of a buffer, which is left as it was.
+    */
+    public long visitDistricts(ByteBuffer data, CensusRowSink sink)
+        throws IOException, InvalidArgumentException
+    {
+        Visit visit = new Visit(sink);
+        try
+        {
+            new CensusScanner(visit, Long.MAX_VALUE).scanRange(data.slice(), data.remaining(), 0);
+        }
+        catch (UncheckedIOException ex) //The sink failed
+        {
+            throw ex.getCause();
+        }
+        return visit.rows;
+    }
+
+    /**
+        * Variant of visitDistricts() for the lines of a stream, until it
+        * ends. The stream is not closed.
+    */
+    public long visitDistricts(InputStream in, CensusRowSink sink)
+        throws IOException, InvalidArgumentException
+    {
+        Visit visit = new Visit(sink);
+        try
+        {
+            new CensusScanner(visit, Long.MAX_VALUE).scanStream(in);
+        }
+        catch (UncheckedIOException ex) //The sink failed
+        {
+            throw ex.getCause();
+        }
+        return visit.rows;
+    }
+
+    /**
+        * Method to return the settings of the engine.
+        *
+        * @return options AnalyzerOptions
+    */
+    public AnalyzerOptions getOptions()
+    {
+        return options;
+    }
+
+    /**
+        * This class passes each line a scanner reads on to a sink as a
+        * district row. The scanner's handler cannot throw an IOException,
+        * so one from the sink is carried out unchecked.
+    */
+    private class Visit implements CensusRecordHandler
+    {
+        private final CensusRowSink sink; //Takes the rows
+        private long rows; //Rows visited
+
+        /**
+            * Constructor, taking the sink.
+        */
+        Visit(CensusRowSink sink)
+        {
+            this.sink = sink;
+        }
+
+        @Override
+        public void record(CensusLineParser line)
+        {
+            try
+            {
+                sink.writeRow(CensusDataFile.LEVEL_DISTRICT,
+                    (int)DistrictAggregator.key(line.getStateCode(), line.getLeaCode()),
+                    line.getTotalPopulation(), line.getChildPopulation(),
+                    line.getChildPovertyPopulation());
+            }
+            catch (IOException ex) //Carried out of the scanner
+            {
+                throw new UncheckedIOException(ex);
+            }
+            rows++;
+        }
+
+        @Override
+        public boolean isValidationDeferred()
+        {
+            return options.isDeferredValidation();
+        }
+
+        @Override
+        public CensusLineFilter getFilter()
+        {
+            return options.getFilter();
+        }
+    }
+}
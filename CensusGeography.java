@@ -0,0 +1,111 @@
+/**
+    * This class holds the static lookup tables that place each FIPS state
+    * code in its Census Bureau division, and each division in its region:
+    *
+    *   Region 1 Northeast: 1 New England, 2 Middle Atlantic
+    *   Region 2 Midwest:   3 East North Central, 4 West North Central
+    *   Region 3 South:     5 South Atlantic, 6 East South Central,
+    *                       7 West South Central
+    *   Region 4 West:      8 Mountain, 9 Pacific
+    *
+    * State codes outside the 50 states and the District of Columbia (for
+    * example Puerto Rico, 72) belong to no division or region; they count
+    * towards the national total only.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusGeography
+{
+    //Number of division slots; divisions are numbered 1 to 9, 0 means none
+    public static final int DIVISIONS = 10;
+
+    //Number of region slots; regions are numbered 1 to 4, 0 means none
+    public static final int REGIONS = 5;
+
+    //Division names, indexed by division number
+    private static final String[] DIVISION_NAMES = {
+        "None", "New England", "Middle Atlantic", "East North Central",
+        "West North Central", "South Atlantic", "East South Central",
+        "West South Central", "Mountain", "Pacific"
+    };
+
+    //Region names, indexed by region number
+    private static final String[] REGION_NAMES = {
+        "None", "Northeast", "Midwest", "South", "West"
+    };
+
+    //Region of each division, indexed by division number
+    private static final int[] REGION_OF_DIVISION = {0, 1, 1, 2, 2, 3, 3, 3, 4, 4};
+
+    //Division of each state, indexed by FIPS state code; 0 if none
+    private static final int[] DIVISION_OF_STATE = new int[StateAggregator.STATE_CODES];
+
+    //Below block fills DIVISION_OF_STATE from the FIPS codes of each division
+    static
+    {
+        int[][] statesByDivision = {
+            {},
+            {9, 23, 25, 33, 44, 50},                 //CT ME MA NH RI VT
+            {34, 36, 42},                            //NJ NY PA
+            {17, 18, 26, 39, 55},                    //IL IN MI OH WI
+            {19, 20, 27, 29, 31, 38, 46},            //IA KS MN MO NE ND SD
+            {10, 11, 12, 13, 24, 37, 45, 51, 54},    //DE DC FL GA MD NC SC VA WV
+            {1, 21, 28, 47},                         //AL KY MS TN
+            {5, 22, 40, 48},                         //AR LA OK TX
+            {4, 8, 16, 30, 32, 35, 49, 56},          //AZ CO ID MT NV NM UT WY
+            {2, 6, 15, 41, 53}                       //AK CA HI OR WA
+        };
+        for (int division = 1; division < statesByDivision.length; division++)
+        {
+            for (int state : statesByDivision[division])
+            {
+                DIVISION_OF_STATE[state] = division;
+            }
+        }
+    }
+
+    /**
+        * Returns the Census division of a state.
+        *
+        * @param stateCode integer FIPS state code
+        * @return division number 1 to 9, or 0 if the state has none
+    */
+    public static int divisionOf(int stateCode)
+    {
+        return (stateCode >= 0 && stateCode < DIVISION_OF_STATE.length) ?
+               DIVISION_OF_STATE[stateCode] : 0;
+    }
+
+    /**
+        * Returns the Census region of a division.
+        *
+        * @param division integer division number
+        * @return region number 1 to 4, or 0 if the division is 0
+    */
+    public static int regionOf(int division)
+    {
+        return REGION_OF_DIVISION[division];
+    }
+
+    /**
+        * Returns the name of a division.
+        *
+        * @param division integer division number
+        * @return String division name
+    */
+    public static String divisionName(int division)
+    {
+        return DIVISION_NAMES[division];
+    }
+
+    /**
+        * Returns the name of a region.
+        *
+        * @param region integer region number
+        * @return String region name
+    */
+    public static String regionName(int region)
+    {
+        return REGION_NAMES[region];
+    }
+}
@@ -0,0 +1,124 @@
+import java.nio.ByteBuffer;
+
+/**
+    * This class decides, from the raw bytes of a line, whether the line
+    * should be summarized at all. It is applied by CensusScanner before a
+    * line is parsed, so a line that is filtered out costs no more than
+    * finding its end.
+    *
+    * The cheapest test comes first: the two state code bytes are looked up
+    * in a table of wanted states, and only if the state is wanted (and a
+    * minimum population is set) is the total population column decoded.
+    * A line whose fields cannot be read is let through, so that it fails
+    * validation exactly as it would without a filter.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusLineFilter
+{
+    private final boolean[] states; //Wanted state codes, or null for all
+    private final int minPopulation; //Smallest wanted total population
+
+    /**
+        * Constructor, taking the wanted states and the minimum total
+        * population of a wanted line.
+        *
+        * @param stateCodes integer array of wanted state codes, or null for all
+        * @param minPopulation integer smallest total population wanted, 0 for any
+    */
+    public CensusLineFilter(int[] stateCodes, int minPopulation)
+    {
+        if (stateCodes == null)
+        {
+            states = null;
+        }
+        else
+        {
+            states = new boolean[StateAggregator.STATE_CODES];
+            for (int code : stateCodes)
+            {
+                if (code < 0 || code >= StateAggregator.STATE_CODES)
+                {
+                    throw new IllegalArgumentException("State code out of range: " + code);
+                }
+                states[code] = true;
+            }
+        }
+        this.minPopulation = minPopulation;
+    }
+
+    /**
+        * Returns whether the line held in buf between the absolute positions
+        * start and end (terminator excluded) should be summarized.
+        *
+        * @param buf ByteBuffer holding the line
+        * @param start int absolute position of the first byte of the line
+        * @param end int absolute position one past the last byte of the line
+        * @return true if the line is wanted, or cannot be judged
+    */
+    public boolean accepts(ByteBuffer buf, int start, int end)
+    {
+        if (states != null && end - start >= CensusLineParser.STATE_END)
+        {
+            //Two plain digits are by far the common case
+            int tens = buf.get(start + CensusLineParser.STATE_START) - '0';
+            int ones = buf.get(start + CensusLineParser.STATE_START + 1) - '0';
+            int code = (tens >= 0 && tens <= 9 && ones >= 0 && ones <= 9) ? tens * 10 + ones :
+                CensusLineParser.decodeField(buf, start + CensusLineParser.STATE_START,
+                                             start + CensusLineParser.STATE_END);
+            if (code >= 0 && !states[code])
+            {
+                return false; //unwanted state; nothing else is decoded
+            }
+        }
+
+        if (minPopulation > 0 && end - start >= CensusLineParser.TOTAL_END)
+        {
+            int total = CensusLineParser.decodeField(buf, start + CensusLineParser.TOTAL_START,
+                                                     start + CensusLineParser.TOTAL_END);
+            return total == CensusLineParser.INVALID || total >= minPopulation;
+        }
+        return true;
+    }
+
+    /**
+        * Returns whether lines of a state can pass the filter at all.
+        *
+        * @param stateCode integer state code, 0 to 99
+        * @return true if the state is wanted
+    */
+    public boolean acceptsState(int stateCode)
+    {
+        return states == null || states[stateCode];
+    }
+
+    /**
+        * Returns a description of the filter, such as "states=06,48
+        * min-pop=10000", which is also used to tell whether two filters are
+        * the same.
+        *
+        * @return String description
+    */
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder();
+        if (states != null)
+        {
+            text.append("states=");
+            String separator = ""; //none before the first code
+            for (int code = 0; code < states.length; code++)
+            {
+                if (states[code])
+                {
+                    text.append(separator).append(String.format("%02d", code));
+                    separator = ",";
+                }
+            }
+        }
+        if (minPopulation > 0)
+        {
+            text.append(text.length() > 0 ? " " : "").append("min-pop=").append(minPopulation);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,386 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+    * This class decodes a single fixed-width Census line directly from
+    * raw bytes. It replaces the String based StateCensus.parse() on the
+    * hot path: a single instance is reused for every line of a file, the
+    * numeric fields are accumulated digit by digit, and no objects are
+    * created per line.
+    *
+    * The column layout is the same one StateCensus.parse() relies on, as
+    * defined in the layout file provided by the Census bureau. The input
+    * file is pure ASCII, so one byte is one character.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusLineParser
+{
+    //Below constants hold the [start, end) columns of each field
+    static final int STATE_START = 0;
+    static final int STATE_END = 2;
+    static final int LEA_START = 3;
+    static final int LEA_END = 8;
+    static final int NAME_START = 9;
+    static final int NAME_END = 81;
+    static final int TOTAL_START = 82;
+    static final int TOTAL_END = 90;
+    static final int CHILD_START = 91;
+    static final int CHILD_END = 99;
+    static final int POVERTY_START = 100;
+    static final int POVERTY_END = 108;
+    static final int VINTAGE_START = 109;
+    static final int VINTAGE_END = 129;
+
+    //Returned by decodeField() for a field that is not a number. Fields are
+    //at most 8 columns wide, so no real value can be this small
+    static final int INVALID = Integer.MIN_VALUE;
+
+    private int stateCode; //State code of the last parsed line
+    private int leaCode; //LEA code of the last line, INVALID until decoded
+    private ByteBuffer buffer; //Buffer holding the last parsed line
+    private int lineStart; //Position of the last parsed line in buffer
+    private long lineOffset; //Offset of the last parsed line in its file
+    private int lineEnd; //Position one past the last parsed line in buffer
+    private int totalPopulation; //Total population of the last parsed line
+    private int childPopulation; //Child population of the last parsed line
+    private int childPovertyPopulation; //Child poverty pop of the last parsed line
+
+    /**
+        * Parses the line held in buf between the absolute positions start
+        * (inclusive) and end (exclusive, line terminator excluded). The
+        * decoded values are held by this parser until the next call.
+        *
+        * Each field is handled the same way Integer.parseInt(field.trim())
+        * would handle it, so a malformed field raises a
+        * NumberFormatException, just as the String based parser did.
+        *
+        * precondition line parameter must meet Census bureau layout
+        *
+        * @param buf ByteBuffer holding the line
+        * @param start int absolute position of the first byte of the line
+        * @param end int absolute position one past the last byte of the line
+    */
+    public void parse(ByteBuffer buf, int start, int end)
+    {
+        //The last field must be fully present, otherwise the line is truncated
+        if (end - start < POVERTY_END)
+        {
+            throw new NumberFormatException("Census line is too short: " +
+                (end - start) + " characters");
+        }
+
+        //Remember where the line is, for fields decoded only on request
+        buffer = buf;
+        lineStart = start;
+        lineEnd = end;
+
+        //Below 4 lines decode each field in place; the LEA code waits
+        leaCode = INVALID;
+        stateCode = parseField(buf, start + STATE_START, start + STATE_END);
+        totalPopulation = parseField(buf, start + TOTAL_START, start + TOTAL_END);
+        childPopulation = parseField(buf, start + CHILD_START, start + CHILD_END);
+        childPovertyPopulation = parseField(buf, start + POVERTY_START, start + POVERTY_END);
+    }
+
+    /**
+        * Parses a line like parse(), but reports a short or malformed line
+        * by returning false instead of throwing, so that deferred validation
+        * can log it and carry on without the cost of an exception. The LEA
+        * code is decoded too, so a line with a bad one is rejected rather
+        * than failing the run when district totals ask for it. After a
+        * false return the decoded values are meaningless.
+        *
+        * @param buf ByteBuffer holding the line
+        * @param start int absolute position of the first byte of the line
+        * @param end int absolute position one past the last byte of the line
+        * @return true if every field could be decoded
+    */
+    public boolean tryParse(ByteBuffer buf, int start, int end)
+    {
+        buffer = buf;
+        lineStart = start;
+        lineEnd = end;
+        if (end - start < POVERTY_END)
+        {
+            return false; //truncated line
+        }
+
+        //Below 5 lines decode each field in place, INVALID if malformed
+        stateCode = decodeField(buf, start + STATE_START, start + STATE_END);
+        leaCode = decodeField(buf, start + LEA_START, start + LEA_END);
+        totalPopulation = decodeField(buf, start + TOTAL_START, start + TOTAL_END);
+        childPopulation = decodeField(buf, start + CHILD_START, start + CHILD_END);
+        childPovertyPopulation = decodeField(buf, start + POVERTY_START, start + POVERTY_END);
+
+        //A negative state or LEA code cannot make a state index or a
+        //district key
+        return stateCode >= 0 && leaCode >= 0 && totalPopulation != INVALID &&
+               childPopulation != INVALID && childPovertyPopulation != INVALID;
+    }
+
+    /**
+        * Points the parser at a line whose fields were decoded earlier, so a
+        * handler can be given a line that was held back for bulk validation.
+    */
+    void load(ByteBuffer buf, int start, int end, long offset, int state, int total,
+              int child, int poverty)
+    {
+        //Below nine lines restore the state of the parser for the line; the
+        //LEA code was checked when the line was decoded
+        leaCode = INVALID;
+        buffer = buf;
+        lineStart = start;
+        lineEnd = end;
+        lineOffset = offset;
+        stateCode = state;
+        totalPopulation = total;
+        childPopulation = child;
+        childPovertyPopulation = poverty;
+    }
+
+    /**
+        * Applies the same constraints the StateCensus setters apply to the
+        * last parsed line: the child population cannot exceed the total
+        * population, and the child poverty population cannot exceed the
+        * child population.
+    */
+    public void validate() throws InvalidArgumentException
+    {
+        //Child population checked first, as StateCensus.parse() does
+        if (childPopulation > totalPopulation)
+        {
+            throw new InvalidArgumentException(totalPopulation, childPopulation, 0);
+        }
+        if (childPovertyPopulation > childPopulation)
+        {
+            throw new InvalidArgumentException(
+                totalPopulation, childPopulation, childPovertyPopulation);
+        }
+    }
+
+    /**
+        * Method to return the state code of the last parsed line.
+        *
+        * @return stateCode integer
+    */
+    public int getStateCode()
+    {
+        return stateCode; //return the state code
+    }
+
+    /**
+        * Method to return the LEA (school district) code of the last parsed
+        * line. It is unique within a state. Only district level summaries
+        * need it, so it is decoded on request rather than for every line,
+        * unless tryParse() has decoded it already.
+        *
+        * @return leaCode integer
+    */
+    public int getLeaCode()
+    {
+        //Decode the LEA code if needed, and return it
+        if (leaCode == INVALID)
+        {
+            leaCode = parseField(buffer, lineStart + LEA_START, lineStart + LEA_END);
+        }
+        return leaCode;
+    }
+
+    /**
+        * Method to return the district name of the last parsed line, with
+        * its padding removed. It is only needed for reports, so it is
+        * decoded (and a String created) on request.
+        *
+        * @return the district name
+    */
+    public String getDistrictName()
+    {
+        //Copy out the name column and trim it
+        byte[] name = new byte[NAME_END - NAME_START];
+        for (int i = 0; i < name.length; i++)
+        {
+            name[i] = buffer.get(lineStart + NAME_START + i);
+        }
+        return new String(name, StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+        * Method to return the vintage tag of the last parsed line, i.e. the
+        * release it came from, such as "USSD13.txt 24NOV2014", or an empty
+        * String if the line has none. It is decoded on request.
+        *
+        * @return the vintage tag
+    */
+    public String getVintage()
+    {
+        int end = Math.min(lineEnd, lineStart + VINTAGE_END); //line may stop short
+        if (end <= lineStart + VINTAGE_START)
+        {
+            return "";
+        }
+        byte[] vintage = new byte[end - lineStart - VINTAGE_START];
+        for (int i = 0; i < vintage.length; i++)
+        {
+            vintage[i] = buffer.get(lineStart + VINTAGE_START + i);
+        }
+        return new String(vintage, StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+        * Method to return the byte offset of the last parsed line in the
+        * input file, as set by the scanner, so the line can be read again.
+        *
+        * @return lineOffset long
+    */
+    public long getLineOffset()
+    {
+        return lineOffset; //return offset of the line in the file
+    }
+
+    /**
+        * Returns the position of the last parsed line in its buffer.
+    */
+    int getLineStart()
+    {
+        return lineStart;
+    }
+
+    /**
+        * Returns the position one past the last parsed line in its buffer.
+    */
+    int getLineEnd()
+    {
+        return lineEnd;
+    }
+
+    /**
+        * Sets the byte offset of the next line to be parsed in its file.
+    */
+    void setLineOffset(long lineOffset)
+    {
+        this.lineOffset = lineOffset;
+    }
+
+    /**
+        * Method to return the total population of the last parsed line.
+        *
+        * @return totalPopulation integer
+    */
+    public int getTotalPopulation()
+    {
+        return totalPopulation; //return total population
+    }
+
+    /**
+        * Method to return the child population of the last parsed line.
+        *
+        * @return childPopulation integer
+    */
+    public int getChildPopulation()
+    {
+        return childPopulation; //return child population
+    }
+
+    /**
+        * Method to return the child poverty population of the last parsed line.
+        *
+        * @return childPovertyPopulation integer
+    */
+    public int getChildPovertyPopulation()
+    {
+        return childPovertyPopulation; //return child poverty population
+    }
+
+    /**
+        * Decodes a space padded decimal field between the absolute positions
+        * from (inclusive) and to (exclusive). Padding at either end is
+        * skipped, an optional sign is honoured, and anything else that is
+        * not a digit is rejected.
+        *
+        * @param buf ByteBuffer holding the field
+        * @param from int absolute position of the first byte of the field
+        * @param to int absolute position one past the last byte of the field
+        * @return the decoded integer
+    */
+    static int parseField(ByteBuffer buf, int from, int to)
+    {
+        int value = decodeField(buf, from, to);
+        if (value != INVALID)
+        {
+            return value;
+        }
+
+        //Find out what was wrong, for the message
+        while (from < to && buf.get(from) <= ' ')
+        {
+            from++;
+        }
+        while (to > from && buf.get(to - 1) <= ' ')
+        {
+            to--;
+        }
+        if (from < to && (buf.get(from) == '-' || buf.get(from) == '+'))
+        {
+            from++;
+        }
+        for (int i = from; i < to; i++)
+        {
+            if (buf.get(i) < '0' || buf.get(i) > '9')
+            {
+                throw new NumberFormatException("Invalid character '" +
+                    (char)buf.get(i) + "' in numeric field of Census line");
+            }
+        }
+        throw new NumberFormatException("Empty numeric field in Census line");
+    }
+
+    /**
+        * Decodes a field the same way parseField() does, but returns INVALID
+        * instead of throwing if it is not a number.
+        *
+        * @param buf ByteBuffer holding the field
+        * @param from int absolute position of the first byte of the field
+        * @param to int absolute position one past the last byte of the field
+        * @return the decoded integer, or INVALID
+    */
+    static int decodeField(ByteBuffer buf, int from, int to)
+    {
+        //Skip padding on both ends, as String.trim() would
+        while (from < to && buf.get(from) <= ' ')
+        {
+            from++;
+        }
+        while (to > from && buf.get(to - 1) <= ' ')
+        {
+            to--;
+        }
+
+        boolean negative = false; //Whether a leading minus sign was found
+        if (from < to && (buf.get(from) == '-' || buf.get(from) == '+'))
+        {
+            negative = buf.get(from) == '-';
+            from++;
+        }
+
+        //An empty field (or a lone sign) is not a number
+        if (from == to)
+        {
+            return INVALID;
+        }
+
+        //Accumulate digits. Fields are at most 8 columns wide, so the value
+        //can never overflow an int.
+        int value = 0;
+        for (int i = from; i < to; i++)
+        {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9)
+            {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,626 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+    * This class summarizes a Census file as a pipeline of three stages,
+    * each on its own thread, so that reading the file, decoding its lines
+    * and adding them up overlap instead of taking turns:
+    * 1. The reader reads the file in blocks of whole lines (the calling
+    *    thread)
+    * 2. The parser decodes and validates each block with a CensusScanner
+    *    into a batch of primitive columns, one row per line
+    * 3. The aggregator hands every row of a batch to the CensusAggregates
+    *
+    * The stages are joined by java.util.concurrent.Flow publishers, each
+    * holding at most a fixed number of batches. A stage that falls behind
+    * makes the one before it wait, rather than the batches piling up in
+    * memory. Batches go through in file order, so the totals are exactly
+    * those of a single threaded scan. Writing the output stays with the
+    * caller, since it needs the totals of every line.
+    *
+    * Every stage keeps counters of the batches, lines and bytes it has
+    * handled, the time it spent on them and the batches waiting for it,
+    * which can be read while the pipeline runs.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusPipeline
+{
+    //Batches each queue holds unless told otherwise
+    public static final int DEFAULT_QUEUE_BATCHES = 16;
+
+    //Bytes read per block; a block is cut back to its last whole line
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final CensusAggregates aggregator; //Receives every line
+    private final int queueBatches; //Batches each queue holds
+    private final Stage reader = new Stage("reader"); //Counters of the reader
+    private final Stage parser = new Stage("parser"); //Counters of the parser
+    private final Stage adder = new Stage("aggregator"); //Counters of the aggregator
+
+    /**
+        * Constructor, taking the summaries the lines are added to and the
+        * number of batches each queue between two stages holds.
+        *
+        * @param aggregator CensusAggregates receiving every line
+        * @param queueBatches int batches each queue holds
+    */
+    public CensusPipeline(CensusAggregates aggregator, int queueBatches)
+    {
+        this.aggregator = aggregator;
+        this.queueBatches = queueBatches;
+    }
+
+    /**
+        * Summarizes the lines between the offsets start and end, which must
+        * be line boundaries (or the end of the file), as returned by
+        * ParallelCensusScanner.findLimitOffset(). Returns once every line
+        * has been added, or the first error has stopped the stages.
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * postcondition The aggregator holds the summaries of the lines
+        *
+        * @param fileName String detailing the input file's location
+        * @param start long offset of the first line to read
+        * @param end long offset one past the last line to read
+    */
+    public void run(String fileName, long start, long end)
+        throws IOException, InvalidArgumentException
+    {
+        //One thread for each stage after the reader
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        SubmissionPublisher<Block> blocks = new SubmissionPublisher<>(executor, queueBatches);
+        Parsing parsing = new Parsing(executor);
+        Aggregating aggregating = new Aggregating();
+        try
+        {
+            parser.queue = blocks;
+            adder.queue = parsing;
+            blocks.subscribe(parsing);
+            parsing.subscribe(aggregating);
+
+            read(fileName, start, end, blocks, aggregating.done);
+            blocks.close(); //the parser finishes, then the aggregator
+            aggregating.done.get();
+        }
+        catch (ExecutionException ex) //A stage failed; surface the real cause
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof InvalidArgumentException)
+            {
+                throw (InvalidArgumentException)cause;
+            }
+            if (cause instanceof IOException)
+            {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause);
+        }
+        catch (InterruptedException ex) //Cancelled while waiting for the stages
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Reading " + fileName + " was cancelled");
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+        * Method to return the counters of the reader stage.
+        *
+        * @return reader Stage
+    */
+    public Stage getReader()
+    {
+        return reader;
+    }
+
+    /**
+        * Method to return the counters of the parser stage.
+        *
+        * @return parser Stage
+    */
+    public Stage getParser()
+    {
+        return parser;
+    }
+
+    /**
+        * Method to return the counters of the aggregator stage.
+        *
+        * @return aggregator Stage
+    */
+    public Stage getAggregator()
+    {
+        return adder;
+    }
+
+    /**
+        * Returns the counters of all three stages, one line each.
+        *
+        * @return String describing the stages
+    */
+    @Override
+    public String toString()
+    {
+        return reader + "\n" + parser + "\n" + adder;
+    }
+
+    /**
+        * Helper method, run on the calling thread, to read the lines into
+        * blocks and publish them. Publishing waits while the parser's queue
+        * is full. Stops early once a later stage has failed.
+    */
+    private void read(String fileName, long start, long end, SubmissionPublisher<Block> blocks,
+                      CompletableFuture<Void> done)
+        throws IOException
+    {
+        //Use try-with-resources to leverage auto close
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.READ))
+        {
+            long position = start; //offset of the first byte not yet published
+            byte[] carry = new byte[0]; //partial line left from the last block
+            while (position < end && !done.isDone())
+            {
+                if (Thread.currentThread().isInterrupted())
+                {
+                    throw new InterruptedIOException("Reading " + fileName + " was cancelled");
+                }
+                long began = System.nanoTime();
+
+                //Below lines fill a new block after the carried partial line,
+                //twice as large if one line did not fit the last one
+                int size = (int)Math.min(Math.max(READ_SIZE, carry.length * 2L), end - position);
+                byte[] data = Arrays.copyOf(carry, size);
+                int filled = carry.length; //valid bytes in data
+                while (filled < size)
+                {
+                    int read = channel.read(ByteBuffer.wrap(data, filled, size - filled),
+                                            position + filled);
+                    if (read < 0)
+                    {
+                        throw new EOFException(fileName + " ended before byte " + end);
+                    }
+                    filled += read;
+                }
+
+                //Cut back to the last whole line, unless the range ends here
+                int cut = size;
+                while (position + size < end && cut > 0 && data[cut - 1] != '\n')
+                {
+                    cut--;
+                }
+                carry = Arrays.copyOfRange(data, cut, size);
+                if (cut > 0)
+                {
+                    reader.add(1, 0, cut, System.nanoTime() - began);
+                    parser.sawDepth(blocks.submit(new Block(data, cut, position)));
+                    position += cut;
+                }
+            }
+        }
+        catch (IOException ex) //Let the other stages stop too
+        {
+            blocks.closeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    /**
+        * This class holds the counters of one stage. Counters are updated
+        * by the stage's thread and can be read from any thread.
+        *
+        * @version 1.0.0.0
+    */
+    public static class Stage
+    {
+        private final String name; //Name of the stage
+        private final AtomicLong batches = new AtomicLong(); //Batches handled
+        private final AtomicLong lines = new AtomicLong(); //Lines handled
+        private final AtomicLong bytes = new AtomicLong(); //Bytes handled
+        private final AtomicLong busyNanos = new AtomicLong(); //Time spent on them
+        private final AtomicLong maxDepth = new AtomicLong(); //Most batches waiting
+        private volatile SubmissionPublisher<?> queue; //Publisher feeding this stage
+
+        /**
+            * Constructor, taking the name of the stage.
+        */
+        Stage(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+            * Method to return the name of the stage.
+            *
+            * @return name String
+        */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+            * Method to return the batches the stage has handled.
+            *
+            * @return batches long
+        */
+        public long getBatches()
+        {
+            return batches.get();
+        }
+
+        /**
+            * Method to return the lines the stage has handled; the reader
+            * does not count lines, so 0 for it.
+            *
+            * @return lines long
+        */
+        public long getLines()
+        {
+            return lines.get();
+        }
+
+        /**
+            * Method to return the bytes of input the stage has handled.
+            *
+            * @return bytes long
+        */
+        public long getBytes()
+        {
+            return bytes.get();
+        }
+
+        /**
+            * Method to return the time the stage spent working, not
+            * counting the time it waited for batches or for room to pass
+            * them on.
+            *
+            * @return busy time in nanoseconds
+        */
+        public long getBusyNanos()
+        {
+            return busyNanos.get();
+        }
+
+        /**
+            * Method to return the input bytes handled per second of work.
+            *
+            * @return throughput double, in bytes per second
+        */
+        public double getThroughput()
+        {
+            long busy = busyNanos.get();
+            return (busy == 0) ? 0 : bytes.get() * 1e9 / busy;
+        }
+
+        /**
+            * Method to return the batches now waiting for the stage; 0 for
+            * the reader, which waits for nothing but the file.
+            *
+            * @return queue depth int
+        */
+        public int getQueueDepth()
+        {
+            SubmissionPublisher<?> feed = queue;
+            return (feed == null) ? 0 : Math.max(feed.estimateMaximumLag(), 0);
+        }
+
+        /**
+            * Method to return the most batches seen waiting for the stage,
+            * each time the stage before it passed one on.
+            *
+            * @return most batches queued long
+        */
+        public long getMaxQueueDepth()
+        {
+            return maxDepth.get();
+        }
+
+        /**
+            * Returns the counters of the stage on one line.
+            *
+            * @return String describing the stage
+        */
+        @Override
+        public String toString()
+        {
+            return String.format("%-10s %6d batches %10d lines %12d bytes %8.1f ms %8.1f MB/s, " +
+                "queue up to %d", name, getBatches(), getLines(), getBytes(),
+                getBusyNanos() / 1e6, getThroughput() / 1e6, getMaxQueueDepth());
+        }
+
+        /**
+            * Helper method to count a handled batch.
+        */
+        private void add(long batchCount, long lineCount, long byteCount, long nanos)
+        {
+            batches.addAndGet(batchCount);
+            lines.addAndGet(lineCount);
+            bytes.addAndGet(byteCount);
+            busyNanos.addAndGet(nanos);
+        }
+
+        /**
+            * Helper method to keep the most batches seen waiting, from the
+            * lag SubmissionPublisher.submit() returns.
+        */
+        private void sawDepth(int depth)
+        {
+            maxDepth.accumulateAndGet(depth, Math::max);
+        }
+    }
+
+    /**
+        * This class is a block of whole lines as read from the file.
+    */
+    private static class Block
+    {
+        private final byte[] data; //Bytes of the lines
+        private final int length; //Number of valid bytes in data
+        private final long offset; //File offset of data[0]
+
+        /**
+            * Constructor, taking the bytes and where they start in the file.
+        */
+        Block(byte[] data, int length, long offset)
+        {
+            this.data = data;
+            this.length = length;
+            this.offset = offset;
+        }
+    }
+
+    /**
+        * This class is a decoded block: the values of each line as primitive
+        * columns, with the block's bytes kept for what is read from a line
+        * on demand (such as a district name).
+    */
+    private static class Batch
+    {
+        private final ByteBuffer buffer; //Bytes of the block
+        private final int bytes; //Number of valid bytes in buffer
+        private int count; //Rows below
+        private long skipped; //Lines turned down by the filter
+        private int[] start; //Buffer position per line
+        private int[] end; //Buffer position past the end per line
+        private long[] offset; //File offset per line
+        private int[] state; //State code per line
+        private int[] total; //Total pop per line
+        private int[] child; //Child pop per line
+        private int[] poverty; //Child poverty pop per line
+        private int[] reason; //RejectLog REASON flags per line, 0 if valid
+
+        /**
+            * Constructor, sizing the columns for the lines a block of the
+            * given length most likely holds.
+        */
+        Batch(Block block)
+        {
+            buffer = ByteBuffer.wrap(block.data, 0, block.length);
+            bytes = block.length;
+            int rows = block.length / CensusLineParser.POVERTY_END + 1;
+
+            //Below eight lines allocate the columns
+            start = new int[rows];
+            end = new int[rows];
+            offset = new long[rows];
+            state = new int[rows];
+            total = new int[rows];
+            child = new int[rows];
+            poverty = new int[rows];
+            reason = new int[rows];
+        }
+
+        /**
+            * Adds the line the parser holds as the next row, growing the
+            * columns if needed.
+        */
+        void add(CensusLineParser line, int flags)
+        {
+            if (count == start.length)
+            {
+                //Below eight lines double the columns
+                int rows = count * 2;
+                start = Arrays.copyOf(start, rows);
+                end = Arrays.copyOf(end, rows);
+                offset = Arrays.copyOf(offset, rows);
+                state = Arrays.copyOf(state, rows);
+                total = Arrays.copyOf(total, rows);
+                child = Arrays.copyOf(child, rows);
+                poverty = Arrays.copyOf(poverty, rows);
+                reason = Arrays.copyOf(reason, rows);
+            }
+            int i = count++; //row of this line
+
+            //Below eight lines copy the values out of the reused parser
+            start[i] = line.getLineStart();
+            end[i] = line.getLineEnd();
+            offset[i] = line.getLineOffset();
+            state[i] = line.getStateCode();
+            total[i] = line.getTotalPopulation();
+            child[i] = line.getChildPopulation();
+            poverty[i] = line.getChildPovertyPopulation();
+            reason[i] = flags;
+        }
+    }
+
+    /**
+        * This class is the parser stage. It decodes each block it is given
+        * into a Batch, on the executor's thread, and publishes the batch to
+        * the aggregator stage; publishing waits while that stage's queue is
+        * full. Lines are validated here as the scanner would validate them,
+        * so a strict run fails in this stage.
+    */
+    private class Parsing extends SubmissionPublisher<Batch>
+        implements Flow.Processor<Block, Batch>, CensusRecordHandler
+    {
+        private final CensusScanner scanner; //Reused for every block
+        private Flow.Subscription subscription; //Blocks from the reader
+        private Batch current; //Batch of the block being decoded
+
+        /**
+            * Constructor, publishing on the given executor.
+        */
+        Parsing(ExecutorService executor)
+        {
+            super(executor, queueBatches);
+            //Blocks end on line boundaries; the reader applies the limit
+            scanner = new CensusScanner(this, Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(Block block)
+        {
+            long began = System.nanoTime();
+            try
+            {
+                current = new Batch(block);
+                scanner.scanRange(current.buffer, block.length, block.offset);
+            }
+            catch (InvalidArgumentException | RuntimeException ex) //Line broke a constraint
+            {
+                subscription.cancel();
+                closeExceptionally(ex);
+                return;
+            }
+            parser.add(1, current.count + current.skipped, block.length, System.nanoTime() - began);
+            adder.sawDepth(submit(current));
+            current = null;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable ex)
+        {
+            closeExceptionally(ex);
+        }
+
+        @Override
+        public void onComplete()
+        {
+            close();
+        }
+
+        @Override
+        public void record(CensusLineParser line)
+        {
+            current.add(line, 0);
+        }
+
+        @Override
+        public boolean isValidationDeferred()
+        {
+            return aggregator.isValidationDeferred();
+        }
+
+        @Override
+        public void reject(CensusLineParser line, int reason)
+        {
+            current.add(line, reason);
+        }
+
+        @Override
+        public CensusLineFilter getFilter()
+        {
+            return aggregator.getFilter();
+        }
+
+        @Override
+        public void skipped(long lines)
+        {
+            current.skipped += lines;
+        }
+    }
+
+    /**
+        * This class is the aggregator stage. It hands each row of a batch
+        * to the CensusAggregates through a parser pointed back at the row,
+        * and completes done once the last batch is in, or a stage failed.
+    */
+    private class Aggregating implements Flow.Subscriber<Batch>
+    {
+        private final CompletableFuture<Void> done = new CompletableFuture<>(); //End of the run
+        private final CensusLineParser line = new CensusLineParser(); //Reused per row
+        private Flow.Subscription subscription; //Batches from the parser
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(Batch batch)
+        {
+            long began = System.nanoTime();
+            try
+            {
+                for (int i = 0; i < batch.count; i++)
+                {
+                    line.load(batch.buffer, batch.start[i], batch.end[i], batch.offset[i],
+                              batch.state[i], batch.total[i], batch.child[i], batch.poverty[i]);
+                    if (batch.reason[i] == 0)
+                    {
+                        aggregator.record(line);
+                    }
+                    else
+                    {
+                        aggregator.reject(line, batch.reason[i]);
+                    }
+                }
+                if (batch.skipped > 0)
+                {
+                    aggregator.skipped(batch.skipped);
+                }
+            }
+            catch (RuntimeException ex) //Stop the run rather than lose lines
+            {
+                subscription.cancel();
+                done.completeExceptionally(ex);
+                return;
+            }
+            adder.add(1, batch.count + batch.skipped, batch.bytes, System.nanoTime() - began);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable ex)
+        {
+            done.completeExceptionally(ex);
+        }
+
+        @Override
+        public void onComplete()
+        {
+            done.complete(null);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+    * Callback used by CensusScanner to hand each parsed Census line to
+    * whatever is summarizing the data. The parser passed in is reused for
+    * the next line, so implementations must copy out any values they need
+    * before returning.
+    *
+    * By default every line is validated as it is read, and the first line
+    * that breaks the StateCensus constraints ends the scan with an
+    * InvalidArgumentException. A handler that defers validation instead is
+    * handed lines that fail through reject(), and the scan carries on.
+    *
+    * A handler may also supply a CensusLineFilter. Lines the filter turns
+    * down are neither parsed nor validated; they are only counted through
+    * skipped().
+    *
+    * @version 1.0.0.0
+*/
+public interface CensusRecordHandler
+{
+    /**
+        * Called once for every line read from the input file.
+        *
+        * @param line CensusLineParser holding the decoded values of the line
+    */
+    void record(CensusLineParser line) throws InvalidArgumentException;
+
+    /**
+        * Returns whether this handler defers validation, i.e. wants lines
+        * that fail validation passed to reject() rather than ending the scan.
+        *
+        * @return true to defer validation; false by default
+    */
+    default boolean isValidationDeferred()
+    {
+        return false;
+    }
+
+    /**
+        * Called, when validation is deferred, for every line that failed it,
+        * instead of record(). Only the line offset is meaningful if the line
+        * was malformed.
+        *
+        * @param line CensusLineParser holding the values of the line
+        * @param reason integer RejectLog REASON flags
+    */
+    default void reject(CensusLineParser line, int reason)
+    {
+        //Skipped by default
+    }
+
+    /**
+        * Returns the filter selecting the lines this handler wants, or null
+        * if it wants every line.
+        *
+        * @return the CensusLineFilter, or null by default
+    */
+    default CensusLineFilter getFilter()
+    {
+        return null;
+    }
+
+    /**
+        * Called after each scanned stretch of input with the number of lines
+        * the filter turned down in it.
+        *
+        * @param lines long number of lines filtered out
+    */
+    default void skipped(long lines)
+    {
+        //Ignored by default
+    }
+}
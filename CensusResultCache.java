@@ -0,0 +1,378 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+    * This class keeps the output files of CensusAnalyzer runs on disk, so
+    * that a run identical to an earlier one is answered by copying them
+    * instead of reading and summarizing the input again.
+    *
+    * A run is identified by the CRC32C of its whole input file, taken over
+    * a memory mapping, the input size, and the settings that change the
+    * output (AnalyzerOptions.getRunParameters()). Each entry is one file
+    * named after that key, holding the key in full and then the output
+    * files, byte for byte as written in their data format:
+    *   int MAGIC, int VERSION, UTF run parameters, long input size,
+    *   int input CRC32C, int file count, then per file:
+    *   UTF name suffix ("" for the output file), int length, bytes
+    *
+    * The entries together are kept below a size limit by removing the
+    * least recently used first; using an entry updates its modification
+    * time, which is what "recently" goes by. Hits and misses are counted
+    * in a small file in the cache directory, under a file lock, so counts
+    * from runs at the same time are not lost.
+    *
+    * Runs that write anything besides the output and district files, or
+    * depend on more than the input (a ranking, comparison, sample, reject
+    * report or checkpoint), are not cached.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusResultCache
+{
+    //Below 2 constants mark an entry and its layout
+    public static final int MAGIC = 0x43524348;
+    public static final int VERSION = 1;
+
+    //Name of the file counting hits and misses
+    private static final String STATS_FILE = "stats";
+
+    private final Path directory; //Cache directory
+    private final long maxSize; //Largest total size of the entries
+    private final String parameters; //Run parameters, in full
+    private final long inputSize; //Bytes of the input file
+    private final int inputHash; //CRC32C of the input file
+    private final Path entry; //Entry file of this run
+    private long hits; //Hits counted so far, after this run's
+    private long misses; //Misses counted so far, after this run's
+
+    /**
+        * Constructor, hashing the input file to find the entry of the run.
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * @param directory String detailing the cache directory, made if missing
+        * @param maxSize long largest total size of the entries, in bytes
+        * @param inputFile String detailing the input file's location
+        * @param options AnalyzerOptions of the run
+    */
+    public CensusResultCache(String directory, long maxSize, String inputFile,
+                             AnalyzerOptions options) throws IOException
+    {
+        this.directory = Files.createDirectories(Paths.get(directory));
+        this.maxSize = maxSize;
+        this.parameters = options.getRunParameters();
+        this.inputSize = Files.size(Paths.get(inputFile));
+
+        //The same mapped hashing the checkpoint uses
+        CRC32C crc = new CRC32C();
+        CensusCheckpoint.hash(inputFile, 0, inputSize, crc);
+        this.inputHash = (int)crc.getValue();
+
+        CRC32C parameterHash = new CRC32C();
+        parameterHash.update(parameters.getBytes(StandardCharsets.UTF_8));
+        this.entry = this.directory.resolve(String.format("%08x-%08x-%x.entry",
+            inputHash, (int)parameterHash.getValue(), inputSize));
+    }
+
+    /**
+        * Returns whether the output of a run can be cached: it writes
+        * nothing besides the output and district files, and depends only
+        * on the input file.
+        *
+        * @param options AnalyzerOptions of the run
+        * @return true if the run can be cached
+    */
+    public static boolean isCacheable(AnalyzerOptions options)
+    {
+        return options.getTopK() == 0 && options.getCompareFile() == null &&
+               options.getSampleSize() == 0 && options.getCheckpointFile() == null &&
+               !options.isDeferredValidation();
+    }
+
+    /**
+        * Returns the suffixes, inserted before the output file's extension,
+        * of the files a run writes: "" for the output file itself, and
+        * ".districts" for the district file if there is one.
+        *
+        * @param options AnalyzerOptions of the run
+        * @return List of name suffixes
+    */
+    static List<String> outputSuffixes(AnalyzerOptions options)
+    {
+        List<String> suffixes = new ArrayList<>();
+        suffixes.add("");
+        if (options.isDistrictLevel() && !options.isRollup())
+        {
+            suffixes.add(".districts");
+        }
+        return suffixes;
+    }
+
+    /**
+        * Writes the output files from the entry of this run, if there is one,
+        * and counts a hit or a miss.
+        *
+        * @param outputFile String detailing the output file path
+        * @return true if the files were written from the cache
+    */
+    public boolean restore(String outputFile) throws IOException
+    {
+        boolean hit = false;
+        if (Files.isRegularFile(entry))
+        {
+            try (DataInputStream din = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(entry))))
+            {
+                hit = readEntry(din, outputFile);
+            }
+            catch (EOFException | NoSuchFileException ex) //Cut short or evicted meanwhile
+            {
+                hit = false;
+            }
+        }
+        if (hit)
+        {
+            //Most recently used now
+            try
+            {
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            catch (NoSuchFileException ex) //Evicted meanwhile; the files are written
+            {
+            }
+        }
+        count(hit);
+        return hit;
+    }
+
+    /**
+        * Stores the output files of this run as its entry, then removes the
+        * least recently used entries until the cache fits its size again.
+        * An entry larger than the whole cache is not stored.
+        *
+        * precondition The output files of the run have been written
+        *
+        * @param outputFile String detailing the output file path
+        * @param suffixes List of output file name suffixes, from
+        * outputSuffixes()
+    */
+    public void store(String outputFile, List<String> suffixes) throws IOException
+    {
+        //Written under a temporary name, then moved into place in one step
+        Path temp = Files.createTempFile(directory, "entry", ".tmp");
+        try
+        {
+            try (DataOutputStream dout = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp))))
+            {
+                dout.writeInt(MAGIC);
+                dout.writeInt(VERSION);
+                dout.writeUTF(parameters);
+                dout.writeLong(inputSize);
+                dout.writeInt(inputHash);
+                dout.writeInt(suffixes.size());
+                for (String suffix : suffixes)
+                {
+                    byte[] content = Files.readAllBytes(Paths.get(withSuffix(outputFile, suffix)));
+                    dout.writeUTF(suffix);
+                    dout.writeInt(content.length);
+                    dout.write(content);
+                }
+            }
+            if (Files.size(temp) > maxSize)
+            {
+                return; //would evict everything else, and then itself
+            }
+            try
+            {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException ex) //Best effort instead
+            {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+        evict();
+    }
+
+    /**
+        * Method to return the hits counted, this run's included.
+        *
+        * @return hits long
+    */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /**
+        * Method to return the misses counted, this run's included.
+        *
+        * @return misses long
+    */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+        * Helper method to check that an entry belongs to this run, the key
+        * in full, and write its files.
+        *
+        * @param din DataInputStream at the start of the entry
+        * @param outputFile String detailing the output file path
+        * @return true if the entry matched and its files were written
+    */
+    private boolean readEntry(DataInputStream din, String outputFile) throws IOException
+    {
+        if (din.readInt() != MAGIC || din.readInt() != VERSION ||
+            !din.readUTF().equals(parameters) || din.readLong() != inputSize ||
+            din.readInt() != inputHash)
+        {
+            return false; //another run with the same short key
+        }
+
+        //Below loop reads every file before any is written, so a damaged
+        //entry leaves no output behind
+        int files = din.readInt();
+        List<String> names = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < files; i++)
+        {
+            names.add(withSuffix(outputFile, din.readUTF()));
+            byte[] content = new byte[din.readInt()];
+            din.readFully(content);
+            contents.add(content);
+        }
+        for (int i = 0; i < files; i++)
+        {
+            Files.write(Paths.get(names.get(i)), contents.get(i));
+        }
+        return true;
+    }
+
+    /**
+        * Helper method to remove the least recently used entries until the
+        * entries fit the cache size.
+    */
+    private void evict() throws IOException
+    {
+        //Below loop lists the entries with their size and time of use
+        List<Path> entries = new ArrayList<>();
+        long total = 0; //bytes of all entries
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.entry"))
+        {
+            for (Path file : stream)
+            {
+                entries.add(file);
+                total += Files.size(file);
+            }
+        }
+        catch (NoSuchFileException ex) //Removed by another run meanwhile
+        {
+        }
+        if (total <= maxSize)
+        {
+            return;
+        }
+
+        long[] used = new long[entries.size()]; //time of use per entry
+        Integer[] order = new Integer[entries.size()]; //entries, oldest first
+        for (int i = 0; i < used.length; i++)
+        {
+            used[i] = lastUsed(entries.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(used[a], used[b]));
+        for (int i = 0; i < order.length && total > maxSize; i++)
+        {
+            Path file = entries.get(order[i]);
+            long size = sizeOf(file);
+            if (Files.deleteIfExists(file))
+            {
+                total -= size;
+            }
+        }
+    }
+
+    /**
+        * Helper method to count a hit or miss in the stats file, under a
+        * lock, and keep the totals.
+    */
+    private void count(boolean hit) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(directory.resolve(STATS_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            channel.lock(); //Released when the channel closes
+            ByteBuffer counts = ByteBuffer.allocate(16);
+            channel.read(counts, 0);
+            hits = (counts.position() == 16) ? counts.getLong(0) : 0;
+            misses = (counts.position() == 16) ? counts.getLong(8) : 0;
+            if (hit)
+            {
+                hits++;
+            }
+            else
+            {
+                misses++;
+            }
+            counts.clear();
+            counts.putLong(hits).putLong(misses).flip();
+            channel.write(counts, 0);
+        }
+    }
+
+    /**
+        * Helper method to return when an entry was last used, or 0 if it is
+        * gone.
+    */
+    private static long lastUsed(Path file)
+    {
+        try
+        {
+            return Files.getLastModifiedTime(file).toMillis();
+        }
+        catch (IOException ex) //Removed meanwhile
+        {
+            return 0;
+        }
+    }
+
+    /**
+        * Helper method to return the size of an entry, or 0 if it is gone.
+    */
+    private static long sizeOf(Path file)
+    {
+        try
+        {
+            return Files.size(file);
+        }
+        catch (IOException ex) //Removed meanwhile
+        {
+            return 0;
+        }
+    }
+
+    /**
+        * Helper method to return the name of an output file from its suffix;
+        * the only file besides the output file is the district file.
+    */
+    private static String withSuffix(String outputFile, String suffix)
+    {
+        return suffix.isEmpty() ? outputFile : CensusAnalyzer.districtFileName(outputFile);
+    }
+}
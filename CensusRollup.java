@@ -0,0 +1,176 @@
+/**
+    * This class rolls state totals up into Census division and region
+    * totals, using the tables in CensusGeography. It works from the state
+    * totals already built during the scan, so the division and region
+    * levels cost a loop over at most 100 states rather than another pass
+    * over the input.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusRollup
+{
+    //Below 3 arrays hold the totals of each division, indexed by number
+    private long[] divisionTotal = new long[CensusGeography.DIVISIONS];
+    private long[] divisionChild = new long[CensusGeography.DIVISIONS];
+    private long[] divisionChildPoverty = new long[CensusGeography.DIVISIONS];
+
+    //Below 3 arrays hold the totals of each region, indexed by number
+    private long[] regionTotal = new long[CensusGeography.REGIONS];
+    private long[] regionChild = new long[CensusGeography.REGIONS];
+    private long[] regionChildPoverty = new long[CensusGeography.REGIONS];
+
+    //Below 2 arrays record which divisions and regions hold any state
+    private boolean[] divisionPresent = new boolean[CensusGeography.DIVISIONS];
+    private boolean[] regionPresent = new boolean[CensusGeography.REGIONS];
+
+    /**
+        * Constructor, summing the totals of every state into its division
+        * and region. States without a division are left out of both.
+        *
+        * @param states StateAggregator holding the per-state totals
+    */
+    public CensusRollup(StateAggregator states)
+    {
+        for (int i = 0; i < states.getStateCount(); i++)
+        {
+            int code = states.getStateCode(i);
+            int division = CensusGeography.divisionOf(code);
+            if (division == 0)
+            {
+                continue; //counted in the national total only
+            }
+            int region = CensusGeography.regionOf(division);
+
+            //Below six lines add the state to its division and region
+            divisionTotal[division] = Math.addExact(divisionTotal[division], states.getTotalPopulation(code));
+            divisionChild[division] = Math.addExact(divisionChild[division], states.getChildPopulation(code));
+            divisionChildPoverty[division] = Math.addExact(divisionChildPoverty[division],
+                                                           states.getChildPovertyPopulation(code));
+            regionTotal[region] = Math.addExact(regionTotal[region], states.getTotalPopulation(code));
+            regionChild[region] = Math.addExact(regionChild[region], states.getChildPopulation(code));
+            regionChildPoverty[region] = Math.addExact(regionChildPoverty[region],
+                                                       states.getChildPovertyPopulation(code));
+
+            divisionPresent[division] = true;
+            regionPresent[region] = true;
+        }
+    }
+
+    /**
+        * Method to return whether any state of a division was seen.
+        *
+        * @param division integer division number
+        * @return true if the division has totals
+    */
+    public boolean hasDivision(int division)
+    {
+        return divisionPresent[division];
+    }
+
+    /**
+        * Method to return whether any state of a region was seen.
+        *
+        * @param region integer region number
+        * @return true if the region has totals
+    */
+    public boolean hasRegion(int region)
+    {
+        return regionPresent[region];
+    }
+
+    /**
+        * Method to return the number of divisions with totals.
+        *
+        * @return count of divisions present
+    */
+    public int getDivisionCount()
+    {
+        int count = 0;
+        for (boolean present : divisionPresent)
+        {
+            count += present ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+        * Method to return the number of regions with totals.
+        *
+        * @return count of regions present
+    */
+    public int getRegionCount()
+    {
+        int count = 0;
+        for (boolean present : regionPresent)
+        {
+            count += present ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+        * Method to return the total population of a division.
+        *
+        * @param division integer division number
+        * @return total population long
+    */
+    public long getDivisionTotalPopulation(int division)
+    {
+        return divisionTotal[division];
+    }
+
+    /**
+        * Method to return the child population of a division.
+        *
+        * @param division integer division number
+        * @return child population long
+    */
+    public long getDivisionChildPopulation(int division)
+    {
+        return divisionChild[division];
+    }
+
+    /**
+        * Method to return the child poverty population of a division.
+        *
+        * @param division integer division number
+        * @return child poverty population long
+    */
+    public long getDivisionChildPovertyPopulation(int division)
+    {
+        return divisionChildPoverty[division];
+    }
+
+    /**
+        * Method to return the total population of a region.
+        *
+        * @param region integer region number
+        * @return total population long
+    */
+    public long getRegionTotalPopulation(int region)
+    {
+        return regionTotal[region];
+    }
+
+    /**
+        * Method to return the child population of a region.
+        *
+        * @param region integer region number
+        * @return child population long
+    */
+    public long getRegionChildPopulation(int region)
+    {
+        return regionChild[region];
+    }
+
+    /**
+        * Method to return the child poverty population of a region.
+        *
+        * @param region integer region number
+        * @return child poverty population long
+    */
+    public long getRegionChildPovertyPopulation(int region)
+    {
+        return regionChildPoverty[region];
+    }
+}
@@ -0,0 +1,25 @@
+import java.io.IOException;
+
+/**
+    * Callback taking the summary rows of a versioned data file (see
+    * CensusDataFile) one at a time, as CensusAnalyzer produces them from
+    * its in-memory totals. CensusDataWriter writes them to a file, and
+    * CensusDataOutputReport can print them directly, so the rows of a run
+    * can be reported on without going through the file.
+    *
+    * @version 1.0.0.0
+*/
+public interface CensusRowSink
+{
+    /**
+        * Called once for every row, in file order.
+        *
+        * @param level integer LEVEL constant of the row
+        * @param code integer code of the row within its level
+        * @param totalPop long total population
+        * @param childPop long child population
+        * @param childPovPop long child poverty population
+    */
+    void writeRow(int level, int code, long totalPop, long childPop, long childPovPop)
+        throws IOException;
+}
@@ -0,0 +1,664 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+    * This class estimates state and national totals from a random sample
+    * of lines, for a quick preview of files too large to read in full.
+    * Reading the first N lines instead would only show the first few
+    * states of a state-sorted file.
+    *
+    * The Census layout gives every line the same length, so line i starts
+    * at byte i * length and any line can be read directly from a mapping
+    * of the file without scanning what comes before it. The sample is
+    * stratified by state:
+    * 1. The first and last line of each state are found by binary search
+    *    over line numbers, reading only the state code of each line probed
+    * 2. The sample size is shared out over the states in proportion to
+    *    their number of lines (at least MIN_PER_STRATUM each), and each
+    *    state's lines are drawn at random without replacement
+    * 3. Each total is estimated as lines times the sample mean
+    *    (Horvitz-Thompson), with a 95% confidence interval from the sample
+    *    variance, and each rate as the ratio of the estimated totals, with
+    *    its interval from the linearized variance
+    *
+    * If the file turns out not to be sorted by state, it is sampled as a
+    * whole instead, and each state is estimated as a domain of that one
+    * sample. Lines turned down by a CensusLineFilter belong to no state,
+    * and states it does not want are not sampled at all.
+    *
+    * The intervals rest on the normal approximation. District populations
+    * are very skewed (a few cities hold much of a state), so with only a
+    * handful of lines per state they are somewhat narrower than they
+    * should be; on the Census file about 90% of them hold the true value.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusSampler
+{
+    //Normal quantile for a two sided 95% confidence interval
+    public static final double Z_95 = 1.959963984540054;
+
+    //Smallest sample taken from any state, so every state gets a variance
+    private static final int MIN_PER_STRATUM = 2;
+
+    //Largest region mapped at once, rounded down to whole lines when used
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    //Below 4 constants index the estimated quantities
+    private static final int TOTAL = 0;
+    private static final int CHILD = 1;
+    private static final int POVERTY = 2;
+    private static final int RATE = 3;
+
+    //Domain index of the nation, after the 100 state codes
+    private static final int NATION = StateAggregator.STATE_CODES;
+
+    private final int sampleSize; //Lines wanted in the sample
+    private final SplittableRandom random; //Source of the sample
+    private final CensusLineFilter filter; //Lines estimated for, or null for all
+    private final CensusLineParser parser = new CensusLineParser(); //Reused per line
+
+    private FileChannel channel; //Input file while sampling
+    private MappedByteBuffer[] segments; //Mappings of the file, made on demand
+    private long fileSize; //Bytes in the input file
+    private int lineLength; //Bytes per line, terminator included
+    private long linesPerSegment; //Whole lines per mapping
+    private long lineCount; //Lines in the file
+    private boolean stratified; //Whether the file could be split by state
+
+    //Below 5 arrays hold the sampled lines
+    private int[] sampleStratum; //Stratum the line was drawn from
+    private int[] sampleState; //State code, or -1 if filtered out
+    private long[][] sampleValues; //Total, child and poverty pop
+    private int sampled; //Lines sampled
+
+    //Below 3 lists describe the strata: state code, first line, line count
+    private final List<Integer> strataCodes = new ArrayList<>();
+    private final List<Long> strataStart = new ArrayList<>();
+    private final List<Long> strataLines = new ArrayList<>();
+
+    private final long[] domainSampled = new long[NATION + 1]; //Sampled lines per domain
+    private final double[][] estimate = new double[4][NATION + 1]; //Estimates per domain
+    private final double[][] variance = new double[4][NATION + 1]; //Variances per domain
+
+    /**
+        * Constructor, taking the sample size, the random seed and the filter
+        * selecting which lines are estimated for.
+        *
+        * @param sampleSize integer number of lines to sample, at least 1
+        * @param seed long seed of the random sample
+        * @param filter CensusLineFilter, or null to estimate every line
+    */
+    public CensusSampler(int sampleSize, long seed, CensusLineFilter filter)
+    {
+        this.sampleSize = sampleSize;
+        this.random = new SplittableRandom(seed);
+        this.filter = filter;
+    }
+
+    /**
+        * Samples the file and works out the estimates and their intervals.
+        *
+        * precondition The input file exists, and all its lines have the same
+        * length
+        *
+        * @param fileName String detailing the input file's location
+    */
+    public void sample(String fileName)
+        throws FileNotFoundException, IOException, InvalidArgumentException
+    {
+        //Use try-with-resources to leverage auto close
+        try (FileChannel input = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+        {
+            channel = input;
+            fileSize = channel.size();
+            if (fileSize == 0)
+            {
+                return; //nothing to estimate
+            }
+            measureLines();
+
+            //Stratify by state; a line drawn from the wrong state means the
+            //file is not sorted, so it is sampled as a whole after all
+            stratified = findStrata() && drawSample();
+            if (!stratified)
+            {
+                strataCodes.clear();
+                strataStart.clear();
+                strataLines.clear();
+                addStratum(-1, 0, lineCount);
+                drawSample();
+            }
+            estimate();
+        }
+        finally
+        {
+            channel = null;
+            segments = null;
+        }
+    }
+
+    /**
+        * Method to return the number of lines in the file.
+        *
+        * @return lineCount long
+    */
+    public long getLineCount()
+    {
+        return lineCount;
+    }
+
+    /**
+        * Method to return the number of lines sampled.
+        *
+        * @return sampled lines
+    */
+    public int getSampledCount()
+    {
+        return sampled;
+    }
+
+    /**
+        * Method to return whether the sample was stratified by state.
+        *
+        * @return true if the file was sorted by state
+    */
+    public boolean isStratified()
+    {
+        return stratified;
+    }
+
+    /**
+        * Method to return how many sampled lines belong to a state.
+        *
+        * @param stateCode integer state code
+        * @return sampled lines of the state
+    */
+    public long getSampledCount(int stateCode)
+    {
+        return domainSampled[stateCode];
+    }
+
+    /**
+        * Method to return the estimated child poverty population of a state.
+        *
+        * @param stateCode integer state code
+        * @return estimated child poverty population double
+    */
+    public double getChildPovertyEstimate(int stateCode)
+    {
+        return estimate[POVERTY][stateCode];
+    }
+
+    /**
+        * Method to return the half width of the 95% confidence interval of a
+        * state's estimated child poverty population.
+        *
+        * @param stateCode integer state code
+        * @return interval half width double
+    */
+    public double getChildPovertyInterval(int stateCode)
+    {
+        return Z_95 * Math.sqrt(variance[POVERTY][stateCode]);
+    }
+
+    /**
+        * Writes the estimates as rows (estimated counts rounded to whole
+        * people), one per sampled state and one for the nation, followed by
+        * a sample block holding the unrounded estimates and their confidence
+        * intervals. See writeBlock().
+        *
+        * @param dout DataOutputStream positioned at the start of the file
+        * @param format integer CensusDataFile FORMAT_2 or FORMAT_3
+        * @param percentageColumn boolean false to leave the percentage out of
+        * format 3
+    */
+    public void writeTo(DataOutputStream dout, int format, boolean percentageColumn)
+        throws IOException
+    {
+        int rows = 1; //the nation
+        for (int code = 0; code < NATION; code++)
+        {
+            rows += (domainSampled[code] > 0) ? 1 : 0;
+        }
+
+        CensusDataWriter out = new CensusDataWriter(dout, format, percentageColumn, rows);
+        for (int d = 0; d <= NATION; d++)
+        {
+            if (d == NATION || domainSampled[d] > 0)
+            {
+                out.writeRow((d == NATION) ? CensusDataFile.LEVEL_NATION : CensusDataFile.LEVEL_STATE,
+                    (d == NATION) ? 0 : d, Math.round(estimate[TOTAL][d]),
+                    Math.round(estimate[CHILD][d]), Math.round(estimate[POVERTY][d]));
+            }
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        writeBlock(new DataOutputStream(block));
+        out.writeBlock(CensusDataFile.BLOCK_SAMPLE, block.toByteArray());
+        out.finish();
+    }
+
+    /**
+        * Writes the content of the sample block: the line count of the file,
+        * the number of lines sampled, whether the sample was stratified and
+        * the number of entries, then per sampled state and finally the
+        * nation its level and code, its sampled lines, and the estimate and
+        * confidence interval half width of total, child and child poverty
+        * population and child poverty percentage.
+        *
+        * @param dout DataOutputStream to write to
+    */
+    public void writeBlock(DataOutputStream dout) throws IOException
+    {
+        int entries = 1; //the nation
+        for (int code = 0; code < NATION; code++)
+        {
+            entries += (domainSampled[code] > 0) ? 1 : 0;
+        }
+
+        //Below four lines write the description of the sample
+        dout.writeLong(lineCount);
+        dout.writeLong(sampled);
+        dout.writeBoolean(stratified);
+        dout.writeInt(entries);
+        for (int d = 0; d <= NATION; d++)
+        {
+            if (d == NATION || domainSampled[d] > 0)
+            {
+                dout.writeInt((d == NATION) ? CensusDataFile.LEVEL_NATION : CensusDataFile.LEVEL_STATE);
+                dout.writeInt((d == NATION) ? 0 : d);
+                dout.writeLong(domainSampled[d]);
+                for (int q = TOTAL; q <= RATE; q++)
+                {
+                    dout.writeDouble(estimate[q][d]);
+                    dout.writeDouble(Z_95 * Math.sqrt(variance[q][d]));
+                }
+            }
+        }
+    }
+
+    /**
+        * Prints the content of a sample block as a table of estimates with
+        * their 95% confidence intervals.
+        *
+        * @param din DataInputStream positioned at the block's content
+        * @param out PrintStream to print to
+    */
+    public static void printBlock(DataInputStream din, PrintStream out) throws IOException
+    {
+        long lines = din.readLong();
+        long sampledLines = din.readLong();
+        boolean stratifiedSample = din.readBoolean();
+        int entries = din.readInt();
+
+        out.printf("%nEstimates from a %s sample of %,d of %,d lines (95%% confidence)%n",
+                   stratifiedSample ? "stratified" : "simple random", sampledLines, lines);
+        out.printf("%nState  Sampled  %29s  %29s  %29s  %15s%n", "Population",
+                   "Child Population", "Child Poverty Population", "% Child Poverty");
+        out.printf("-----  -------  %s  %s  %s  %s%n", "-".repeat(29), "-".repeat(29),
+                   "-".repeat(29), "-".repeat(15));
+
+        for (int i = 0; i < entries; i++)
+        {
+            int level = din.readInt();
+            int code = din.readInt();
+            long count = din.readLong();
+            if (level == CensusDataFile.LEVEL_NATION)
+            {
+                out.printf("-----  -------  %s  %s  %s  %s%n", "-".repeat(29), "-".repeat(29),
+                           "-".repeat(29), "-".repeat(15));
+            }
+
+            //Will print state, sampled lines, then each estimate and interval
+            out.printf("%5s  %,7d", (level == CensusDataFile.LEVEL_NATION) ?
+                       "US" : String.format("%02d", code), count);
+            for (int q = TOTAL; q <= POVERTY; q++)
+            {
+                out.printf("  %,13.0f +/- %,11.0f", din.readDouble(), din.readDouble());
+            }
+            out.printf("  %6.2f +/- %6.2f%n", din.readDouble(), din.readDouble());
+        }
+    }
+
+    /**
+        * Finds the line length from the first line terminator and checks
+        * that the file size is a whole number of lines (the last one may
+        * lack its terminator).
+    */
+    private void measureLines() throws IOException
+    {
+        int probe = (int)Math.min(fileSize, 64 * 1024); //first line is short
+        MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, probe);
+        int length = 0;
+        while (length < probe && head.get(length) != '\n')
+        {
+            length++;
+        }
+        lineLength = (length < probe) ? length + 1 : (int)fileSize;
+
+        long remainder = fileSize % lineLength;
+        if (remainder != 0 && remainder != lineLength - 1)
+        {
+            throw new IOException("Sampling needs a file whose lines all have the same length");
+        }
+        lineCount = (fileSize + lineLength - 1) / lineLength;
+        linesPerSegment = Math.max(1, MAX_SEGMENT_SIZE / lineLength);
+        segments = new MappedByteBuffer[(int)((lineCount + linesPerSegment - 1) / linesPerSegment)];
+    }
+
+    /**
+        * Splits the file into one stratum per state by binary search. Returns
+        * false if a state code cannot be read or a state appears twice, i.e.
+        * the file is not sorted by state.
+    */
+    private boolean findStrata() throws IOException
+    {
+        boolean[] seen = new boolean[StateAggregator.STATE_CODES]; //states found so far
+        long start = 0; //first line of the next stratum
+        while (start < lineCount)
+        {
+            int code = stateAt(start);
+            if (code < 0 || code >= StateAggregator.STATE_CODES || seen[code])
+            {
+                return false;
+            }
+            seen[code] = true;
+
+            //Find the first line past start with a different state
+            long low = start + 1;
+            long high = lineCount;
+            while (low < high)
+            {
+                long mid = (low + high) >>> 1;
+                if (stateAt(mid) == code)
+                {
+                    low = mid + 1;
+                }
+                else
+                {
+                    high = mid;
+                }
+            }
+            addStratum(code, start, low - start);
+            start = low;
+        }
+        return true;
+    }
+
+    /**
+        * Draws each stratum's share of the sample. Returns false, leaving the
+        * sample incomplete, if a stratified line is of another state.
+    */
+    private boolean drawSample() throws IOException, InvalidArgumentException
+    {
+        //Share the sample out in proportion to each stratum's lines, over
+        //the states the filter wants
+        int strata = strataCodes.size();
+        long[] wanted = new long[strata];
+        long wantedLines = 0; //lines of the wanted strata
+        for (int h = 0; h < strata; h++)
+        {
+            wantedLines += isWanted(h) ? strataLines.get(h) : 0;
+        }
+        long total = 0; //lines to sample over all strata
+        for (int h = 0; h < strata; h++)
+        {
+            long lines = strataLines.get(h);
+            wanted[h] = !isWanted(h) ? 0 : Math.min(lines, Math.max(MIN_PER_STRATUM,
+                Math.round((double)sampleSize * lines / wantedLines)));
+            total += wanted[h];
+        }
+
+        sampleStratum = new int[(int)total];
+        sampleState = new int[(int)total];
+        sampleValues = new long[3][(int)total];
+        sampled = 0;
+
+        for (int h = 0; h < strata; h++)
+        {
+            for (long line : drawLines(strataLines.get(h), wanted[h]))
+            {
+                long i = strataStart.get(h) + line; //line number in the file
+                int state = stateAt(i);
+                if (strataCodes.get(h) >= 0 && state != strataCodes.get(h))
+                {
+                    return false; //not sorted by state after all
+                }
+                sampleStratum[sampled] = h;
+                sampleState[sampled] = readLine(i) ? state : -1;
+                sampled++;
+            }
+        }
+        return true;
+    }
+
+    /**
+        * Returns whether stratum h holds a state the filter wants; the single
+        * stratum of an unsorted file always does.
+    */
+    private boolean isWanted(int h)
+    {
+        int code = strataCodes.get(h);
+        return code < 0 || filter == null || filter.acceptsState(code);
+    }
+
+    /**
+        * Returns count distinct line numbers below lines, at random (Floyd's
+        * algorithm), in ascending order so the file is read front to back.
+    */
+    private long[] drawLines(long lines, long count)
+    {
+        Set<Long> chosen = new HashSet<>();
+        for (long j = lines - count; j < lines; j++)
+        {
+            long t = random.nextLong(j + 1);
+            chosen.add(chosen.contains(t) ? j : t);
+        }
+
+        long[] drawn = new long[chosen.size()];
+        int i = 0;
+        for (long line : chosen)
+        {
+            drawn[i++] = line;
+        }
+        Arrays.sort(drawn);
+        return drawn;
+    }
+
+    /**
+        * Parses and validates line i into the next sample row, and returns
+        * false if the filter turns it down instead.
+    */
+    private boolean readLine(long i) throws IOException, InvalidArgumentException
+    {
+        MappedByteBuffer segment = segmentOf(i);
+        int start = (int)((i % linesPerSegment) * lineLength);
+        int end = Math.min(start + lineLength, segment.limit());
+
+        //Every line but the last must end exactly where the layout says
+        if (i < lineCount - 1 || fileSize % lineLength == 0)
+        {
+            if (segment.get(end - 1) != '\n')
+            {
+                throw new IOException("Sampling needs a file whose lines all have the same length");
+            }
+            end--;
+        }
+        if (end > start && segment.get(end - 1) == '\r')
+        {
+            end--;
+        }
+
+        if (filter != null && !filter.accepts(segment, start, end))
+        {
+            sampleValues[TOTAL][sampled] = 0;
+            sampleValues[CHILD][sampled] = 0;
+            sampleValues[POVERTY][sampled] = 0;
+            return false;
+        }
+
+        parser.parse(segment, start, end);
+        parser.validate();
+        sampleValues[TOTAL][sampled] = parser.getTotalPopulation();
+        sampleValues[CHILD][sampled] = parser.getChildPopulation();
+        sampleValues[POVERTY][sampled] = parser.getChildPovertyPopulation();
+        return true;
+    }
+
+    /**
+        * Works out every domain's estimates and variances from the sample,
+        * one stratum at a time.
+    */
+    private void estimate()
+    {
+        //Below two passes: the totals first, since the rate's variance
+        //depends on the estimated rate
+        for (int pass = 0; pass < 2; pass++)
+        {
+            int row = 0; //first sample row of the stratum
+            for (int h = 0; h < strataCodes.size(); h++)
+            {
+                int end = row;
+                while (end < sampled && sampleStratum[end] == h)
+                {
+                    end++;
+                }
+                addStratumEstimates(pass, row, end, strataLines.get(h));
+                row = end;
+            }
+
+            if (pass == 0)
+            {
+                for (int d = 0; d <= NATION; d++)
+                {
+                    estimate[RATE][d] = 100 * estimate[POVERTY][d] / estimate[CHILD][d];
+                }
+            }
+        }
+
+        //The rate's variance is of (poverty - rate * child), over child squared
+        for (int d = 0; d <= NATION; d++)
+        {
+            variance[RATE][d] *= 100.0 * 100.0 / (estimate[CHILD][d] * estimate[CHILD][d]);
+        }
+    }
+
+    /**
+        * Adds one stratum's contribution to every domain: N times the sample
+        * mean of each value (zero outside the domain) to the estimate, and
+        * N^2 (1 - n/N) s^2 / n to its variance. The second pass does the same
+        * for the linearized rate, poverty - rate * child.
+    */
+    private void addStratumEstimates(int pass, int from, int to, long lines)
+    {
+        int n = to - from; //lines sampled from the stratum
+        if (n == 0)
+        {
+            return;
+        }
+        double[][] sums = new double[4][NATION + 1]; //sum of each value per domain
+        double[][] squares = new double[4][NATION + 1]; //sum of its squares per domain
+        long[] members = new long[NATION + 1]; //sampled lines per domain
+
+        for (int i = from; i < to; i++)
+        {
+            int state = sampleState[i];
+            if (state < 0)
+            {
+                continue; //filtered out; in no domain
+            }
+            for (int d : new int[] {state, NATION})
+            {
+                members[d]++;
+                if (pass == 0)
+                {
+                    for (int q = TOTAL; q <= POVERTY; q++)
+                    {
+                        sums[q][d] += sampleValues[q][i];
+                        squares[q][d] += (double)sampleValues[q][i] * sampleValues[q][i];
+                    }
+                }
+                else
+                {
+                    double z = sampleValues[POVERTY][i] -
+                               estimate[RATE][d] / 100 * sampleValues[CHILD][i];
+                    sums[RATE][d] += z;
+                    squares[RATE][d] += z * z;
+                }
+            }
+        }
+
+        double scale = (double)lines * lines * (1 - (double)n / lines) / n; //N^2 (1 - f) / n
+        for (int d = 0; d <= NATION; d++)
+        {
+            if (members[d] == 0)
+            {
+                continue; //domain has no lines in this stratum's sample
+            }
+            for (int q = (pass == 0 ? TOTAL : RATE); q <= (pass == 0 ? POVERTY : RATE); q++)
+            {
+                double sampleVariance = (n > 1) ?
+                    (squares[q][d] - sums[q][d] * sums[q][d] / n) / (n - 1) : 0;
+                if (pass == 0)
+                {
+                    estimate[q][d] += lines * sums[q][d] / n;
+                }
+                variance[q][d] += scale * Math.max(0, sampleVariance);
+            }
+            if (pass == 0)
+            {
+                domainSampled[d] += members[d];
+            }
+        }
+    }
+
+    /**
+        * Returns the state code of line i, or -1 if it cannot be read.
+    */
+    private int stateAt(long i) throws IOException
+    {
+        MappedByteBuffer segment = segmentOf(i);
+        int start = (int)((i % linesPerSegment) * lineLength);
+        if (start + CensusLineParser.STATE_END > segment.limit())
+        {
+            return -1;
+        }
+        return CensusLineParser.decodeField(segment, start + CensusLineParser.STATE_START,
+                                            start + CensusLineParser.STATE_END);
+    }
+
+    /**
+        * Returns the mapping holding line i, mapping it on first use.
+    */
+    private MappedByteBuffer segmentOf(long i) throws IOException
+    {
+        int s = (int)(i / linesPerSegment); //segment number
+        if (segments[s] == null)
+        {
+            long from = s * linesPerSegment * lineLength;
+            long length = Math.min(linesPerSegment * lineLength, fileSize - from);
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+        }
+        return segments[s];
+    }
+
+    /**
+        * Helper method to record a stratum.
+    */
+    private void addStratum(int code, long start, long lines)
+    {
+        strataCodes.add(code);
+        strataStart.add(start);
+        strataLines.add(lines);
+    }
+}
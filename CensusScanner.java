@@ -0,0 +1,435 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+    * This class walks a fixed-width Census file line by line, decodes each
+    * line with a reusable CensusLineParser and passes it on to a
+    * CensusRecordHandler. Two input paths are offered:
+    * 1. A streamed path, reading raw bytes through a growable buffer
+    * 2. A memory-mapped path, scanning the file's pages directly
+    *
+    * Both paths find the same lines and hand the same values to the
+    * handler, so the summarized output is identical either way.
+    *
+    * If the handler defers validation, lines are not checked one at a time.
+    * Instead up to CHUNK_LINES lines are decoded into primitive columns,
+    * the constraints are checked over the whole chunk in a single pass
+    * without branches or exceptions, and each line is then handed to the
+    * handler's record() or, if it failed, reject(). Malformed lines are
+    * rejected the same way instead of ending the scan.
+    *
+    * If the handler supplies a CensusLineFilter, it is applied to the raw
+    * bytes of each line before anything is decoded.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusScanner
+{
+    //Size of the raw read buffer used by the streamed path
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    //Largest region mapped at once. A single mapping is limited to 2 GB,
+    //so larger files are mapped in consecutive segments.
+    private static final int MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    //Lines held back per chunk when validation is deferred
+    private static final int CHUNK_LINES = 1024;
+
+    private final CensusLineParser parser = new CensusLineParser(); //Reused per line
+    private final CensusRecordHandler handler; //Receives every parsed line
+    private final long numRecords; //Maximum number of lines to process
+    private final int segmentSize; //Size of each mapped segment
+    private long counter; //how many records have been processed
+    private long position; //file offset one past the last consumed line
+    private final boolean deferred; //Whether validation is deferred per chunk
+    private final CensusLineFilter filter; //Lines wanted by the handler, or null
+    private int held; //Lines held in the columns below
+    private int[] heldStart; //Buffer position per held line
+    private int[] heldEnd; //Buffer position past the end per held line
+    private long[] heldOffset; //File offset per held line
+    private int[] heldState; //State code per held line
+    private int[] heldTotal; //Total pop per held line
+    private int[] heldChild; //Child pop per held line
+    private int[] heldPoverty; //Child poverty pop per held line
+    private int[] heldReason; //RejectLog REASON flags per held line
+
+    /**
+        * Constructor, taking the handler that receives each line and the
+        * maximum number of lines to process.
+        *
+        * @param handler CensusRecordHandler receiving each parsed line
+        * @param numRecords long limiting the number of records to read
+    */
+    public CensusScanner(CensusRecordHandler handler, long numRecords)
+    {
+        this(handler, numRecords, MAX_SEGMENT_SIZE);
+    }
+
+    /**
+        * Constructor allowing a smaller mapped segment size, so that the
+        * segment hand-off can be exercised without a 2 GB file.
+    */
+    CensusScanner(CensusRecordHandler handler, long numRecords, int segmentSize)
+    {
+        this.handler = handler;
+        this.numRecords = numRecords;
+        this.segmentSize = segmentSize;
+        this.deferred = handler.isValidationDeferred();
+        this.filter = handler.getFilter();
+        if (deferred)
+        {
+            //Below eight lines allocate the columns of a chunk
+            heldStart = new int[CHUNK_LINES];
+            heldEnd = new int[CHUNK_LINES];
+            heldOffset = new long[CHUNK_LINES];
+            heldState = new int[CHUNK_LINES];
+            heldTotal = new int[CHUNK_LINES];
+            heldChild = new int[CHUNK_LINES];
+            heldPoverty = new int[CHUNK_LINES];
+            heldReason = new int[CHUNK_LINES];
+        }
+    }
+
+    /**
+        * Method to return how many lines have been processed so far.
+        *
+        * @return counter long
+    */
+    public long getRecordCount()
+    {
+        return counter; //return number of records processed
+    }
+
+    /**
+        * Method to return the file offset just past the last line that was
+        * processed (its terminator included). Scanning again from this
+        * offset picks up exactly where this scan stopped.
+        *
+        * @return position long
+    */
+    public long getPosition()
+    {
+        return position; //return offset after the last consumed line
+    }
+
+    /**
+        * Reads the whole input file through a plain FileInputStream.
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * @param fileName String detailing the input file's location
+    */
+    public void scanStream(String fileName)
+        throws FileNotFoundException, IOException, InvalidArgumentException
+    {
+        scanStream(fileName, 0);
+    }
+
+    /**
+        * Reads the input file through a plain FileInputStream, starting at
+        * the given offset, which must be the start of a line.
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * @param fileName String detailing the input file's location
+        * @param startOffset long offset of the first line to read
+    */
+    public void scanStream(String fileName, long startOffset)
+        throws FileNotFoundException, IOException, InvalidArgumentException
+    {
+        //Use try-with-resources to leverage auto close
+        try (FileInputStream in = new FileInputStream(fileName))
+        {
+            in.getChannel().position(startOffset);
+            position = startOffset;
+            readLines(in, fileName);
+        }
+    }
+
+    /**
+        * Reads lines from an open stream, such as one handed to CensusEngine,
+        * until it ends. Line offsets count from the first byte read. The
+        * stream is not closed.
+        *
+        * @param in InputStream positioned at the start of a line
+    */
+    public void scanStream(InputStream in)
+        throws IOException, InvalidArgumentException
+    {
+        position = 0;
+        readLines(in, "the input stream");
+    }
+
+    /**
+        * Helper method to read raw bytes from a stream through a growable
+        * buffer and scan the lines in them, from file offset getPosition().
+        * The file is pure ASCII, so raw bytes are read rather than going
+        * through a Reader and its charset decoding.
+    */
+    private void readLines(InputStream in, String source)
+        throws IOException, InvalidArgumentException
+    {
+        //Raw read buffer. Wrapped in a ByteBuffer so the parser can index
+        //into it; a line never has to be copied into a String.
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        ByteBuffer view = ByteBuffer.wrap(buffer);
+        int filled = 0; //number of valid bytes in buffer
+        int lineStart = 0; //start of the first unconsumed line
+
+        int read; //number of bytes read in one call
+        while (counter < numRecords &&
+               (read = in.read(buffer, filled, buffer.length - filled)) >= 0)
+        {
+            checkCancelled(source);
+            filled += read;
+            lineStart = scan(view, 0, filled, false);
+            position += lineStart;
+
+            //Move the partial trailing line to the front of the buffer,
+            //growing the buffer if the line alone fills it
+            System.arraycopy(buffer, lineStart, buffer, 0, filled - lineStart);
+            filled -= lineStart;
+            if (filled == buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                view = ByteBuffer.wrap(buffer);
+            }
+        }
+
+        //Last line may have no terminator
+        position += scan(view, 0, filled, true);
+    }
+
+    /**
+        * Reads the whole input file through a memory mapping.
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * @param fileName String detailing the input file's location
+    */
+    public void scanMapped(String fileName)
+        throws FileNotFoundException, IOException, InvalidArgumentException
+    {
+        scanMapped(fileName, 0);
+    }
+
+    /**
+        * Reads the input file by mapping it into memory with FileChannel.map
+        * and scanning the mapped bytes, starting at the given offset, which
+        * must be the start of a line. Files larger than a single mapping
+        * are processed in segments; each segment ends on a line boundary and
+        * the next one starts where the last complete line ended.
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * @param fileName String detailing the input file's location
+        * @param startOffset long offset of the first line to read
+    */
+    public void scanMapped(String fileName, long startOffset)
+        throws FileNotFoundException, IOException, InvalidArgumentException
+    {
+        //Use try-with-resources to leverage auto close
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.READ))
+        {
+            long size = channel.size(); //total bytes in the file
+            position = startOffset; //start of the first unconsumed line
+
+            while (position < size && counter < numRecords)
+            {
+                checkCancelled(fileName);
+                int length = (int)Math.min(segmentSize, size - position);
+                boolean last = position + length == size;
+                MappedByteBuffer segment = channel.map(
+                    FileChannel.MapMode.READ_ONLY, position, length);
+
+                int consumed = scan(segment, 0, length, last);
+
+                //A line longer than a whole segment can never be completed
+                if (consumed == 0 && !last && counter < numRecords)
+                {
+                    throw new IOException("Census line at byte " + position +
+                        " is longer than the mapped segment size");
+                }
+                position += consumed;
+                if (last)
+                {
+                    break; //whole file has been scanned
+                }
+            }
+        }
+    }
+
+    /**
+        * Stops a scan whose thread has been interrupted, as CensusBatch does
+        * to the other files once one has failed. Checked once per buffer or
+        * mapped segment, not per line.
+        *
+        * @param source String naming what is being read
+    */
+    private static void checkCancelled(String source) throws InterruptedIOException
+    {
+        if (Thread.currentThread().isInterrupted())
+        {
+            throw new InterruptedIOException("Reading " + source + " was cancelled");
+        }
+    }
+
+    /**
+        * Scans a range of complete lines mapped from the given file offset,
+        * so that each line's offset in the file is known to the handler.
+        *
+        * @param buf ByteBuffer holding the lines from position 0
+        * @param length int number of valid bytes in buf
+        * @param fileOffset long offset in the file of buf's first byte
+    */
+    void scanRange(ByteBuffer buf, int length, long fileOffset)
+        throws InvalidArgumentException
+    {
+        position = fileOffset;
+        position += scan(buf, 0, length, true);
+    }
+
+    /**
+        * Scans buf between the absolute positions from and to, handing each
+        * complete line to the handler. If last is true, a trailing line
+        * without a terminator is processed as well; otherwise it is left
+        * for the caller to complete.
+        *
+        * precondition Position 0 of buf is at file offset getPosition()
+        *
+        * @param buf ByteBuffer holding the lines
+        * @param from int absolute position of the first line
+        * @param to int absolute position one past the last valid byte
+        * @param last boolean true if no more data follows to
+        * @return position of the first byte that was not consumed
+    */
+    int scan(ByteBuffer buf, int from, int to, boolean last)
+        throws InvalidArgumentException
+    {
+        int lineStart = from; //start of the current line
+        int pos = from; //next position to check for a line terminator
+        long skipped = 0; //lines turned down by the filter
+
+        //Haven't surpassed desired records
+        while (counter < numRecords)
+        {
+            //Look for the end of the current line
+            while (pos < to && buf.get(pos) != '\n')
+            {
+                pos++;
+            }
+
+            int lineEnd; //end of the current line, terminator excluded
+            if (pos < to)
+            {
+                lineEnd = pos++; //step past the terminator
+            }
+            else if (last && lineStart < to)
+            {
+                lineEnd = to; //last line has no terminator
+            }
+            else
+            {
+                break; //rest of the line is not available yet
+            }
+
+            //Drop a carriage return, for files with Windows line endings
+            int end = (lineEnd > lineStart && buf.get(lineEnd - 1) == '\r') ?
+                      lineEnd - 1 : lineEnd;
+
+            if (filter != null && !filter.accepts(buf, lineStart, end))
+            {
+                skipped++; //not wanted; never decoded
+            }
+            else if (deferred)
+            {
+                hold(buf, lineStart, end); //checked with the rest of its chunk
+            }
+            else
+            {
+                //Decode the line in place and apply the StateCensus constraints
+                parser.setLineOffset(position + lineStart);
+                parser.parse(buf, lineStart, end);
+                parser.validate();
+                handler.record(parser);
+            }
+
+            counter++;  //increment number of records read
+            lineStart = pos;
+        }
+
+        //Held lines point into buf, so they must be handled before it changes
+        if (deferred)
+        {
+            release(buf);
+        }
+        if (skipped > 0)
+        {
+            handler.skipped(skipped);
+        }
+        return lineStart;
+    }
+
+    /**
+        * Decodes a line into the next row of the held columns, without
+        * validating it, and releases the chunk once it is full.
+    */
+    private void hold(ByteBuffer buf, int start, int end)
+        throws InvalidArgumentException
+    {
+        int i = held++; //row of this line
+        heldStart[i] = start;
+        heldEnd[i] = end;
+        heldOffset[i] = position + start;
+        heldReason[i] = parser.tryParse(buf, start, end) ? 0 : RejectLog.MALFORMED;
+
+        //Below four lines copy the decoded fields into the columns
+        heldState[i] = parser.getStateCode();
+        heldTotal[i] = parser.getTotalPopulation();
+        heldChild[i] = parser.getChildPopulation();
+        heldPoverty[i] = parser.getChildPovertyPopulation();
+
+        if (held == CHUNK_LINES)
+        {
+            release(buf);
+        }
+    }
+
+    /**
+        * Validates every held line in one pass over the columns, then hands
+        * each to the handler's record() or reject().
+    */
+    private void release(ByteBuffer buf)
+        throws InvalidArgumentException
+    {
+        //A constraint is broken exactly when its difference is negative, so
+        //the sign bit is the flag. Fields hold at most 8 digits, so the
+        //differences cannot overflow (malformed rows are rejected anyway)
+        for (int i = 0; i < held; i++)
+        {
+            heldReason[i] |= ((heldTotal[i] - heldChild[i]) >>> 31) * RejectLog.CHILD_EXCEEDS_TOTAL |
+                             ((heldChild[i] - heldPoverty[i]) >>> 31) * RejectLog.POVERTY_EXCEEDS_CHILD;
+        }
+
+        for (int i = 0; i < held; i++)
+        {
+            parser.load(buf, heldStart[i], heldEnd[i], heldOffset[i], heldState[i],
+                        heldTotal[i], heldChild[i], heldPoverty[i]);
+            if (heldReason[i] == 0)
+            {
+                handler.record(parser);
+            }
+            else
+            {
+                handler.reject(parser, heldReason[i]);
+            }
+        }
+        held = 0;
+    }
+}
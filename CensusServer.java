@@ -0,0 +1,537 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+    * This program reads and summarizes a Census file once, then keeps the
+    * totals in memory and answers queries on them over HTTP, on the local
+    * machine only, until it is stopped. Repeated questions about the same
+    * input are then answered without starting a JVM or reading the file
+    * again.
+    *
+    * Queries (GET only):
+    *   /report                        the whole report, as
+    *                                  CensusDataOutputReport prints it
+    *   /states                        every state and the nation
+    *   /states/NN                     one state, e.g. /states/06
+    *   /states/NN/percentiles?p=Q,..  district child poverty rate quantiles
+    *                                  of one state (default: median, 90th
+    *                                  and 99th percentile)
+    *   /districts/SS-LLLLL            one district, e.g. /districts/36-12510
+    *
+    * Answers are JSON, or the report's text for /report and with
+    * ?format=text for a single state or district. The report text is
+    * formatted once, when the server starts.
+    *
+    * Requests run on virtual threads where the JDK has them (21 and
+    * later), otherwise on a pool of one thread per processor. The totals,
+    * quantile sketches included, are never changed once loaded (a sketch
+    * sorts copies of its levels to answer), so any number of requests read
+    * and query them at once.
+    *
+    * @version 1.0.0.0
+*/
+public class CensusServer
+{
+    //Port listened on unless --port is given
+    public static final int DEFAULT_PORT = 8642;
+
+    //Below 2 constants are the content types of the answers
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final String TEXT = "text/plain; charset=utf-8";
+
+    //Quantiles answered when none are asked for
+    private static final double[] DEFAULT_QUANTILES =
+        {StateQuantiles.MEDIAN, StateQuantiles.P90, StateQuantiles.P99};
+
+    private final CensusAggregates census; //Totals queried
+    private final byte[] reportText; //Whole report, formatted once
+    private HttpServer server; //Listening server, once started
+    private ExecutorService executor; //Runs the requests
+
+    /**
+        * This method is called as the startup location for the program.
+        * It expects one command line argument:
+        * 1. An input file from which to read census data
+        *
+        * --port=N chooses the port (default 8642). The switches of
+        * CensusAnalyzer that change what is summarized (see AnalyzerOptions)
+        * are accepted; district totals and quantile sketches are always
+        * kept, since they are queried.
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * postcondition Queries are answered until the program is stopped
+    */
+    public static void main(String[] args)
+    {
+        int port = DEFAULT_PORT; //Port to listen on
+        AnalyzerOptions options; //Parsed command line
+
+        //Take the port out, and always keep what the queries need
+        List<String> rest = new ArrayList<>();
+        try
+        {
+            for (String arg : args)
+            {
+                if (arg.startsWith("--port="))
+                {
+                    port = parsePort(arg);
+                }
+                else
+                {
+                    rest.add(arg);
+                }
+            }
+            rest.add("--districts");
+            rest.add("--quantiles");
+            options = AnalyzerOptions.parse(rest.toArray(new String[0]));
+            if (options.getTopK() > 0 || options.getCompareFile() != null ||
+                options.getSampleSize() > 0 || options.getCheckpointFile() != null)
+            {
+                throw new IllegalArgumentException(
+                    "Options --top, --compare, --sample and --checkpoint need CensusAnalyzer");
+            }
+        }
+        catch (IllegalArgumentException ex) //Unknown or unsupported switch
+        {
+            System.out.println("\n" + ex.getMessage() + ". Exiting application.....");
+            return; //Exit app
+        }
+
+        if (options.getPositionalCount() == 0) //No command line arguments
+        {
+            System.out.println("\nNo input file specified. " +
+                "Exiting application......");
+            return; //Exit app
+        }
+
+        //If file doesn't exist, or it points to a directory, quit.
+        File temp = new File(options.getInputFile());
+        if (!temp.exists() || !temp.isFile())
+        {
+            System.out.println("\nThe input file does not exist. " +
+                "Exiting application.....");
+            return;  //Exit on error
+        }
+
+        try
+        {
+            CensusAggregates census = CensusAnalyzer.readCensusData(options.getInputFile(),
+                Integer.MAX_VALUE, options);
+            CensusServer server = new CensusServer(census, options.isRollup());
+            server.start(port);
+            System.out.println("\nServing " + temp.getAbsolutePath() +
+                " on http://localhost:" + server.getPort() + "/");
+        }
+        catch (Exception ex) //Catch all errors and report exception
+        {
+            System.out.println("There was an error starting the server: \n" + ex.getMessage());
+        }
+    }
+
+    /**
+        * Constructor, formatting the report of the totals.
+        *
+        * precondition The totals are complete, and not changed afterwards
+        *
+        * @param census CensusAggregates holding the totals, with districts
+        * and quantiles
+        * @param rollup boolean true to report all geographic levels
+    */
+    public CensusServer(CensusAggregates census, boolean rollup) throws IOException
+    {
+        this.census = census;
+        reportText = CensusDataOutputReport.renderAggregates(census, rollup);
+    }
+
+    /**
+        * Starts answering queries on the loopback address.
+        *
+        * @param port integer port to listen on, 0 for any free port
+    */
+    public void start(int port) throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", this::handle);
+        executor = newExecutor();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+        * Method to return the port listened on.
+        *
+        * @return port integer
+    */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+        * Stops answering queries, at once.
+    */
+    public void stop()
+    {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+        * Helper method to answer one request.
+        *
+        * @param exchange HttpExchange of the request
+    */
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            Answer answer;
+            if (!"GET".equals(exchange.getRequestMethod()))
+            {
+                answer = error(405, "Only GET is supported");
+            }
+            else
+            {
+                answer = answer(exchange.getRequestURI().getPath(),
+                                parseQuery(exchange.getRequestURI().getRawQuery()));
+            }
+            exchange.getResponseHeaders().set("Content-Type", answer.type);
+            exchange.sendResponseHeaders(answer.status, answer.body.length);
+            exchange.getResponseBody().write(answer.body);
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+        * Helper method to answer a query by its path.
+        *
+        * @param path String path of the request
+        * @param query Map of the query parameters
+        * @return the Answer
+    */
+    private Answer answer(String path, Map<String, String> query) throws IOException
+    {
+        String[] parts = path.split("/"); //parts[0] is empty
+        boolean text = "text".equals(query.get("format"));
+        StateAggregator states = census.getStates();
+
+        if (path.equals("/report"))
+        {
+            return new Answer(200, TEXT, reportText);
+        }
+        if (path.equals("/states"))
+        {
+            StringBuilder json = new StringBuilder("{\"states\":[");
+            for (int i = 0; i < states.getStateCount(); i++)
+            {
+                int code = states.getStateCode(i);
+                appendRow(json.append(i > 0 ? "," : ""), "state", code, states.getTotalPopulation(code),
+                    states.getChildPopulation(code), states.getChildPovertyPopulation(code));
+            }
+            appendRow(json.append("],\"nation\":"), null, 0, states.getNationTotalPopulation(),
+                states.getNationChildPopulation(), states.getNationChildPovertyPopulation());
+            return json(json.append('}'));
+        }
+        if (parts.length >= 3 && parts[1].equals("states"))
+        {
+            int code = parseCode(parts[2], 100);
+            if (code < 0 || !states.contains(code))
+            {
+                return error(404, "State " + parts[2] + " not found");
+            }
+            if (parts.length == 4 && parts[3].equals("percentiles"))
+            {
+                return percentiles(code, query.get("p"));
+            }
+            if (parts.length == 3)
+            {
+                return row(text, CensusDataFile.LEVEL_STATE, "state", code,
+                    states.getTotalPopulation(code), states.getChildPopulation(code),
+                    states.getChildPovertyPopulation(code));
+            }
+        }
+        if (parts.length == 3 && parts[1].equals("districts"))
+        {
+            String[] key = parts[2].split("-");
+            int state = (key.length == 2) ? parseCode(key[0], 100) : -1;
+            int lea = (key.length == 2) ? parseCode(key[1], 100000) : -1;
+            DistrictAggregator districts = census.getDistricts();
+            int slot = (state < 0 || lea < 0 || districts == null) ? -1 :
+                districts.find(DistrictAggregator.key(state, lea));
+            if (slot < 0)
+            {
+                return error(404, "District " + parts[2] + " not found");
+            }
+            return row(text, CensusDataFile.LEVEL_DISTRICT, "district",
+                (int)DistrictAggregator.key(state, lea), districts.getTotalPopulation(slot),
+                districts.getChildPopulation(slot), districts.getChildPovertyPopulation(slot));
+        }
+        return error(404, "No such query: " + path);
+    }
+
+    /**
+        * Helper method to answer with one row, as JSON or report text.
+        *
+        * @param text boolean true for report text
+        * @param level integer CensusDataFile LEVEL constant of the row
+        * @param name String JSON name of the level
+        * @param code integer code of the row within its level
+        * @param totalPop long total population
+        * @param childPop long child population
+        * @param childPovPop long child poverty population
+        * @return the Answer
+    */
+    private Answer row(boolean text, int level, String name, int code, long totalPop,
+                       long childPop, long childPovPop) throws IOException
+    {
+        if (text)
+        {
+            return new Answer(200, TEXT, CensusDataOutputReport.renderRow(level, code,
+                totalPop, childPop, childPovPop));
+        }
+        return json(appendRow(new StringBuilder(), name, code, totalPop, childPop, childPovPop));
+    }
+
+    /**
+        * Helper method to answer with district child poverty rate quantiles
+        * of a state.
+        *
+        * @param code integer state code
+        * @param wanted String comma separated quantiles between 0 and 1, or
+        * null for the defaults
+        * @return the Answer
+    */
+    private Answer percentiles(int code, String wanted)
+    {
+        QuantileSketch sketch = (census.getQuantiles() == null) ? null :
+            census.getQuantiles().getSketch(code);
+        if (sketch == null)
+        {
+            return error(404, "State " + code + " has no district rates");
+        }
+
+        //Below loop reads the quantiles asked for
+        double[] quantiles = DEFAULT_QUANTILES;
+        if (wanted != null)
+        {
+            String[] values = wanted.split(",");
+            quantiles = new double[values.length];
+            for (int i = 0; i < values.length; i++)
+            {
+                try
+                {
+                    quantiles[i] = Double.parseDouble(values[i]);
+                }
+                catch (NumberFormatException ex) //Fall through to the check below
+                {
+                    quantiles[i] = Double.NaN;
+                }
+                if (!(quantiles[i] >= 0 && quantiles[i] <= 1))
+                {
+                    return error(400, "Invalid quantile: " + values[i]);
+                }
+            }
+        }
+
+        StringBuilder json = new StringBuilder("{\"state\":").append(code);
+        //Queries leave the sketch as it is, so any number may run at once
+        json.append(",\"districts\":").append(sketch.getCount()).append(",\"percentiles\":[");
+        for (int i = 0; i < quantiles.length; i++)
+        {
+            json.append(i > 0 ? "," : "").append("{\"p\":").append(quantiles[i])
+                .append(",\"childPovertyPercentage\":");
+            appendNumber(json, sketch.quantile(quantiles[i])).append('}');
+        }
+        return json(json.append("]}"));
+    }
+
+    /**
+        * Helper method to append one row as a JSON object.
+        *
+        * @param json StringBuilder to append to
+        * @param name String JSON name of the level, or null for the nation
+        * @param code integer code of the row within its level
+        * @param totalPop long total population
+        * @param childPop long child population
+        * @param childPovPop long child poverty population
+        * @return json
+    */
+    private static StringBuilder appendRow(StringBuilder json, String name, int code, long totalPop,
+                                           long childPop, long childPovPop)
+    {
+        json.append('{');
+        if ("district".equals(name))
+        {
+            json.append("\"state\":").append(DistrictAggregator.stateOf(code))
+                .append(",\"lea\":").append(DistrictAggregator.leaOf(code)).append(',');
+        }
+        else if (name != null)
+        {
+            json.append("\"state\":").append(code).append(',');
+        }
+        json.append("\"totalPopulation\":").append(totalPop)
+            .append(",\"childPopulation\":").append(childPop)
+            .append(",\"childPovertyPopulation\":").append(childPovPop)
+            .append(",\"childPovertyPercentage\":");
+        return appendNumber(json, CensusDataFile.percentage(childPovPop, childPop)).append('}');
+    }
+
+    /**
+        * Helper method to append a number to JSON, as null if it is not a
+        * number, which JSON cannot express.
+    */
+    private static StringBuilder appendNumber(StringBuilder json, double value)
+    {
+        return Double.isFinite(value) ? json.append(value) : json.append("null");
+    }
+
+    /**
+        * Helper method to return an Answer holding JSON.
+    */
+    private static Answer json(StringBuilder json)
+    {
+        return new Answer(200, JSON, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+        * Helper method to return an Answer holding an error, as JSON.
+    */
+    private static Answer error(int status, String message)
+    {
+        StringBuilder json = new StringBuilder("{\"error\":\"");
+        for (int i = 0; i < message.length(); i++)
+        {
+            //Below escapes what a JSON string cannot hold as it is; the
+            //message may echo a decoded query path
+            char c = message.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                json.append('\\').append(c);
+            }
+            else if (c == '\n')
+            {
+                json.append("\\n");
+            }
+            else if (c == '\r')
+            {
+                json.append("\\r");
+            }
+            else if (c == '\t')
+            {
+                json.append("\\t");
+            }
+            else if (c < 0x20)
+            {
+                json.append(String.format("\\u%04x", (int)c));
+            }
+            else
+            {
+                json.append(c);
+            }
+        }
+        json.append("\"}");
+        return new Answer(status, JSON, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+        * Helper method to read a code of a query path, returning -1 unless
+        * it is a number from 0 to one less than the limit.
+    */
+    private static int parseCode(String code, int limit)
+    {
+        try
+        {
+            int value = Integer.parseInt(code);
+            return (value >= 0 && value < limit) ? value : -1;
+        }
+        catch (NumberFormatException ex) //Not a number
+        {
+            return -1;
+        }
+    }
+
+    /**
+        * Helper method to split a raw query string into its parameters.
+    */
+    private static Map<String, String> parseQuery(String query)
+    {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null)
+        {
+            for (String pair : query.split("&"))
+            {
+                int equals = pair.indexOf('=');
+                if (equals > 0)
+                {
+                    parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                                   URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    /**
+        * Helper method to read the value of the --port switch.
+    */
+    private static int parsePort(String arg)
+    {
+        int port = parseCode(arg.substring("--port=".length()), 65536);
+        if (port < 0)
+        {
+            throw new IllegalArgumentException("Invalid value in option: " + arg);
+        }
+        return port;
+    }
+
+    /**
+        * Helper method to create the executor running the requests: one
+        * virtual thread per request where the JDK has them, found by
+        * reflection so this still builds on older JDKs, and otherwise a
+        * pool of one thread per processor.
+    */
+    private static ExecutorService newExecutor()
+    {
+        try
+        {
+            return (ExecutorService)Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException ex) //Before JDK 21
+        {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+        * Status, content type and body of the answer to a request.
+    */
+    private static class Answer
+    {
+        private final int status; //HTTP status code
+        private final String type; //Content type
+        private final byte[] body; //Content
+
+        Answer(int status, String type, byte[] body)
+        {
+            this.status = status;
+            this.type = type;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,556 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+    * This program watches a landing directory for Census files and keeps
+    * one combined output file up to date with all of them, so nobody has
+    * to run CensusAnalyzer by hand for each new drop. Every file is
+    * summarized on its own, and the combined output is the merge of those
+    * summaries; each file is expected to hold different lines, such as one
+    * state per drop.
+    *
+    * - New and changed files are noticed through a WatchService
+    * - A file is only read once it has had no events for a quiet period,
+    *   so a file still being copied in is not read half written
+    * - Files are summarized on a pool of worker threads, so a burst of
+    *   drops is read in parallel
+    * - A file whose size and modification time are those it was read at is
+    *   not read again, nor is one whose content hashes (CRC32C) the same;
+    *   the summaries of unchanged files are kept in memory
+    * - The combined output is written to a temporary file next to it and
+    *   then moved over it in one step, so readers see the old or the new
+    *   file, never a partly written one. Files that change while it is
+    *   written are picked up by the next write
+    *
+    * @version 1.0.0.0
+*/
+public class CensusWatcher implements Closeable
+{
+    //Quiet period, in milliseconds, unless --quiet is given
+    public static final long DEFAULT_QUIET = 2000;
+
+    //Names of the files watched, unless --pattern is given
+    public static final String DEFAULT_PATTERN = "*.txt";
+
+    private final Path directory; //Landing directory watched
+    private final String outputFile; //Combined output file path
+    private final AnalyzerOptions options; //How each file is summarized and written
+    private final long quietMillis; //Quiet period before a file is read
+    private final PathMatcher matcher; //Names of the files watched
+    private final ExecutorService workers; //Summarize files
+    private final ScheduledExecutorService timer; //Runs the quiet periods out
+    private final Map<Path, ScheduledFuture<?>> pending = new ConcurrentHashMap<>(); //Waiting files
+    private final Map<Path, FileSummary> summaries = new ConcurrentHashMap<>(); //Per file
+    private final Map<Path, Object> updating = new ConcurrentHashMap<>(); //Lock per file
+    private final AtomicBoolean dirty = new AtomicBoolean(true); //Output behind the summaries
+    private final AtomicLong filesRead = new AtomicLong(); //Files summarized so far
+    private final AtomicLong outputsWritten = new AtomicLong(); //Combined outputs written
+
+    /**
+        * This method is called as the startup location for the program.
+        * It expects two command line arguments:
+        * 1. The landing directory to watch
+        * 2. An output file path, to which the combined data is written
+        *
+        * Optional switches, besides those of CensusAnalyzer that change
+        * what is summarized or written (see AnalyzerOptions):
+        *   --quiet=MS       quiet period before a file is read (default 2000)
+        *   --workers=N      files summarized at once (default: one per processor)
+        *   --pattern=GLOB   names of the files watched (default *.txt)
+        *
+        * precondition The directory exists and can be accessed
+        *
+        * postcondition The output file holds the combined totals of all
+        * watched files, until the program is stopped
+    */
+    public static void main(String[] args)
+    {
+        long quiet = DEFAULT_QUIET; //Quiet period
+        int threads = Runtime.getRuntime().availableProcessors(); //Workers
+        String pattern = DEFAULT_PATTERN; //Names watched
+        AnalyzerOptions options; //Parsed command line
+
+        //Take the watcher's own switches out before the analyzer's
+        List<String> rest = new ArrayList<>();
+        try
+        {
+            for (String arg : args)
+            {
+                if (arg.startsWith("--quiet="))
+                {
+                    quiet = parseCount(arg, "--quiet=".length());
+                }
+                else if (arg.startsWith("--workers="))
+                {
+                    threads = Math.max(1, (int)Math.min(parseCount(arg, "--workers=".length()), 1024));
+                }
+                else if (arg.startsWith("--pattern="))
+                {
+                    pattern = arg.substring("--pattern=".length());
+                }
+                else
+                {
+                    rest.add(arg);
+                }
+            }
+            options = AnalyzerOptions.parse(rest.toArray(new String[0]));
+            checkOptions(options);
+        }
+        catch (IllegalArgumentException ex) //Unknown or unsupported switch
+        {
+            System.out.println("\n" + ex.getMessage() + ". Exiting application.....");
+            return; //Exit app
+        }
+
+        if (options.getPositionalCount() < 2) //Directory or output missing
+        {
+            System.out.println("\nNo directory or output file specified. " +
+                "Exiting application.....");
+            return; //Exit app
+        }
+        if (!new File(options.getInputFile()).isDirectory())
+        {
+            System.out.println("\nThe directory does not exist. " +
+                "Exiting application.....");
+            return;  //Exit on error
+        }
+
+        try (CensusWatcher watcher = new CensusWatcher(Paths.get(options.getInputFile()),
+                options.getOutputFile(), options, quiet, threads, pattern))
+        {
+            watcher.watch();
+        }
+        catch (InterruptedException ex) //Stopped
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception ex) //Catch all exceptions and print exception
+        {
+            System.out.println(ex);
+        }
+    }
+
+    /**
+        * Constructor, starting the worker threads.
+        *
+        * @param directory Path of the landing directory
+        * @param outputFile String detailing the combined output file path
+        * @param options AnalyzerOptions selecting what is summarized and written
+        * @param quietMillis long quiet period, in milliseconds, before a
+        * file is read
+        * @param threads integer files summarized at once
+        * @param pattern String glob of the file names watched
+    */
+    public CensusWatcher(Path directory, String outputFile, AnalyzerOptions options,
+                         long quietMillis, int threads, String pattern)
+    {
+        checkOptions(options);
+        this.directory = directory;
+        this.outputFile = outputFile;
+        this.options = options;
+        this.quietMillis = quietMillis;
+        this.matcher = directory.getFileSystem().getPathMatcher("glob:" + pattern);
+        this.workers = Executors.newFixedThreadPool(threads);
+        this.timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+        * Summarizes every watched file already in the directory, then
+        * watches it, keeping the output up to date, until interrupted.
+    */
+    public void watch() throws IOException, InterruptedException
+    {
+        try (WatchService service = directory.getFileSystem().newWatchService())
+        {
+            //Registered first, so nothing dropped during the first pass is missed
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            refresh();
+            System.out.println("\nWatching " + directory.toAbsolutePath() + " for " +
+                outputFile);
+
+            while (true)
+            {
+                WatchKey key = service.take();
+                for (WatchEvent<?> event : key.pollEvents())
+                {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                    {
+                        //Events were lost; look at every file again
+                        for (Path file : listFiles())
+                        {
+                            schedule(file);
+                        }
+                        continue;
+                    }
+                    Path file = directory.resolve((Path)event.context());
+                    if (isWatched(file))
+                    {
+                        schedule(file);
+                    }
+                }
+                if (!key.reset())
+                {
+                    throw new IOException(directory + " can no longer be watched");
+                }
+            }
+        }
+    }
+
+    /**
+        * Brings every watched file, and the output, up to date at once,
+        * without waiting for quiet periods. Files are summarized in
+        * parallel and the output is written once.
+    */
+    public void refresh() throws IOException, InterruptedException
+    {
+        List<Callable<Boolean>> updates = new ArrayList<>();
+        for (Path file : listFiles())
+        {
+            updates.add(() -> update(file));
+        }
+        workers.invokeAll(updates);
+        writeIfDirty();
+    }
+
+    /**
+        * Method to return how many times a file has been summarized.
+        *
+        * @return files read long
+    */
+    public long getFilesRead()
+    {
+        return filesRead.get();
+    }
+
+    /**
+        * Method to return how many times the combined output has been written.
+        *
+        * @return outputs written long
+    */
+    public long getOutputsWritten()
+    {
+        return outputsWritten.get();
+    }
+
+    /**
+        * Stops the worker threads; a file being summarized is finished.
+    */
+    @Override
+    public void close()
+    {
+        timer.shutdownNow();
+        workers.shutdown();
+    }
+
+    /**
+        * Helper method to turn down the switches that cannot apply to a
+        * merge of separate files: a ranking or rejects point at lines of
+        * one file, and a checkpoint, comparison or cache entry follows one
+        * file.
+        *
+        * @param options AnalyzerOptions parsed from the command line
+    */
+    static void checkOptions(AnalyzerOptions options)
+    {
+        if (options.getTopK() > 0 || options.getCompareFile() != null ||
+            options.getSampleSize() > 0 || options.getCheckpointFile() != null ||
+            options.isDeferredValidation() || options.getCacheDirectory() != null)
+        {
+            throw new IllegalArgumentException("Options --top, --compare, --sample, " +
+                "--checkpoint, --cache and --validate=deferred need CensusAnalyzer");
+        }
+    }
+
+    /**
+        * Helper method to (re)start the quiet period of a file; it is read
+        * once no event has come for it for that long.
+        *
+        * @param file Path of the file
+    */
+    private void schedule(Path file)
+    {
+        pending.compute(file, (path, waiting) ->
+        {
+            if (waiting != null)
+            {
+                waiting.cancel(false);
+            }
+            return timer.schedule(() ->
+            {
+                pending.remove(path);
+                workers.execute(() -> updateAndWrite(path));
+            }, quietMillis, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+        * Helper method, run on a worker, to bring one file and then the
+        * output up to date.
+        *
+        * @param file Path of the file
+    */
+    private void updateAndWrite(Path file)
+    {
+        try
+        {
+            if (update(file))
+            {
+                writeIfDirty();
+            }
+        }
+        catch (IOException ex) //The output could not be written
+        {
+            System.out.println(ex);
+        }
+    }
+
+    /**
+        * Helper method to summarize a file again if it changed, or forget it
+        * if it is gone.
+        *
+        * @param file Path of the file
+        * @return true if the summaries changed
+    */
+    private boolean update(Path file)
+    {
+        //An event arriving while the file is being read starts another
+        //update; it waits for this one, so an older read can never put its
+        //summary over a newer one
+        synchronized (updating.computeIfAbsent(file, path -> new Object()))
+        {
+            return updateFile(file);
+        }
+    }
+
+    /**
+        * Helper method for update(), run while holding the file's lock.
+    */
+    private boolean updateFile(Path file)
+    {
+        if (!Files.isRegularFile(file))
+        {
+            if (summaries.remove(file) == null)
+            {
+                return false; //never summarized
+            }
+            dirty.set(true);
+            return true;
+        }
+
+        //Size and time are taken first, so a change made while reading is
+        //seen as a change next time
+        long size;
+        long modified;
+        try
+        {
+            size = Files.size(file);
+            modified = Files.getLastModifiedTime(file).toMillis();
+        }
+        catch (IOException ex) //Removed meanwhile; its delete event follows
+        {
+            return false;
+        }
+        FileSummary known = summaries.get(file);
+        if (known != null && known.size == size && known.modified == modified)
+        {
+            return false; //unchanged
+        }
+
+        //A file that cannot be summarized is left out until it changes again
+        CensusAggregates census = null;
+        long hash = -1; //CRC32C of the content, -1 if it could not be read
+        try
+        {
+            //Hashing is far cheaper than summarizing, so a file that was
+            //only touched, or copied in again, is not summarized again
+            CRC32C crc = new CRC32C();
+            CensusCheckpoint.hash(file.toString(), 0, size, crc);
+            hash = crc.getValue();
+            if (known != null && known.size == size && known.hash == hash)
+            {
+                summaries.put(file, new FileSummary(size, modified, hash, known.census));
+                return false;
+            }
+            census = CensusAnalyzer.readCensusData(file.toString(), Integer.MAX_VALUE, options);
+            System.out.println("Read " + file.getFileName() + ": " + census.getLineCount() +
+                " line(s)");
+        }
+        catch (Exception ex) //Catch all errors and report exception
+        {
+            System.out.println("Left out " + file.getFileName() + ": " + ex.getMessage());
+        }
+        filesRead.incrementAndGet();
+        summaries.put(file, new FileSummary(size, modified, hash, census));
+        dirty.set(true);
+        return true;
+    }
+
+    /**
+        * Helper method to write the combined output, unless it already holds
+        * every summary. Writes happen one at a time; a worker whose summary
+        * was taken in by a write already under way, or just finished, has
+        * nothing left to write. If the write fails the output is still
+        * behind, so the next update tries again.
+    */
+    private synchronized void writeIfDirty() throws IOException
+    {
+        if (!dirty.getAndSet(false))
+        {
+            return;
+        }
+
+        //Merge in file name order, so states come out in the same order
+        //whichever file was read first
+        CensusAggregates combined = new CensusAggregates(options);
+        int files = 0; //files merged
+        for (FileSummary summary : new TreeMap<>(summaries).values())
+        {
+            if (summary.census != null)
+            {
+                combined.merge(summary.census);
+                files++;
+            }
+        }
+
+        try
+        {
+            writeAtomically(outputFile, temp -> CensusAnalyzer.writeDataToFile(temp, combined,
+                options.getFormat(), options.isRollup(), options.isPercentageColumn()));
+            if (combined.getDistricts() != null && !options.isRollup())
+            {
+                writeAtomically(CensusAnalyzer.districtFileName(outputFile), temp ->
+                    CensusAnalyzer.writeDistrictFile(temp, combined.getDistricts(),
+                        options.getFormat(), options.isPercentageColumn()));
+            }
+        }
+        catch (IOException | RuntimeException ex) //Output still behind
+        {
+            dirty.set(true);
+            throw ex;
+        }
+        outputsWritten.incrementAndGet();
+        System.out.println("Wrote " + outputFile + " from " + files + " file(s)");
+    }
+
+    /**
+        * Helper method to write a file under a temporary name next to it and
+        * then move it into place in one step, replacing the old one.
+        *
+        * @param fileName String detailing the file path
+        * @param writer OutputWriter writing the file under the name it is given
+    */
+    private static void writeAtomically(String fileName, OutputWriter writer) throws IOException
+    {
+        String temp = fileName + ".tmp"; //same directory, so the move is a rename
+        writer.write(temp);
+        try
+        {
+            Files.move(Paths.get(temp), Paths.get(fileName),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException ex) //Best effort instead
+        {
+            Files.move(Paths.get(temp), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+        * Helper method to list the watched files in the directory, and the
+        * known ones that may have gone.
+        *
+        * @return List of file paths
+    */
+    private List<Path> listFiles() throws IOException
+    {
+        List<Path> files = new ArrayList<>(summaries.keySet());
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+        {
+            for (Path file : stream)
+            {
+                if (isWatched(file) && !summaries.containsKey(file))
+                {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+        * Helper method to return whether a file is one to summarize: its
+        * name matches the pattern and it is not hidden, as files are while
+        * some tools copy them in, nor one this watcher writes.
+        *
+        * @param file Path of the file
+        * @return true if the file is watched
+    */
+    private boolean isWatched(Path file)
+    {
+        Path name = file.getFileName();
+        if (name == null || name.toString().startsWith(".") || !matcher.matches(name))
+        {
+            return false;
+        }
+        Path output = Paths.get(outputFile).toAbsolutePath();
+        Path absolute = file.toAbsolutePath();
+        return !absolute.equals(output) &&
+               !absolute.equals(Paths.get(CensusAnalyzer.districtFileName(outputFile)).toAbsolutePath()) &&
+               !absolute.toString().endsWith(".tmp");
+    }
+
+    /**
+        * Helper method to read the value of a switch as a count.
+    */
+    private static long parseCount(String arg, int offset)
+    {
+        try
+        {
+            long value = Long.parseLong(arg.substring(offset));
+            if (value >= 0)
+            {
+                return value;
+            }
+        }
+        catch (NumberFormatException ex) //Fall through to the error below
+        {
+        }
+        throw new IllegalArgumentException("Invalid value in option: " + arg);
+    }
+
+    /**
+        * Writes an output file under the name it is given.
+    */
+    private interface OutputWriter
+    {
+        void write(String fileName) throws IOException;
+    }
+
+    /**
+        * Size, modification time and content hash of a file when it was
+        * read, and its summaries, or null if it could not be summarized.
+    */
+    private static class FileSummary
+    {
+        private final long size; //Bytes
+        private final long modified; //Modification time, in milliseconds
+        private final long hash; //CRC32C of the content, -1 if unknown
+        private final CensusAggregates census; //Summaries, or null
+
+        FileSummary(long size, long modified, long hash, CensusAggregates census)
+        {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.census = census;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+    * This class summarizes Census lines by school district. A district is
+    * identified by its state code together with its 5 digit LEA code,
+    * packed into a single long key (see key()).
+    *
+    * The totals live in an open-addressing hash table made of parallel
+    * primitive arrays: one array of keys and one array per population
+    * count. Collisions are resolved by linear probing, and the table
+    * doubles in size once it is half full. Nothing is boxed, so millions
+    * of districts cost only a few dozen bytes each.
+    *
+    * @version 1.0.0.0
+*/
+public class DistrictAggregator implements CensusRecordHandler
+{
+    //Marks an unused slot; no real key is negative
+    private static final long EMPTY = -1L;
+
+    //Multiplier used to spread keys over the table (64-bit golden ratio)
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    //Initial number of slots; always a power of two
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] keys; //District key per slot, EMPTY if unused
+    private long[] totalPopulation; //Total pop per slot
+    private long[] childPopulation; //Child pop per slot
+    private long[] childPovertyPopulation; //Child poverty pop per slot
+    private int shift; //64 minus log2 of the table size
+    private int size; //Number of districts held
+
+    /**
+        * Default constructor, creating an empty table.
+    */
+    public DistrictAggregator()
+    {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+        * Packs a state code and an LEA code into a single district key.
+        * Keys sort by state first, then by LEA code.
+        *
+        * @param stateCode integer state code, 0 to 99
+        * @param leaCode integer LEA code, 0 to 99999
+        * @return the district key
+    */
+    public static long key(int stateCode, int leaCode)
+    {
+        return stateCode * 100000L + leaCode;
+    }
+
+    /**
+        * Returns the state code packed into a district key.
+        *
+        * @param key long district key
+        * @return stateCode integer
+    */
+    public static int stateOf(long key)
+    {
+        return (int)(key / 100000L);
+    }
+
+    /**
+        * Returns the LEA code packed into a district key.
+        *
+        * @param key long district key
+        * @return leaCode integer
+    */
+    public static int leaOf(long key)
+    {
+        return (int)(key % 100000L);
+    }
+
+    /**
+        * Adds a parsed line to the totals of its district.
+        *
+        * @param line CensusLineParser holding the decoded values of the line
+    */
+    public void record(CensusLineParser line)
+    {
+        add(key(line.getStateCode(), line.getLeaCode()), line.getTotalPopulation(),
+            line.getChildPopulation(), line.getChildPovertyPopulation());
+    }
+
+    /**
+        * Adds population values to the totals of a district, creating it if
+        * it has not been seen before.
+        *
+        * @param key long district key, as returned by key()
+        * @param totalPop long for total population incrementation
+        * @param childPop long for the child population incrementation
+        * @param childPovPop long for the child poverty population incrementation
+    */
+    public void add(long key, long totalPop, long childPop, long childPovPop)
+    {
+        if (key < 0)
+        {
+            throw new IllegalArgumentException("District key out of range: " + key);
+        }
+
+        int slot = slotOf(key); //where the key is, or where it belongs
+        if (keys[slot] == EMPTY)
+        {
+            //Grow before the table gets more than half full
+            if (size + 1 > keys.length >>> 1)
+            {
+                rehash(keys.length << 1);
+                slot = slotOf(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+
+        //Below three lines add the values to the district's running totals
+        totalPopulation[slot] = Math.addExact(totalPopulation[slot], totalPop);
+        childPopulation[slot] = Math.addExact(childPopulation[slot], childPop);
+        childPovertyPopulation[slot] = Math.addExact(childPovertyPopulation[slot], childPovPop);
+    }
+
+    /**
+        * Folds the totals of another aggregator into this one.
+        *
+        * @param other DistrictAggregator whose totals are added to this one
+    */
+    public void merge(DistrictAggregator other)
+    {
+        for (int slot = 0; slot < other.keys.length; slot++)
+        {
+            if (other.keys[slot] != EMPTY)
+            {
+                add(other.keys[slot], other.totalPopulation[slot],
+                    other.childPopulation[slot], other.childPovertyPopulation[slot]);
+            }
+        }
+    }
+
+    /**
+        * Method to return the number of districts held.
+        *
+        * @return size integer
+    */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+        * Method to return the number of slots in the table. Every slot
+        * returned by find() is below it, so it can size per-slot arrays.
+        *
+        * @return number of slots
+    */
+    public int getCapacity()
+    {
+        return keys.length;
+    }
+
+    /**
+        * Returns the slot holding a district, or -1 if it has not been seen.
+        * The slot is valid until the next district is added.
+        *
+        * @param key long district key
+        * @return slot index, or -1
+    */
+    public int find(long key)
+    {
+        if (key < 0)
+        {
+            return -1; //never stored
+        }
+        int slot = slotOf(key);
+        return keys[slot] == EMPTY ? -1 : slot;
+    }
+
+    /**
+        * Returns the keys of all districts held, in ascending order, so that
+        * output is sorted by state and then LEA code.
+        *
+        * @return sorted array of district keys
+    */
+    public long[] sortedKeys()
+    {
+        long[] sorted = new long[size];
+        int count = 0; //keys copied so far
+        for (long key : keys)
+        {
+            if (key != EMPTY)
+            {
+                sorted[count++] = key;
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+        * Method to return the total population held in a slot.
+        *
+        * @param slot integer slot, as returned by find()
+        * @return totalPopulation long
+    */
+    public long getTotalPopulation(int slot)
+    {
+        return totalPopulation[slot];
+    }
+
+    /**
+        * Method to return the child population held in a slot.
+        *
+        * @param slot integer slot, as returned by find()
+        * @return childPopulation long
+    */
+    public long getChildPopulation(int slot)
+    {
+        return childPopulation[slot];
+    }
+
+    /**
+        * Method to return the child poverty population held in a slot.
+        *
+        * @param slot integer slot, as returned by find()
+        * @return childPovertyPopulation long
+    */
+    public long getChildPovertyPopulation(int slot)
+    {
+        return childPovertyPopulation[slot];
+    }
+
+    /**
+        * Writes the totals to a stream, so that they can be restored with
+        * readFrom().
+        *
+        * @param dout DataOutputStream to write to
+    */
+    public void writeTo(DataOutputStream dout) throws IOException
+    {
+        dout.writeInt(size);
+        for (int slot = 0; slot < keys.length; slot++)
+        {
+            if (keys[slot] != EMPTY)
+            {
+                dout.writeLong(keys[slot]);
+                dout.writeLong(totalPopulation[slot]);
+                dout.writeLong(childPopulation[slot]);
+                dout.writeLong(childPovertyPopulation[slot]);
+            }
+        }
+    }
+
+    /**
+        * Adds totals previously written with writeTo() to this aggregator.
+        *
+        * @param din DataInputStream to read from
+    */
+    public void readFrom(DataInputStream din) throws IOException
+    {
+        int count = din.readInt(); //number of districts written
+        for (int i = 0; i < count; i++)
+        {
+            add(din.readLong(), din.readLong(), din.readLong(), din.readLong());
+        }
+    }
+
+    /**
+        * Finds the slot holding key, or the empty slot where it belongs, by
+        * linear probing from its hashed position.
+    */
+    private int slotOf(long key)
+    {
+        int mask = keys.length - 1;
+        int slot = (int)((key * HASH_MULTIPLIER) >>> shift);
+        while (keys[slot] != EMPTY && keys[slot] != key)
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+        * Creates empty arrays of the given capacity (a power of two).
+    */
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        totalPopulation = new long[capacity];
+        childPopulation = new long[capacity];
+        childPovertyPopulation = new long[capacity];
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /**
+        * Moves every district into a table of the given capacity.
+    */
+    private void rehash(int capacity)
+    {
+        long[] oldKeys = keys;
+        long[] oldTotal = totalPopulation;
+        long[] oldChild = childPopulation;
+        long[] oldPoverty = childPovertyPopulation;
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != EMPTY)
+            {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                totalPopulation[slot] = oldTotal[i];
+                childPopulation[slot] = oldChild[i];
+                childPovertyPopulation[slot] = oldPoverty[i];
+            }
+        }
+    }
+}
@@ -11,16 +11,16 @@
 */
 public class InvalidArgumentException extends Exception
 {
-    private int totalPopulation; //total population
-    private int resultingChildPop; //resulting child population
-    private int resultChildPovertyPop; //resulting child poverty population
+    private long totalPopulation; //total population
+    private long resultingChildPop; //resulting child population
+    private long resultChildPovertyPop; //resulting child poverty population
     
     /**
         * Exception constructor, taking the total population,
         * the resulting child population and the resulting child 
         * poverty population.
     */
-    public InvalidArgumentException(int pop, int childPop, int childPov)
+    public InvalidArgumentException(long pop, long childPop, long childPov)
     {
         //Set population values
         this.totalPopulation = pop;
@@ -0,0 +1,320 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+    * This class summarizes a fixed-width Census file on several threads.
+    * The file is split into byte ranges that start and end on line
+    * boundaries; each range is memory-mapped and scanned on a ForkJoinPool
+    * worker into its own handler (a partial summary), and the partials are
+    * merged back together in file order once all ranges are done.
+    *
+    * Because partials are merged in the same order the ranges appear in the
+    * file, anything that depends on the order lines were seen in (such as
+    * the order states are first encountered) comes out exactly as it would
+    * from a single threaded scan.
+    *
+    * @version 1.0.0.0
+*/
+public class ParallelCensusScanner
+{
+    //Smallest range worth handing to a separate worker; small files are
+    //not split into pieces that cost more to schedule than to scan
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+    //Largest range, kept well within the 2 GB limit of a single mapping
+    private static final long MAX_CHUNK_SIZE = 256L * 1024 * 1024;
+
+    //Ranges per worker thread, so uneven ranges still balance out
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+        * Scans the file on a pool of the given number of threads.
+        *
+        * Only the first numRecords lines are summarized, exactly as the
+        * sequential scan does: the byte offset just past line numRecords is
+        * located first (a newline count, no parsing), and only the bytes in
+        * front of it are split into ranges.
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * @param fileName String detailing the input file's location
+        * @param numRecords long limiting the number of records to read
+        * @param threads int number of worker threads
+        * @param factory Supplier creating an empty partial handler
+        * @param merger BiConsumer folding the second partial into the first
+        * @return the handler holding the merged summary of all ranges
+    */
+    public static <H extends CensusRecordHandler> H scan(String fileName,
+            long numRecords, int threads, Supplier<H> factory,
+            BiConsumer<H, H> merger)
+        throws FileNotFoundException, IOException, InvalidArgumentException
+    {
+        return scan(fileName, numRecords, threads, MIN_CHUNK_SIZE, factory, merger);
+    }
+
+    /**
+        * Variant allowing a smaller minimum range size, so that the range
+        * splitting can be exercised on small files.
+    */
+    static <H extends CensusRecordHandler> H scan(String fileName,
+            long numRecords, int threads, long minChunkSize,
+            Supplier<H> factory, BiConsumer<H, H> merger)
+        throws FileNotFoundException, IOException, InvalidArgumentException
+    {
+        //Only the bytes holding the first numRecords lines take part
+        long end = findLimitOffset(fileName, 0, numRecords);
+        return scanRange(fileName, 0, end, threads, minChunkSize, factory, merger);
+    }
+
+    /**
+        * Scans the lines between the offsets start and end on a pool of the
+        * given number of threads. Both offsets must be line boundaries (or
+        * the end of the file), as returned by findLimitOffset().
+        *
+        * precondition The input file exists and can be accessed
+        *
+        * @param fileName String detailing the input file's location
+        * @param start long offset of the first line to read
+        * @param end long offset one past the last line to read
+        * @param threads int number of worker threads
+        * @param factory Supplier creating an empty partial handler
+        * @param merger BiConsumer folding the second partial into the first
+        * @return the handler holding the merged summary of all ranges
+    */
+    public static <H extends CensusRecordHandler> H scanRange(String fileName,
+            long start, long end, int threads, Supplier<H> factory,
+            BiConsumer<H, H> merger)
+        throws FileNotFoundException, IOException, InvalidArgumentException
+    {
+        return scanRange(fileName, start, end, threads, MIN_CHUNK_SIZE, factory, merger);
+    }
+
+    /**
+        * Variant of scanRange() allowing a smaller minimum range size.
+    */
+    private static <H extends CensusRecordHandler> H scanRange(String fileName,
+            long start, long end, int threads, long minChunkSize,
+            Supplier<H> factory, BiConsumer<H, H> merger)
+        throws FileNotFoundException, IOException, InvalidArgumentException
+    {
+        //Use try-with-resources to leverage auto close
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.READ))
+        {
+            //Split into line aligned ranges, sized to keep every worker busy
+            long target = Math.max(minChunkSize,
+                Math.min(MAX_CHUNK_SIZE, (end - start) / ((long)threads * CHUNKS_PER_THREAD) + 1));
+            List<long[]> ranges = splitRanges(channel, start, end, target);
+
+            if (ranges.isEmpty())
+            {
+                return factory.get(); //nothing to read
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try
+            {
+                return pool.invoke(new RangeTask<H>(channel, ranges, 0,
+                                   ranges.size(), factory, merger));
+            }
+            catch (RuntimeException ex) //Worker failed; surface the real cause
+            {
+                for (Throwable cause = ex; cause != null; cause = cause.getCause())
+                {
+                    if (cause instanceof InvalidArgumentException)
+                    {
+                        throw (InvalidArgumentException)cause;
+                    }
+                    if (cause instanceof IOException)
+                    {
+                        throw (IOException)cause;
+                    }
+                    if (cause instanceof NumberFormatException)
+                    {
+                        throw (NumberFormatException)cause;
+                    }
+                }
+                throw ex;
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+        * Returns the byte offset just past the terminator of the numRecords-th
+        * line starting at offset start, or the file size if the file has no
+        * more lines than that. Only line terminators are counted; nothing is
+        * parsed.
+        *
+        * @param fileName String detailing the input file's location
+        * @param start long offset of the first line to count
+        * @param numRecords long number of lines wanted
+        * @return offset one past the last wanted byte
+    */
+    public static long findLimitOffset(String fileName, long start, long numRecords)
+        throws IOException
+    {
+        //Use try-with-resources to leverage auto close
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.READ))
+        {
+            long size = channel.size(); //total bytes in the file
+            if (numRecords == Integer.MAX_VALUE || numRecords == Long.MAX_VALUE)
+            {
+                return size; //no limit, whole file
+            }
+            if (numRecords <= 0)
+            {
+                return start; //no lines wanted
+            }
+
+            long lines = 0; //terminators seen so far
+            for (long position = start; position < size; position += MAX_CHUNK_SIZE)
+            {
+                int length = (int)Math.min(MAX_CHUNK_SIZE, size - position);
+                MappedByteBuffer segment = channel.map(
+                    FileChannel.MapMode.READ_ONLY, position, length);
+                for (int i = 0; i < length; i++)
+                {
+                    if (segment.get(i) == '\n' && ++lines == numRecords)
+                    {
+                        return position + i + 1;
+                    }
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+        * Splits [start, end) into ranges of roughly target bytes. Each range
+        * boundary is moved forward to just past the next line terminator, so
+        * no line is ever split between two ranges.
+        *
+        * @param channel FileChannel of the input file
+        * @param start long offset of the first byte to include
+        * @param end long offset one past the last byte to include
+        * @param target long preferred size of each range
+        * @return list of {start, end} pairs in file order
+    */
+    static List<long[]> splitRanges(FileChannel channel, long start, long end, 
+                                    long target)
+        throws IOException
+    {
+        List<long[]> ranges = new ArrayList<>();
+
+        while (start < end)
+        {
+            long boundary = start + target; //tentative end of this range
+            if (boundary >= end)
+            {
+                boundary = end;
+            }
+            else
+            {
+                //Advance to just past the next line terminator. A small
+                //window is mapped at a time since lines are short.
+                boundary = nextLineStart(channel, boundary - 1, end);
+            }
+            ranges.add(new long[] {start, boundary});
+            start = boundary;
+        }
+        return ranges;
+    }
+
+    /**
+        * Returns the offset just past the first line terminator at or after
+        * from, or end if there is none before end.
+    */
+    private static long nextLineStart(FileChannel channel, long from, long end)
+        throws IOException
+    {
+        final int window = 64 * 1024; //bytes mapped per probe
+        for (long position = from; position < end; position += window)
+        {
+            int length = (int)Math.min(window, end - position);
+            MappedByteBuffer probe = channel.map(
+                FileChannel.MapMode.READ_ONLY, position, length);
+            for (int i = 0; i < length; i++)
+            {
+                if (probe.get(i) == '\n')
+                {
+                    return position + i + 1;
+                }
+            }
+        }
+        return end;
+    }
+
+    /**
+        * Fork/join task scanning ranges [lo, hi) of the range list. A single
+        * range is scanned directly; more are split in half, scanned
+        * concurrently, and merged left then right so file order is kept.
+    */
+    private static class RangeTask<H extends CensusRecordHandler> extends RecursiveTask<H>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel; //Shared input channel
+        private final List<long[]> ranges; //All line aligned ranges
+        private final int lo; //First range index handled by this task
+        private final int hi; //One past the last range index
+        private final Supplier<H> factory; //Creates empty partials
+        private final BiConsumer<H, H> merger; //Folds one partial into another
+
+        RangeTask(FileChannel channel, List<long[]> ranges, int lo, int hi,
+                  Supplier<H> factory, BiConsumer<H, H> merger)
+        {
+            this.channel = channel;
+            this.ranges = ranges;
+            this.lo = lo;
+            this.hi = hi;
+            this.factory = factory;
+            this.merger = merger;
+        }
+
+        protected H compute()
+        {
+            if (hi - lo > 1)
+            {
+                //Split in half; scan the right half on another worker
+                int mid = (lo + hi) >>> 1;
+                RangeTask<H> right = new RangeTask<>(channel, ranges, mid, hi, factory, merger);
+                right.fork();
+                H left = new RangeTask<>(channel, ranges, lo, mid, factory, merger).compute();
+                merger.accept(left, right.join());
+                return left;
+            }
+
+            H partial = factory.get(); //this range's own summary
+            try
+            {
+                long[] range = ranges.get(lo);
+                int length = (int)(range[1] - range[0]);
+                MappedByteBuffer segment = channel.map(
+                    FileChannel.MapMode.READ_ONLY, range[0], length);
+
+                //Ranges end on line boundaries, so the whole range is complete
+                new CensusScanner(partial, Long.MAX_VALUE).scanRange(segment, length, range[0]);
+            }
+            catch (IOException | InvalidArgumentException ex)
+            {
+                throw new CompletionException(ex); //unwrapped by scan()
+            }
+            return partial;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+    * This class estimates quantiles (median, 90th percentile and so on) of
+    * a stream of values in a small, fixed amount of memory. It is a KLL
+    * sketch: values are collected in a stack of compactors, where an item
+    * on level h stands for 2^h of the original values. When a level fills
+    * up it is sorted and every other item is promoted to the level above,
+    * halving its size. Lower levels are given less room than higher ones,
+    * so the sketch holds only a few times K items however many values it
+    * has seen, and the rank of any value is off by about 1.7 / K of the
+    * count at most (roughly 1% for the default K).
+    *
+    * Two sketches are merged by concatenating their levels and compacting
+    * again, which gives the same error bound as a single sketch that saw
+    * every value, so partial sketches from parallel ranges or separate
+    * files can be combined freely.
+    *
+    * Compaction keeps the odd or even items of a level in turn rather than
+    * at random, so the same values in the same order always produce the
+    * same sketch.
+    *
+    * @version 1.0.0.0
+*/
+public class QuantileSketch
+{
+    //Default accuracy parameter; the size of the top compactor
+    public static final int DEFAULT_K = 200;
+
+    //Ratio between the sizes of neighbouring compactors
+    private static final double LEVEL_RATIO = 2.0 / 3.0;
+
+    private final int k; //Accuracy parameter
+    private double[][] levels = new double[1][]; //Items per compactor level
+    private int[] sizes = new int[1]; //Items held per level
+    private boolean[] keepOdd = new boolean[1]; //Next compaction parity per level
+    private int[] capacities = new int[1]; //Room given to each level
+    private int capacity; //Room of all levels together
+    private int retained; //Items held over all levels
+    private long count; //Values seen
+
+    /**
+        * Default constructor, creating a sketch with the default accuracy.
+    */
+    public QuantileSketch()
+    {
+        this(DEFAULT_K);
+    }
+
+    /**
+        * Constructor, taking the accuracy parameter K. Larger values give
+        * smaller errors at the cost of more memory.
+        *
+        * @param k integer accuracy parameter, at least 8
+    */
+    public QuantileSketch(int k)
+    {
+        if (k < 8)
+        {
+            throw new IllegalArgumentException("Quantile sketch needs K of at least 8: " + k);
+        }
+        this.k = k;
+        levels[0] = new double[k];
+        sizeLevels();
+    }
+
+    /**
+        * Adds a value to the sketch.
+        *
+        * @param value double value to add; NaN is ignored
+    */
+    public void add(double value)
+    {
+        if (Double.isNaN(value))
+        {
+            return; //has no rank
+        }
+        append(0, value);
+        count++;
+        if (retained > capacity)
+        {
+            compress();
+        }
+    }
+
+    /**
+        * Folds another sketch into this one.
+        *
+        * @param other QuantileSketch with the same K
+    */
+    public void merge(QuantileSketch other)
+    {
+        for (int h = 0; h < other.sizes.length; h++)
+        {
+            for (int i = 0; i < other.sizes[h]; i++)
+            {
+                append(h, other.levels[h][i]);
+            }
+        }
+        count += other.count;
+        compress();
+    }
+
+    /**
+        * Method to return how many values the sketch has seen.
+        *
+        * @return count long
+    */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+        * Returns the estimated value at quantile q: the smallest retained
+        * value with at least q of all values at or below it.
+        *
+        * precondition At least one value has been added
+        *
+        * @param q double quantile from 0 to 1, e.g. 0.5 for the median
+        * @return the estimated value, or NaN if the sketch is empty
+    */
+    public double quantile(double q)
+    {
+        if (count == 0)
+        {
+            return Double.NaN;
+        }
+
+        //Gather every item with its weight and sort by value. The levels
+        //are sorted as copies, so a query never changes the sketch and can
+        //run while it is being written out
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        int n = 0; //items gathered so far
+        double[][] sorted = new double[sizes.length][]; //sorted copy per level
+        for (int h = 0; h < sizes.length; h++)
+        {
+            //empty levels may have no array yet
+            sorted[h] = (sizes[h] > 0) ? Arrays.copyOf(levels[h], sizes[h]) : new double[0];
+            Arrays.sort(sorted[h]);
+        }
+        int[] next = new int[sizes.length]; //merge cursor per level
+        while (n < retained)
+        {
+            //Take the smallest head among the sorted levels
+            int best = -1;
+            for (int h = 0; h < sizes.length; h++)
+            {
+                if (next[h] < sizes[h] && (best < 0 || sorted[h][next[h]] < sorted[best][next[best]]))
+                {
+                    best = h;
+                }
+            }
+            values[n] = sorted[best][next[best]++];
+            weights[n++] = 1L << best;
+        }
+
+        //Walk the cumulative weight up to the wanted rank
+        double target = q * count;
+        long cumulative = 0;
+        for (int i = 0; i < n; i++)
+        {
+            cumulative += weights[i];
+            if (cumulative >= target)
+            {
+                return values[i];
+            }
+        }
+        return values[n - 1];
+    }
+
+    /**
+        * Writes the sketch to a stream, so that it can be restored with
+        * readFrom().
+        *
+        * @param dout DataOutputStream to write to
+    */
+    public void writeTo(DataOutputStream dout) throws IOException
+    {
+        dout.writeInt(k);
+        dout.writeLong(count);
+        dout.writeInt(sizes.length);
+        for (int h = 0; h < sizes.length; h++)
+        {
+            dout.writeInt(sizes[h]);
+            for (int i = 0; i < sizes[h]; i++)
+            {
+                dout.writeDouble(levels[h][i]);
+            }
+        }
+    }
+
+    /**
+        * Reads a sketch previously written with writeTo().
+        *
+        * @param din DataInputStream to read from
+        * @return the restored sketch
+    */
+    public static QuantileSketch readFrom(DataInputStream din) throws IOException
+    {
+        QuantileSketch sketch = new QuantileSketch(din.readInt());
+        long count = din.readLong();
+        int height = din.readInt(); //number of levels written
+        for (int h = 0; h < height; h++)
+        {
+            int size = din.readInt();
+            for (int i = 0; i < size; i++)
+            {
+                sketch.append(h, din.readDouble());
+            }
+        }
+        sketch.count = count;
+        sketch.compress();
+        return sketch;
+    }
+
+    /**
+        * Appends an item to a level, adding levels and room as needed.
+    */
+    private void append(int h, double value)
+    {
+        if (h >= sizes.length)
+        {
+            levels = Arrays.copyOf(levels, h + 1);
+            sizes = Arrays.copyOf(sizes, h + 1);
+            keepOdd = Arrays.copyOf(keepOdd, h + 1);
+            sizeLevels();
+        }
+        if (levels[h] == null)
+        {
+            levels[h] = new double[Math.max(8, capacities[h])];
+        }
+        else if (sizes[h] == levels[h].length)
+        {
+            levels[h] = Arrays.copyOf(levels[h], sizes[h] * 2);
+        }
+        levels[h][sizes[h]++] = value;
+        retained++;
+    }
+
+    /**
+        * Works out the room given to each level, and to all of them: K for
+        * the top level, shrinking by LEVEL_RATIO for each level below it,
+        * but never under 2. The room only changes when a level is added,
+        * so it is kept rather than worked out for every value.
+    */
+    private void sizeLevels()
+    {
+        capacities = new int[sizes.length];
+        capacity = 0;
+        for (int h = 0; h < sizes.length; h++)
+        {
+            int depth = sizes.length - 1 - h; //levels above this one
+            capacities[h] = Math.max(2, (int)Math.ceil(k * Math.pow(LEVEL_RATIO, depth)));
+            capacity += capacities[h];
+        }
+    }
+
+    /**
+        * Compacts the lowest overfull level, repeatedly, until the sketch
+        * fits its capacity again.
+    */
+    private void compress()
+    {
+        while (retained > capacity)
+        {
+            for (int h = 0; h < sizes.length; h++)
+            {
+                if (sizes[h] >= capacities[h])
+                {
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+        * Sorts level h and promotes every other item to level h + 1. With an
+        * odd number of items, the largest one stays behind on level h.
+    */
+    private void compact(int h)
+    {
+        double[] items = levels[h];
+        int size = sizes[h];
+        Arrays.sort(items, 0, size);
+
+        int pairs = size / 2; //items promoted
+        int offset = keepOdd[h] ? 1 : 0; //which item of each pair survives
+        keepOdd[h] = !keepOdd[h];
+
+        //Empty the level first; append() counts the promoted items again
+        retained -= size;
+        sizes[h] = 0;
+        for (int i = 0; i < pairs; i++)
+        {
+            append(h + 1, items[2 * i + offset]);
+        }
+        if (size % 2 == 1)
+        {
+            items[0] = items[size - 1];
+            sizes[h] = 1;
+            retained++;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+    * This class collects the lines rejected when validation is deferred
+    * (see CensusScanner). Each reject is kept as the byte offset of its line
+    * in the input file, the reasons it was rejected (a combination of the
+    * REASON flags) and its three population values, in growable primitive
+    * arrays.
+    *
+    * Line numbers are not tracked while scanning, since a range scanned on
+    * another thread, or resumed from a checkpoint, does not know how many
+    * lines come before it. They are worked out from the offsets when the
+    * reject report is written, by counting line terminators up to the last
+    * rejected line.
+    *
+    * @version 1.0.0.0
+*/
+public class RejectLog
+{
+    //Below 3 constants are the reasons a line can be rejected for
+    public static final int CHILD_EXCEEDS_TOTAL = 1;
+    public static final int POVERTY_EXCEEDS_CHILD = 2;
+    public static final int MALFORMED = 4;
+
+    //Initial number of rejects there is room for
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] offsets = new long[INITIAL_CAPACITY]; //Line offset per reject
+    private int[] reasons = new int[INITIAL_CAPACITY]; //REASON flags per reject
+    private int[] values = new int[3 * INITIAL_CAPACITY]; //Total, child, poverty per reject
+    private int size; //Number of rejects held
+
+    /**
+        * Records a rejected line.
+        *
+        * @param offset long byte offset of the line in the input file
+        * @param reason integer REASON flags
+        * @param totalPop integer total population of the line, if decoded
+        * @param childPop integer child population of the line, if decoded
+        * @param childPovPop integer child poverty population of the line, if decoded
+    */
+    public void add(long offset, int reason, int totalPop, int childPop, int childPovPop)
+    {
+        if (size == offsets.length) //full; double the room
+        {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            reasons = Arrays.copyOf(reasons, size * 2);
+            values = Arrays.copyOf(values, 3 * size * 2);
+        }
+
+        //Below five lines store the reject
+        offsets[size] = offset;
+        reasons[size] = reason;
+        values[3 * size] = totalPop;
+        values[3 * size + 1] = childPop;
+        values[3 * size + 2] = childPovPop;
+        size++;
+    }
+
+    /**
+        * Adds the rejects of another log to this one.
+        *
+        * @param other RejectLog to fold in
+    */
+    public void merge(RejectLog other)
+    {
+        for (int i = 0; i < other.size; i++)
+        {
+            add(other.offsets[i], other.reasons[i], other.values[3 * i],
+                other.values[3 * i + 1], other.values[3 * i + 2]);
+        }
+    }
+
+    /**
+        * Method to return the number of rejected lines.
+        *
+        * @return size integer
+    */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+        * Method to return the line offset of a reject.
+        *
+        * @param i integer index of the reject, 0 to size() - 1
+        * @return offset long
+    */
+    public long getOffset(int i)
+    {
+        return offsets[i];
+    }
+
+    /**
+        * Method to return the REASON flags of a reject.
+        *
+        * @param i integer index of the reject, 0 to size() - 1
+        * @return reason flags integer
+    */
+    public int getReason(int i)
+    {
+        return reasons[i];
+    }
+
+    /**
+        * Writes the reject report: one line per rejected input line, in file
+        * order, giving its line number, byte offset, values and reasons.
+        *
+        * precondition The input file is the one that was scanned
+        *
+        * @param fileName String detailing the report file path
+        * @param inputFile String detailing the scanned input file
+    */
+    public void writeReport(String fileName, String inputFile) throws IOException
+    {
+        //Sort the rejects into file order, by offset
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++)
+        {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(offsets[a], offsets[b]));
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++)
+        {
+            sorted[i] = offsets[order[i]];
+        }
+        long[] lineNumbers = lineNumbers(inputFile, sorted);
+
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(fileName))))
+        {
+            out.printf("%d rejected line(s) in %s%n", size, inputFile);
+            out.printf("%n%10s  %12s  %10s  %16s  %24s  %s%n", "Line", "Byte Offset",
+                       "Population", "Child Population", "Child Poverty Population", "Reason");
+            for (int r = 0; r < size; r++)
+            {
+                int i = order[r];
+                if ((reasons[i] & MALFORMED) != 0)
+                {
+                    out.printf("%10d  %12d  %10s  %16s  %24s  %s%n", lineNumbers[r],
+                               offsets[i], "-", "-", "-", describe(reasons[i]));
+                }
+                else
+                {
+                    out.printf("%10d  %12d  %10d  %16d  %24d  %s%n", lineNumbers[r],
+                               offsets[i], values[3 * i], values[3 * i + 1],
+                               values[3 * i + 2], describe(reasons[i]));
+                }
+            }
+        }
+    }
+
+    /**
+        * Writes the rejects to a stream, so that they can be restored with
+        * readFrom().
+        *
+        * @param dout DataOutputStream to write to
+    */
+    public void writeTo(DataOutputStream dout) throws IOException
+    {
+        dout.writeInt(size);
+        for (int i = 0; i < size; i++)
+        {
+            dout.writeLong(offsets[i]);
+            dout.writeInt(reasons[i]);
+            dout.writeInt(values[3 * i]);
+            dout.writeInt(values[3 * i + 1]);
+            dout.writeInt(values[3 * i + 2]);
+        }
+    }
+
+    /**
+        * Adds rejects previously written with writeTo() to this log.
+        *
+        * @param din DataInputStream to read from
+    */
+    public void readFrom(DataInputStream din) throws IOException
+    {
+        int count = din.readInt(); //rejects written
+        for (int i = 0; i < count; i++)
+        {
+            add(din.readLong(), din.readInt(), din.readInt(), din.readInt(), din.readInt());
+        }
+    }
+
+    /**
+        * Returns the 1-based line numbers of the lines starting at the given
+        * ascending offsets, counting terminators in a mapping of the input.
+    */
+    private static long[] lineNumbers(String inputFile, long[] sorted) throws IOException
+    {
+        long[] numbers = new long[sorted.length];
+        if (sorted.length == 0)
+        {
+            return numbers;
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile),
+                StandardOpenOption.READ))
+        {
+            final long window = 256L * 1024 * 1024; //bytes mapped at a time
+            long line = 1; //number of the line at position
+            int next = 0; //next reject to number
+            long end = sorted[sorted.length - 1]; //no need to look further
+
+            for (long base = 0; base < end && next < sorted.length; base += window)
+            {
+                int length = (int)Math.min(window, end - base);
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, base, length);
+                for (int i = 0; i < length; i++)
+                {
+                    while (next < sorted.length && sorted[next] == base + i)
+                    {
+                        numbers[next++] = line;
+                    }
+                    if (map.get(i) == '\n')
+                    {
+                        line++;
+                    }
+                }
+            }
+            while (next < sorted.length) //rejects at the very end offset
+            {
+                numbers[next++] = line;
+            }
+        }
+        return numbers;
+    }
+
+    /**
+        * Returns a readable description of a set of REASON flags.
+    */
+    private static String describe(int reason)
+    {
+        if ((reason & MALFORMED) != 0)
+        {
+            return "Malformed or truncated line";
+        }
+        StringBuilder text = new StringBuilder();
+        if ((reason & CHILD_EXCEEDS_TOTAL) != 0)
+        {
+            text.append("Child population exceeds total population");
+        }
+        if ((reason & POVERTY_EXCEEDS_CHILD) != 0)
+        {
+            text.append(text.length() > 0 ? "; " : "")
+                .append("Child poverty population exceeds child population");
+        }
+        return text.toString();
+    }
+}
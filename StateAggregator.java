@@ -0,0 +1,241 @@
+import java.io.*;
+
+/**
+    * This class summarizes Census lines by state. Rather than searching an
+    * array of StateCensus objects for every line, the totals are kept in
+    * primitive arrays indexed directly by the state code, so adding a line
+    * is a constant time operation and no objects are created at all.
+    *
+    * FIPS state codes occupy two columns of the input file, so every code
+    * from 00 to 99 has its own slot and there is no limit on how many
+    * different states a file may hold. The order in which states are first
+    * seen is remembered, so output is written in the same order as before.
+    *
+    * Totals are kept as longs, and every addition is checked for overflow,
+    * so multi-year sums or scaled data cannot silently wrap around. The
+    * national totals are accumulated in the same pass.
+    *
+    * @version 1.0.0.0
+*/
+public class StateAggregator implements CensusRecordHandler
+{
+    //Number of possible two digit state codes
+    public static final int STATE_CODES = 100;
+
+    private long[] totalPopulation = new long[STATE_CODES]; //Total pop per state
+    private long[] childPopulation = new long[STATE_CODES]; //Child pop per state
+    private long[] childPovertyPopulation = new long[STATE_CODES]; //Child poverty pop per state
+    private boolean[] present = new boolean[STATE_CODES]; //Whether a state has been seen
+    private int[] order = new int[STATE_CODES]; //State codes in first-seen order
+    private int stateCount; //Number of states seen
+    private long nationTotal; //Total population over all states
+    private long nationChild; //Child population over all states
+    private long nationChildPoverty; //Child poverty population over all states
+
+    /**
+        * Adds a parsed line to the totals of its state.
+        *
+        * @param line CensusLineParser holding the decoded values of the line
+    */
+    public void record(CensusLineParser line)
+    {
+        add(line.getStateCode(), line.getTotalPopulation(),
+            line.getChildPopulation(), line.getChildPovertyPopulation());
+    }
+
+    /**
+        * Adds population values to the totals of a state. The values are
+        * expected to have been validated already (CensusScanner validates
+        * every line), so no constraint checks are made here.
+        *
+        * @param stateCode integer state code, 0 to 99
+        * @param totalPop long for total population incrementation
+        * @param childPop long for the child population incrementation
+        * @param childPovPop long for the child poverty population incrementation
+    */
+    public void add(int stateCode, long totalPop, long childPop, long childPovPop)
+    {
+        //A code outside the two digit range cannot come from a valid line
+        if (stateCode < 0 || stateCode >= STATE_CODES)
+        {
+            throw new IllegalArgumentException("State code out of range: " + stateCode);
+        }
+
+        //First line for this state; remember where it goes in the output
+        if (!present[stateCode])
+        {
+            present[stateCode] = true;
+            order[stateCount++] = stateCode;
+        }
+
+        //Below six lines add the values to the state's and the nation's
+        //running totals, failing with an ArithmeticException on overflow
+        totalPopulation[stateCode] = Math.addExact(totalPopulation[stateCode], totalPop);
+        childPopulation[stateCode] = Math.addExact(childPopulation[stateCode], childPop);
+        childPovertyPopulation[stateCode] = Math.addExact(childPovertyPopulation[stateCode], childPovPop);
+        nationTotal = Math.addExact(nationTotal, totalPop);
+        nationChild = Math.addExact(nationChild, childPop);
+        nationChildPoverty = Math.addExact(nationChildPoverty, childPovPop);
+    }
+
+    /**
+        * Folds the totals of another aggregator into this one. States new to
+        * this aggregator are appended in the order the other one first saw
+        * them, so merging partials in file order keeps the output order of
+        * a sequential scan.
+        *
+        * @param other StateAggregator whose totals are added to this one
+    */
+    public void merge(StateAggregator other)
+    {
+        for (int i = 0; i < other.stateCount; i++)
+        {
+            int code = other.order[i];
+            add(code, other.totalPopulation[code], other.childPopulation[code],
+                other.childPovertyPopulation[code]);
+        }
+    }
+
+    /**
+        * Method to return the number of states seen.
+        *
+        * @return stateCount integer
+    */
+    public int getStateCount()
+    {
+        return stateCount;
+    }
+
+    /**
+        * Method to return the state code at a position in first-seen order.
+        *
+        * @param index integer position, 0 to getStateCount() - 1
+        * @return stateCode integer
+    */
+    public int getStateCode(int index)
+    {
+        return order[index];
+    }
+
+    /**
+        * Method to return whether a state has been seen.
+        *
+        * @param stateCode integer state code
+        * @return true if at least one line for the state was added
+    */
+    public boolean contains(int stateCode)
+    {
+        return stateCode >= 0 && stateCode < STATE_CODES && present[stateCode];
+    }
+
+    /**
+        * Method to return the total population of a state.
+        *
+        * @param stateCode integer state code
+        * @return totalPopulation long
+    */
+    public long getTotalPopulation(int stateCode)
+    {
+        return totalPopulation[stateCode];
+    }
+
+    /**
+        * Method to return the child population of a state.
+        *
+        * @param stateCode integer state code
+        * @return childPopulation long
+    */
+    public long getChildPopulation(int stateCode)
+    {
+        return childPopulation[stateCode];
+    }
+
+    /**
+        * Method to return the child poverty population of a state.
+        *
+        * @param stateCode integer state code
+        * @return childPovertyPopulation long
+    */
+    public long getChildPovertyPopulation(int stateCode)
+    {
+        return childPovertyPopulation[stateCode];
+    }
+
+    /**
+        * Calculated method to return the percentage of children living in
+        * poverty in a state, computed exactly as
+        * StateCensus.getChildPovertyPercentage() does.
+        *
+        * @param stateCode integer state code
+        * @return childPovertyPercentage double
+    */
+    public double getChildPovertyPercentage(int stateCode)
+    {
+        //Calculate and return the childPovertyPercentage
+        return CensusDataFile.percentage(childPovertyPopulation[stateCode],
+                                         childPopulation[stateCode]);
+    }
+
+    /**
+        * Method to return the total population over all states.
+        *
+        * @return nationTotal long
+    */
+    public long getNationTotalPopulation()
+    {
+        return nationTotal;
+    }
+
+    /**
+        * Method to return the child population over all states.
+        *
+        * @return nationChild long
+    */
+    public long getNationChildPopulation()
+    {
+        return nationChild;
+    }
+
+    /**
+        * Method to return the child poverty population over all states.
+        *
+        * @return nationChildPoverty long
+    */
+    public long getNationChildPovertyPopulation()
+    {
+        return nationChildPoverty;
+    }
+
+    /**
+        * Writes the totals to a stream, in first-seen order, so that they
+        * can be restored with readFrom().
+        *
+        * @param dout DataOutputStream to write to
+    */
+    public void writeTo(DataOutputStream dout) throws IOException
+    {
+        dout.writeInt(stateCount);
+        for (int i = 0; i < stateCount; i++)
+        {
+            int code = order[i];
+            dout.writeInt(code);
+            dout.writeLong(totalPopulation[code]);
+            dout.writeLong(childPopulation[code]);
+            dout.writeLong(childPovertyPopulation[code]);
+        }
+    }
+
+    /**
+        * Adds totals previously written with writeTo() to this aggregator.
+        *
+        * @param din DataInputStream to read from
+    */
+    public void readFrom(DataInputStream din) throws IOException
+    {
+        int count = din.readInt(); //number of states written
+        for (int i = 0; i < count; i++)
+        {
+            add(din.readInt(), din.readLong(), din.readLong(), din.readLong());
+        }
+    }
+}
@@ -12,9 +12,9 @@ public class StateCensus
     // holding this information as a String, but decided to use int
     // and leverage formatting options in printf
     private int stateCode; 
-    private int totalPopulation;  //Total population for state
-    private int childPopulation;  //Total child population for state
-    private int childPovertyPopulation; //Child Poverty population for state
+    private long totalPopulation;  //Total population for state
+    private long childPopulation;  //Total child population for state
+    private long childPovertyPopulation; //Child Poverty population for state
     
     /**
         * Convenience constructor, taking as a parameter a census line
@@ -72,9 +72,9 @@ public class StateCensus
         * Method to return the totalPopulation.
         *
         * @author Baseem Astiphan
-        * @return totalPopulation integer
+        * @return totalPopulation long
     */    
-    public int getTotalPopulation()
+    public long getTotalPopulation()
     {
         return totalPopulation; //return total population
     }
@@ -85,9 +85,9 @@ public class StateCensus
         * the conversation should be had with a project manager.
         *
         * @author Baseem Astiphan
-        * @param totalPop integer for the total population
+        * @param totalPop long for the total population
     */    
-    public void setTotalPopulation(int totalPop)
+    public void setTotalPopulation(long totalPop)
     {
         //Set totalPopulation to the argument
         totalPopulation = totalPop;
@@ -97,9 +97,9 @@ public class StateCensus
         * Method to return the childPopulation.
         *
         * @author Baseem Astiphan
-        * @return childPopulation integer
+        * @return childPopulation long
     */       
-    public int getChildPopulation()
+    public long getChildPopulation()
     {
         return childPopulation; //return childPopulation
     }
@@ -116,9 +116,9 @@ public class StateCensus
         * defintion.
         *
         * @author Baseem Astiphan
-        * @param childPop integer for the child population
+        * @param childPop long for the child population
     */      
-    public void setChildPopulation(int childPop) throws InvalidArgumentException
+    public void setChildPopulation(long childPop) throws InvalidArgumentException
     {
         //Throw exception if the resulting population would exceed total pop
         if (childPop > this.getTotalPopulation())
@@ -135,9 +135,9 @@ public class StateCensus
         * Method to return the childPovertyPopulation.
         *
         * @author Baseem Astiphan
-        * @return childPovertyPopulation integer
+        * @return childPovertyPopulation long
     */    
-    public int getChildPovertyPopulation()
+    public long getChildPovertyPopulation()
     {
         //return child poverty pop
         return childPovertyPopulation;
@@ -153,9 +153,9 @@ public class StateCensus
         * defintion.
         *
         * @author Baseem Astiphan
-        * @param childPoverty integer for the total poverty pop
+        * @param childPoverty long for the total poverty pop
     */        
-    public void setChildPovertyPopulation(int childPoverty) throws InvalidArgumentException
+    public void setChildPovertyPopulation(long childPoverty) throws InvalidArgumentException
     {
         //Throw exception if the resulting child poverty pop exceeds child pop
         if (childPoverty > this.getChildPopulation())
@@ -174,18 +174,19 @@ public class StateCensus
         * at a time, and should be added to an aggregate total.
         *
         * @author Baseem Astiphan
-        * @param totalPop integer for total population incrementation
-        * @param childPop integer for the child population incrementation
-        * @param childPovPop integer for the child poverty population incrementation
+        * @param totalPop long for total population incrementation
+        * @param childPop long for the child population incrementation
+        * @param childPovPop long for the child poverty population incrementation
     */          
-    public void populationIncrementer(int totalPop, int childPop, int childPovPop)
+    public void populationIncrementer(long totalPop, long childPop, long childPovPop)
         throws InvalidArgumentException
     {
         //Below three lines add the current population value with the incremented value,
-        //then set the new values, while adhering to constraints
-        setTotalPopulation(totalPopulation + totalPop);
-        setChildPopulation(childPopulation + childPop);
-        setChildPovertyPopulation(childPovertyPopulation + childPovPop);
+        //then set the new values, while adhering to constraints. Math.addExact
+        //fails with an ArithmeticException rather than wrapping on overflow
+        setTotalPopulation(Math.addExact(totalPopulation, totalPop));
+        setChildPopulation(Math.addExact(childPopulation, childPop));
+        setChildPovertyPopulation(Math.addExact(childPovertyPopulation, childPovPop));
     }
   
     
@@ -265,6 +266,33 @@ public class StateCensus
         UnitTests.populationIncrementersWorkCorrectly();
         UnitTests.childPopulationCannotExceedTotalPopulation();
         UnitTests.childPovertyPopulationCannotExceedChildPopulation();
+        UnitTests.lineParserMatchesStringParse();
+        UnitTests.lineParserRejectsMalformedFields();
+        UnitTests.mappedScanMatchesStreamedScan();
+        UnitTests.parallelScanMatchesSequentialScan();
+        UnitTests.stateAggregatorHandlesAllStateCodes();
+        UnitTests.totalsExceedIntRange();
+        UnitTests.districtAggregatorGrowsAndMerges();
+        UnitTests.rollupSumsStatesIntoDivisionsAndRegions();
+        UnitTests.checkpointResumesOnlyUnchangedPrefix();
+        UnitTests.topDistrictsMatchAcrossScanPaths();
+        UnitTests.quantileSketchMergesWithinErrorBound();
+        UnitTests.rateStatisticsMergeExactly();
+        UnitTests.deferredValidationRejectsBadLines();
+        UnitTests.deferredValidationRejectsBadLeaCodes();
+        UnitTests.lineFilterChecksStateBeforePopulation();
+        UnitTests.comparisonFindsAddedAndRemovedDistricts();
+        UnitTests.sampleStratifiesSortedFilesOnly();
+        UnitTests.columnarFileKeepsRowsAndRanges();
+        UnitTests.indexFindsRowsWithOrWithoutDirectory();
+        UnitTests.reportWriterMatchesPrintf();
+        UnitTests.rowsInMemoryMatchRowsWritten();
+        UnitTests.serverAnswersFromLoadedTotals();
+        UnitTests.watcherReadsOnlyChangedFiles();
+        UnitTests.resultCacheServesIdenticalRunsOnly();
+        UnitTests.batchMergesFilesAndNamesFailures();
+        UnitTests.pipelineMatchesSequentialScan();
+        UnitTests.engineAnalyzesEverySource();
     }
 }
 
@@ -371,4 +399,1131 @@ class UnitTests
             System.out.println(ex.getMessage());
         }
     }
-}
+    
+    static void lineParserMatchesStringParse()
+    {
+        try
+        {
+            String line = "01 00190 Alabaster City School District                                              " +
+                        "31754     6475      733 USSD13.txt 24NOV2014  ";
+            StateCensus sc = StateCensus.parse(line);
+            CensusLineParser parser = new CensusLineParser();
+            parser.parse(java.nio.ByteBuffer.wrap(line.getBytes("US-ASCII")), 0, line.length());
+            
+            assert (parser.getStateCode() == sc.getStateCode()) : "Incorrect state code";
+            assert (parser.getTotalPopulation() == sc.getTotalPopulation()) : "Incorrect total population";
+            assert (parser.getChildPopulation() == sc.getChildPopulation()) : "Incorrect child population";
+            assert (parser.getChildPovertyPopulation() == sc.getChildPovertyPopulation()) : 
+                "Incorrect child poverty population";
+        }
+        catch (Exception ex)
+        {
+            System.out.println("lineParserMatchesStringParse Failed");
+        }
+    }
+    
+    static void lineParserRejectsMalformedFields()
+    {
+        String line = "01 00190 Alabaster City School District                                              " +
+                    "31754     6X75      733 USSD13.txt 24NOV2014  ";
+        try
+        {
+            CensusLineParser parser = new CensusLineParser();
+            parser.parse(java.nio.ByteBuffer.wrap(line.getBytes("US-ASCII")), 0, line.length());
+            System.out.println("lineParserRejectsMalformedFields Failed");
+        }
+        catch (NumberFormatException ex)
+        {
+            //Expected; same behaviour as Integer.parseInt
+        }
+        catch (Exception ex)
+        {
+            System.out.println("lineParserRejectsMalformedFields Failed");
+        }
+    }
+    
+    static void mappedScanMatchesStreamedScan()
+    {
+        try
+        {
+            //Three lines, the last without a terminator, mapped in segments
+            //smaller than two lines so every segment hand-off is exercised
+            String line = "01 00190 Alabaster City School District                                              " +
+                        "31754     6475      733 USSD13.txt 24NOV2014  ";
+            java.io.File file = java.io.File.createTempFile("census", ".txt");
+            file.deleteOnExit();
+            try (java.io.FileOutputStream out = new java.io.FileOutputStream(file))
+            {
+                out.write((line + "\n" + line + "\r\n" + line).getBytes("US-ASCII"));
+            }
+            
+            final long[] sums = new long[2]; //child population per path
+            CensusScanner streamed = new CensusScanner(l -> sums[0] += l.getChildPopulation(), 
+                                                       Integer.MAX_VALUE);
+            streamed.scanStream(file.getPath());
+            CensusScanner mapped = new CensusScanner(l -> sums[1] += l.getChildPopulation(), 
+                                                     Integer.MAX_VALUE, 200);
+            mapped.scanMapped(file.getPath());
+            
+            assert (streamed.getRecordCount() == 3) : "Incorrect streamed record count";
+            assert (mapped.getRecordCount() == 3) : "Incorrect mapped record count";
+            assert (sums[0] == 3 * 6475 && sums[1] == sums[0]) : "Mapped and streamed sums differ";
+        }
+        catch (Exception ex)
+        {
+            System.out.println("mappedScanMatchesStreamedScan Failed");
+        }
+    }
+    
+    static void parallelScanMatchesSequentialScan()
+    {
+        try
+        {
+            //Forty lines over five states, split into ranges of a few lines
+            java.io.File file = java.io.File.createTempFile("census", ".txt");
+            file.deleteOnExit();
+            try (java.io.PrintStream out = new java.io.PrintStream(file, "US-ASCII"))
+            {
+                for (int i = 0; i < 40; i++)
+                {
+                    out.printf("%02d 00190 %-72s %8d %8d %8d USSD13.txt 24NOV2014  %n",
+                               5 - i % 5, "District " + i, 3000 + i, 700 + i, 100 + i);
+                }
+            }
+            
+            for (long limit : new long[] {Integer.MAX_VALUE, 17})
+            {
+                StateTotals sequential = new StateTotals();
+                new CensusScanner(sequential, limit).scanStream(file.getPath());
+                StateTotals parallel = ParallelCensusScanner.scan(file.getPath(), limit, 3, 300,
+                    StateTotals::new, StateTotals::merge);
+                
+                assert (java.util.Arrays.equals(sequential.child, parallel.child)) : 
+                    "Parallel totals differ from sequential totals";
+                assert (sequential.order.toString().equals(parallel.order.toString())) : 
+                    "Parallel state order differs from sequential order";
+            }
+        }
+        catch (Exception ex)
+        {
+            System.out.println("parallelScanMatchesSequentialScan Failed");
+        }
+    }
+    
+    /**
+        * Minimal handler summing child population per state, remembering
+        * the order states are first seen in.
+    */
+    private static class StateTotals implements CensusRecordHandler
+    {
+        long[] child = new long[100];
+        StringBuilder order = new StringBuilder();
+        
+        public void record(CensusLineParser line)
+        {
+            if (child[line.getStateCode()] == 0)
+            {
+                order.append(line.getStateCode()).append(' ');
+            }
+            child[line.getStateCode()] += line.getChildPopulation();
+        }
+        
+        void merge(StateTotals other)
+        {
+            for (String code : other.order.toString().split(" "))
+            {
+                if (child[Integer.parseInt(code)] == 0)
+                {
+                    order.append(code).append(' ');
+                }
+            }
+            for (int i = 0; i < child.length; i++)
+            {
+                child[i] += other.child[i];
+            }
+        }
+    }
+    
+    static void stateAggregatorHandlesAllStateCodes()
+    {
+        //More distinct codes than the old 60 entry array could hold
+        StateAggregator first = new StateAggregator();
+        StateAggregator second = new StateAggregator();
+        for (int code = 99; code >= 0; code--)
+        {
+            first.add(code, 10, 5, 1);
+            second.add(99 - code, 10, 5, 2);
+        }
+        first.merge(second);
+        
+        assert (first.getStateCount() == 100) : "Incorrect state count";
+        assert (first.getStateCode(0) == 99) : "Incorrect first-seen order";
+        assert (first.getTotalPopulation(42) == 20) : "Incorrect total population";
+        assert (first.getChildPovertyPopulation(42) == 3) : "Incorrect child poverty population";
+        assert (first.getChildPovertyPercentage(42) == 30.0) : "Incorrect Child Poverty %";
+    }
+    
+    static void totalsExceedIntRange()
+    {
+        //Three states of 1.5 billion each go well past 2^31 nationally
+        StateAggregator aggregator = new StateAggregator();
+        for (int code = 1; code <= 3; code++)
+        {
+            aggregator.add(code, 1500000000, 1000000000, 500000000);
+            aggregator.add(code, 1500000000, 1000000000, 500000000);
+        }
+        
+        assert (aggregator.getTotalPopulation(2) == 3000000000L) : "Incorrect total population";
+        assert (aggregator.getNationTotalPopulation() == 9000000000L) : "Incorrect national total";
+        assert (aggregator.getNationChildPovertyPopulation() == 3000000000L) : 
+            "Incorrect national child poverty population";
+        assert (aggregator.getChildPovertyPercentage(2) == 50.0) : "Incorrect Child Poverty %";
+    }
+    
+    static void districtAggregatorGrowsAndMerges()
+    {
+        //Enough districts to force the table through many rehashes
+        DistrictAggregator first = new DistrictAggregator();
+        DistrictAggregator second = new DistrictAggregator();
+        for (int i = 0; i < 200000; i++)
+        {
+            long key = DistrictAggregator.key(i % 100, i / 100);
+            first.add(key, 10, 4, 1);
+            if (i % 2 == 0)
+            {
+                second.add(key, 1, 1, 1);
+            }
+        }
+        second.add(DistrictAggregator.key(99, 99999), 7, 6, 5);
+        first.merge(second);
+        
+        int slot = first.find(DistrictAggregator.key(42, 1000));
+        assert (first.size() == 200001) : "Incorrect district count";
+        assert (slot >= 0 && first.getTotalPopulation(slot) == 11) : "Incorrect total population";
+        assert (first.getChildPovertyPopulation(first.find(DistrictAggregator.key(43, 1000))) == 1) : 
+            "Incorrect child poverty population";
+        assert (first.find(DistrictAggregator.key(98, 99999)) == -1) : "Found a district never added";
+        assert (first.sortedKeys()[200000] == 9999999L) : "Keys not sorted";
+    }
+    
+    static void rollupSumsStatesIntoDivisionsAndRegions()
+    {
+        StateAggregator states = new StateAggregator();
+        states.add(36, 100, 50, 10);  //New York, Middle Atlantic, Northeast
+        states.add(25, 200, 40, 4);   //Massachusetts, New England, Northeast
+        states.add(6, 300, 90, 20);   //California, Pacific, West
+        states.add(72, 400, 80, 40);  //Puerto Rico, no division
+        CensusRollup rollup = new CensusRollup(states);
+        
+        int statesWithDivision = 0;
+        for (int code = 0; code < StateAggregator.STATE_CODES; code++)
+        {
+            statesWithDivision += CensusGeography.divisionOf(code) > 0 ? 1 : 0;
+        }
+        
+        assert (statesWithDivision == 51) : "Every state and DC needs a division";
+        assert (rollup.getDivisionTotalPopulation(2) == 100) : "Incorrect division total";
+        assert (rollup.getRegionChildPovertyPopulation(1) == 14) : "Incorrect region total";
+        assert (rollup.getRegionCount() == 2 && rollup.getDivisionCount() == 3) : 
+            "Incorrect number of divisions or regions";
+        assert (states.getNationTotalPopulation() == 1000) : "Puerto Rico missing from nation";
+        
+        //The report names divisions and regions
+        String row = new String(CensusDataOutputReport.renderRow(
+            CensusDataFile.LEVEL_DIVISION, 3, 100, 50, 10));
+        assert (row.contains("East North Central  ")) : "Division not named";
+        
+        //Region and national totals need an 11 character Population column
+        row = new String(CensusDataOutputReport.renderRow(
+            CensusDataFile.LEVEL_REGION, 3, 118716121L, 20347125L, 4621909L));
+        assert (row.contains("---------  -----------  ") && 
+                row.contains("    South  118,716,121  ")) : "Population column too narrow";
+        
+        //Format 1 has no levels, so the switches are turned down up front
+        try
+        {
+            AnalyzerOptions.parse(new String[] {"--rollup", "--format=1"});
+            assert (false) : "Rollup accepted for format 1";
+        }
+        catch (IllegalArgumentException ex)
+        {
+        }
+    }
+    
+    static void checkpointResumesOnlyUnchangedPrefix()
+    {
+        try
+        {
+            java.io.File input = java.io.File.createTempFile("census", ".txt");
+            java.io.File ckpt = new java.io.File(input.getPath() + ".ckpt");
+            input.deleteOnExit();
+            ckpt.deleteOnExit();
+            java.nio.file.Files.write(input.toPath(), "0123456789\n".getBytes("US-ASCII"));
+            
+            CensusAggregates aggregates = new CensusAggregates(true);
+            aggregates.getStates().add(6, 300, 90, 20);
+            java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+            CensusCheckpoint.hash(input.getPath(), 0, 11, crc);
+            CensusCheckpoint.save(ckpt.getPath(), 11, crc.getValue(), aggregates);
+            
+            //Appending keeps the prefix, so the checkpoint still applies
+            java.nio.file.Files.write(input.toPath(), "more\n".getBytes("US-ASCII"),
+                java.nio.file.StandardOpenOption.APPEND);
+            CensusCheckpoint loaded = CensusCheckpoint.load(ckpt.getPath(), new CensusAggregates(true));
+            assert (loaded != null && loaded.getOffset() == 11) : "Checkpoint not restored";
+            assert (loaded.matches(input.getPath(), new java.util.zip.CRC32C())) : 
+                "Unchanged prefix not recognized";
+            assert (loaded.getAggregates().getStates().getChildPopulation(6) == 90) : 
+                "Summaries not restored";
+            assert (CensusCheckpoint.load(ckpt.getPath(), new CensusAggregates(false)) == null) : 
+                "Checkpoint with other summaries accepted";
+            
+            //Rewriting the prefix must force a full rebuild
+            java.nio.file.Files.write(input.toPath(), "X123456789\nmore\n".getBytes("US-ASCII"));
+            assert (!loaded.matches(input.getPath(), new java.util.zip.CRC32C())) : 
+                "Changed prefix accepted";
+        }
+        catch (java.io.IOException ex)
+        {
+            System.out.println("checkpointResumesOnlyUnchangedPrefix Failed");
+        }
+    }
+    
+    static void topDistrictsMatchAcrossScanPaths()
+    {
+        try
+        {
+            //Sixty equally long lines over three states
+            java.io.File file = java.io.File.createTempFile("census", ".txt");
+            file.deleteOnExit();
+            try (java.io.PrintStream out = new java.io.PrintStream(file, "US-ASCII"))
+            {
+                for (int i = 0; i < 60; i++)
+                {
+                    out.printf("%02d %05d %-72s %8d %8d %8d USSD13.txt 24NOV2014  \n",
+                               1 + i % 3, i, "District " + i, 3000, 700, (i * 37) % 700);
+                }
+            }
+            
+            TopKDistricts sequential = new TopKDistricts(4);
+            new CensusScanner(sequential, Integer.MAX_VALUE).scanStream(file.getPath());
+            TopKDistricts parallel = ParallelCensusScanner.scan(file.getPath(), 
+                Integer.MAX_VALUE, 3, 400, () -> new TopKDistricts(4), TopKDistricts::merge);
+            
+            for (int state = 1; state <= 3; state++)
+            {
+                assert (java.util.Arrays.equals(sequential.ranked(state), parallel.ranked(state))) : 
+                    "Parallel ranking differs from sequential ranking";
+            }
+            
+            //Line 18 (state 1) has the highest poverty count, 666
+            long[] best = sequential.ranked(1);
+            assert (best.length == 4 && best[0] == 18 * (file.length() / 60)) : 
+                "Incorrect top district";
+            assert (sequential.ranked(4).length == 0) : "Ranking for an absent state";
+        }
+        catch (Exception ex)
+        {
+            System.out.println("topDistrictsMatchAcrossScanPaths Failed");
+        }
+    }
+    
+    static void quantileSketchMergesWithinErrorBound()
+    {
+        try
+        {
+            //100,000 distinct values in scrambled order; value i has rank i
+            final int n = 100000;
+            QuantileSketch whole = new QuantileSketch();
+            QuantileSketch[] parts = new QuantileSketch[4];
+            for (int p = 0; p < parts.length; p++)
+            {
+                parts[p] = new QuantileSketch();
+            }
+            for (int i = 0; i < n; i++)
+            {
+                double value = (i * 7919L) % n;
+                whole.add(value);
+                parts[i % parts.length].add(value);
+            }
+            for (int p = 1; p < parts.length; p++)
+            {
+                parts[0].merge(parts[p]);
+            }
+            
+            java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+            parts[0].writeTo(new java.io.DataOutputStream(bytes));
+            QuantileSketch restored = QuantileSketch.readFrom(new java.io.DataInputStream(
+                new java.io.ByteArrayInputStream(bytes.toByteArray())));
+            
+            for (double q : new double[] {0.5, 0.9, 0.99})
+            {
+                assert (Math.abs(whole.quantile(q) - q * n) < 0.02 * n) : "Sketch rank error too large";
+                assert (Math.abs(parts[0].quantile(q) - q * n) < 0.02 * n) : "Merged rank error too large";
+                assert (restored.quantile(q) == parts[0].quantile(q)) : "Sketch not restored";
+            }
+            assert (parts[0].getCount() == n) : "Merged count incorrect";
+        }
+        catch (java.io.IOException ex)
+        {
+            System.out.println("quantileSketchMergesWithinErrorBound Failed");
+        }
+    }
+    
+    static void rateStatisticsMergeExactly()
+    {
+        //Rates 10 (weight 1), 20 (weight 2) and 40 (weight 1): mean 22.5,
+        //variance (1*12.5^2 + 2*2.5^2 + 1*17.5^2) / 4 = 118.75
+        StateRateStatistics whole = new StateRateStatistics();
+        whole.add(6, 10, 1);
+        whole.add(6, 20, 2);
+        whole.add(6, 40, 1);
+        StateRateStatistics left = new StateRateStatistics();
+        StateRateStatistics right = new StateRateStatistics();
+        left.add(6, 10, 1);
+        right.add(6, 20, 2);
+        right.add(6, 40, 1);
+        left.merge(right);
+        
+        assert (Math.abs(whole.getMean(6) - 22.5) < 1e-9) : "Incorrect weighted mean";
+        assert (Math.abs(whole.getVariance(6) - 118.75) < 1e-9) : "Incorrect weighted variance";
+        assert (Math.abs(left.getVariance(6) - whole.getVariance(6)) < 1e-9 &&
+                Math.abs(left.getTheilIndex(6) - whole.getTheilIndex(6)) < 1e-12) : 
+            "Merged statistics differ";
+        
+        //Equal rates mean no inequality at all
+        StateRateStatistics equal = new StateRateStatistics();
+        equal.add(1, 25, 3);
+        equal.add(1, 25, 5);
+        assert (Math.abs(equal.getTheilIndex(1)) < 1e-12) : "Theil index of equal rates not 0";
+        assert (whole.getTheilIndex(6) > 0) : "Theil index of unequal rates not positive";
+    }
+    
+    static void deferredValidationRejectsBadLines()
+    {
+        try
+        {
+            //Lines 2, 3 and 5 break a constraint or are malformed
+            java.io.File file = java.io.File.createTempFile("census", ".txt");
+            java.io.File report = java.io.File.createTempFile("census", ".rejects.txt");
+            file.deleteOnExit();
+            report.deleteOnExit();
+            String[] counts = {"    3000      700      100", "     500      700      100",
+                               "    3x00      700      100", "    3000      700      100",
+                               "    3000      700      900"};
+            try (java.io.PrintStream out = new java.io.PrintStream(file, "US-ASCII"))
+            {
+                for (int i = 0; i < counts.length; i++)
+                {
+                    out.printf("06 %05d %-72s %s USSD13.txt 24NOV2014  \n", i, "District", counts[i]);
+                }
+            }
+            
+            AnalyzerOptions options = AnalyzerOptions.parse(new String[] {"--validate=deferred"});
+            CensusAggregates sequential = new CensusAggregates(options);
+            new CensusScanner(sequential, Integer.MAX_VALUE).scanStream(file.getPath());
+            CensusAggregates parallel = ParallelCensusScanner.scan(file.getPath(), 
+                Integer.MAX_VALUE, 2, 200, () -> new CensusAggregates(options), 
+                CensusAggregates::merge);
+            
+            for (CensusAggregates result : new CensusAggregates[] {sequential, parallel})
+            {
+                assert (result.getStates().getChildPopulation(6) == 1400) : 
+                    "Rejected lines were summarized";
+                assert (result.getRejects().size() == 3 && result.getLineCount() == 5) : 
+                    "Incorrect reject count";
+            }
+            assert (sequential.getRejects().getReason(0) == RejectLog.CHILD_EXCEEDS_TOTAL &&
+                    sequential.getRejects().getReason(1) == RejectLog.MALFORMED &&
+                    sequential.getRejects().getReason(2) == RejectLog.POVERTY_EXCEEDS_CHILD) : 
+                "Incorrect reject reasons";
+            
+            //The report numbers the lines in file order
+            parallel.getRejects().writeReport(report.getPath(), file.getPath());
+            String text = new String(java.nio.file.Files.readAllBytes(report.toPath()), "US-ASCII");
+            assert (text.matches("(?s).*\\n\\s+2\\s.*\\n\\s+3\\s.*\\n\\s+5\\s.*")) : 
+                "Incorrect reject line numbers";
+        }
+        catch (Exception ex)
+        {
+            System.out.println("deferredValidationRejectsBadLines Failed");
+        }
+    }
+    
+    static void deferredValidationRejectsBadLeaCodes()
+    {
+        try
+        {
+            //Line 2 has a letter in its LEA code, line 3 a sign
+            java.io.File file = java.io.File.createTempFile("census", ".txt");
+            file.deleteOnExit();
+            String[] leas = {"00190", "1X345", "-0007", "00200"};
+            try (java.io.PrintStream out = new java.io.PrintStream(file, "US-ASCII"))
+            {
+                for (String lea : leas)
+                {
+                    out.printf("06 %s %-72s     3000      700      100 USSD13.txt 24NOV2014  \n", 
+                               lea, "District");
+                }
+            }
+            
+            AnalyzerOptions options = AnalyzerOptions.parse(
+                new String[] {"--districts", "--validate=deferred"});
+            CensusAggregates sequential = new CensusAggregates(options);
+            new CensusScanner(sequential, Integer.MAX_VALUE).scanStream(file.getPath());
+            CensusAggregates parallel = ParallelCensusScanner.scan(file.getPath(), 
+                Integer.MAX_VALUE, 2, 200, () -> new CensusAggregates(options), 
+                CensusAggregates::merge);
+            CensusAggregates pipelined = new CensusAggregates(options);
+            new CensusPipeline(pipelined, 2).run(file.getPath(), 0, file.length());
+            
+            for (CensusAggregates result : new CensusAggregates[] {sequential, parallel, pipelined})
+            {
+                assert (result.getStates().getChildPopulation(6) == 1400 &&
+                        result.getDistricts().size() == 2) : "Rejected lines were summarized";
+                assert (result.getDistricts().find(DistrictAggregator.key(6, 200)) >= 0) : 
+                    "District missing";
+                assert (result.getRejects().size() == 2 && 
+                        result.getRejects().getReason(0) == RejectLog.MALFORMED &&
+                        result.getRejects().getReason(1) == RejectLog.MALFORMED) : 
+                    "Incorrect rejects";
+            }
+        }
+        catch (Exception ex)
+        {
+            System.out.println("deferredValidationRejectsBadLeaCodes Failed");
+        }
+    }
+    
+    static void lineFilterChecksStateBeforePopulation()
+    {
+        try
+        {
+            CensusLineFilter filter = AnalyzerOptions.parse(
+                new String[] {"--state=06,48", "--min-pop=1000"}).getFilter();
+            String pad = String.format("%-74s", "");
+            java.nio.ByteBuffer unwanted = java.nio.ByteBuffer.wrap(
+                ("01 00190" + pad + "    3x00      700      100").getBytes("US-ASCII"));
+            java.nio.ByteBuffer small = java.nio.ByteBuffer.wrap(
+                ("48 00190" + pad + "     999      700      100").getBytes("US-ASCII"));
+            java.nio.ByteBuffer wanted = java.nio.ByteBuffer.wrap(
+                ("06 00190" + pad + "    1000      700      100").getBytes("US-ASCII"));
+            java.nio.ByteBuffer malformed = java.nio.ByteBuffer.wrap(
+                ("06 00190" + pad + "    1x00      700      100").getBytes("US-ASCII"));
+            
+            //An unwanted state is turned down before its bad total is seen
+            assert (!filter.accepts(unwanted, 0, unwanted.limit())) : "Unwanted state accepted";
+            assert (!filter.accepts(small, 0, small.limit())) : "Small district accepted";
+            assert (filter.accepts(wanted, 0, wanted.limit())) : "Wanted district turned down";
+            assert (filter.accepts(malformed, 0, malformed.limit())) : 
+                "Malformed line not left to validation";
+            assert (filter.toString().equals("states=06,48 min-pop=1000")) : 
+                "Incorrect filter description";
+            assert (AnalyzerOptions.parse(new String[0]).getFilter() == null) : 
+                "Filter without filter options";
+        }
+        catch (java.io.IOException ex)
+        {
+            System.out.println("lineFilterChecksStateBeforePopulation Failed");
+        }
+    }
+    
+    static void comparisonFindsAddedAndRemovedDistricts()
+    {
+        try
+        {
+            //District 1 is only in the baseline, district 3 only in the current file
+            java.io.File baseline = java.io.File.createTempFile("census", ".txt");
+            java.io.File current = java.io.File.createTempFile("census", ".txt");
+            java.io.File report = java.io.File.createTempFile("census", ".compare.txt");
+            baseline.deleteOnExit();
+            current.deleteOnExit();
+            report.deleteOnExit();
+            int[][] leas = {{1, 2}, {2, 3}};
+            java.io.File[] files = {baseline, current};
+            for (int f = 0; f < files.length; f++)
+            {
+                try (java.io.PrintStream out = new java.io.PrintStream(files[f], "US-ASCII"))
+                {
+                    for (int lea : leas[f])
+                    {
+                        out.printf("06 %05d %-72s %8d %8d %8d USSD1%d.txt 24NOV2014  \n",
+                                   lea, "District", 3000, 700, 100 + 50 * f, 3 + f);
+                    }
+                }
+            }
+            
+            new CensusComparison(null).compare(current.getPath(), baseline.getPath(), report.getPath());
+            String text = new String(java.nio.file.Files.readAllBytes(report.toPath()), "US-ASCII");
+            assert (text.contains("06-00002               100              150         +50")) : 
+                "Incorrect district change";
+            assert (text.contains("1 district(s) in both, 1 added, 1 removed")) : 
+                "Incorrect added or removed count";
+            assert (text.matches("(?s).*Added Districts.*06-00003.*Removed Districts.*06-00001.*")) : 
+                "Incorrect added or removed districts";
+        }
+        catch (Exception ex)
+        {
+            System.out.println("comparisonFindsAddedAndRemovedDistricts Failed");
+        }
+    }
+    
+    static void sampleStratifiesSortedFilesOnly()
+    {
+        try
+        {
+            //Ten lines of state 06, then ten of state 48, then one more of 06
+            java.io.File file = java.io.File.createTempFile("census", ".txt");
+            file.deleteOnExit();
+            try (java.io.PrintStream out = new java.io.PrintStream(file, "US-ASCII"))
+            {
+                for (int i = 0; i < 21; i++)
+                {
+                    out.printf("%s %05d %-72s %8d %8d %8d USSD13.txt 24NOV2014  \n",
+                               (i >= 10 && i < 20) ? "48" : "06", i, "District",
+                               3000, 700, 100 + i);
+                }
+            }
+            
+            //Sampling every line gives the exact totals, with no uncertainty
+            CensusSampler all = new CensusSampler(1000, 1, null);
+            all.sample(file.getPath());
+            assert (!all.isStratified() && all.getSampledCount() == 21) : 
+                "Unsorted file stratified";
+            assert (all.getChildPovertyEstimate(48) == 1145 && 
+                    all.getChildPovertyInterval(48) == 0) : "Incorrect full sample estimate";
+            
+            //Without the last line the file is sorted, and each state sampled
+            java.io.RandomAccessFile raf = new java.io.RandomAccessFile(file, "rw");
+            raf.setLength(raf.length() * 20 / 21);
+            raf.close();
+            CensusSampler some = new CensusSampler(4, 1, null);
+            some.sample(file.getPath());
+            assert (some.isStratified() && some.getSampledCount(6) == 2 && 
+                    some.getSampledCount(48) == 2) : "Incorrect stratified sample";
+            assert (Math.abs(some.getChildPovertyEstimate(48) - 1145) <= 
+                    some.getChildPovertyInterval(48) + 50) : "Estimate far out of its interval";
+        }
+        catch (Exception ex)
+        {
+            System.out.println("sampleStratifiesSortedFilesOnly Failed");
+        }
+    }
+    
+    static void columnarFileKeepsRowsAndRanges()
+    {
+        try
+        {
+            java.io.File file = java.io.File.createTempFile("census", ".dat");
+            file.deleteOnExit();
+            try (java.io.DataOutputStream dout = new java.io.DataOutputStream(
+                    new java.io.FileOutputStream(file)))
+            {
+                //The percentage is left out, and one row has no children
+                CensusDataWriter out = new CensusDataWriter(dout, CensusDataFile.FORMAT_3, false, 3);
+                out.writeRow(CensusDataFile.LEVEL_STATE, 6, 3000, 700, 100);
+                out.writeRow(CensusDataFile.LEVEL_STATE, 48, 5000000000L, 0, 0);
+                out.writeRow(CensusDataFile.LEVEL_NATION, 0, 5000003000L, 700, 100);
+                out.writeBlock(99, new byte[] {1, 2, 3});
+                out.finish();
+            }
+            
+            CensusDataColumns columns = new CensusDataColumns(file.getPath());
+            assert (columns.getRowCount() == 3 && 
+                    !columns.hasColumn(CensusDataFile.COLUMN_PERCENTAGE)) : 
+                "Incorrect row count or columns";
+            assert (columns.getCode(1) == 48 && columns.getTotalPopulation(1) == 5000000000L &&
+                    columns.getLevel(2) == CensusDataFile.LEVEL_NATION) : "Incorrect values";
+            assert (columns.getPercentage(0) == CensusDataFile.percentage(100, 700)) : 
+                "Incorrect derived percentage";
+            assert (columns.getMinimum(CensusDataFile.COLUMN_CODE) == 0 && 
+                    columns.getMaximum(CensusDataFile.COLUMN_TOTAL) == 5000003000L) : 
+                "Incorrect column range";
+            
+            java.io.DataInputStream blocks = columns.openBlocks();
+            assert (blocks.readInt() == 99 && blocks.readInt() == 3) : "Incorrect block";
+            blocks.skipNBytes(3);
+            assert (blocks.readInt() == CensusDataFile.BLOCK_INDEX) : "Missing directory";
+            blocks.skipNBytes(blocks.readInt());
+            assert (blocks.readInt() == CensusDataFile.BLOCK_END) : "Missing block end";
+        }
+        catch (java.io.IOException ex)
+        {
+            System.out.println("columnarFileKeepsRowsAndRanges Failed");
+        }
+    }
+    
+    static void indexFindsRowsWithOrWithoutDirectory()
+    {
+        try
+        {
+            //States out of code order, districts of two states, and the nation
+            java.io.File file = java.io.File.createTempFile("census", ".dat");
+            file.deleteOnExit();
+            int[][] rows = {{CensusDataFile.LEVEL_DISTRICT, (int)DistrictAggregator.key(6, 7)},
+                            {CensusDataFile.LEVEL_DISTRICT, (int)DistrictAggregator.key(6, 9)},
+                            {CensusDataFile.LEVEL_DISTRICT, (int)DistrictAggregator.key(48, 1)},
+                            {CensusDataFile.LEVEL_STATE, 48}, {CensusDataFile.LEVEL_STATE, 6},
+                            {CensusDataFile.LEVEL_NATION, 0}};
+            for (int format : new int[] {CensusDataFile.FORMAT_2, CensusDataFile.FORMAT_3})
+            {
+                try (java.io.DataOutputStream dout = new java.io.DataOutputStream(
+                        new java.io.FileOutputStream(file)))
+                {
+                    CensusDataWriter out = new CensusDataWriter(dout, format, true, rows.length);
+                    for (int i = 0; i < rows.length; i++)
+                    {
+                        out.writeRow(rows[i][0], rows[i][1], 1000 + i, 100 + i, 10 + i);
+                    }
+                    out.finish();
+                }
+                
+                CensusDataIndex index = new CensusDataIndex(file.getPath());
+                assert (index.isStored()) : "Directory not stored";
+                assert (index.getTotalPopulation(index.find(CensusDataFile.LEVEL_STATE, 6)) == 1004 &&
+                        index.find(CensusDataFile.LEVEL_STATE, 36) == -1) : "Incorrect state lookup";
+                assert (java.util.Arrays.equals(index.findRange(CensusDataFile.LEVEL_DISTRICT,
+                            (int)DistrictAggregator.key(6, 0), (int)DistrictAggregator.key(7, 0)),
+                        new int[] {0, 1})) : "Incorrect district range";
+            }
+            
+            //A format 2 file written before the directory existed
+            try (java.io.DataOutputStream dout = new java.io.DataOutputStream(
+                    new java.io.FileOutputStream(file)))
+            {
+                CensusDataFile.writeHeader(dout, 2);
+                CensusDataFile.writeRow(dout, CensusDataFile.LEVEL_STATE, 48, 1, 1, 1);
+                CensusDataFile.writeRow(dout, CensusDataFile.LEVEL_STATE, 6, 2, 2, 1);
+                dout.writeInt(CensusDataFile.BLOCK_END);
+            }
+            CensusDataIndex index = new CensusDataIndex(file.getPath());
+            assert (!index.isStored() && index.find(CensusDataFile.LEVEL_STATE, 6) == 1 &&
+                    index.getPercentage(1) == 50) : "Incorrect lookup without directory";
+        }
+        catch (java.io.IOException ex)
+        {
+            System.out.println("indexFindsRowsWithOrWithoutDirectory Failed");
+        }
+    }
+    
+    static void reportWriterMatchesPrintf()
+    {
+        //Half-way points, where the shortest decimal form decides, and values
+        //outside the fast paths
+        double[] rates = {0, 0.125, 1.005, 2.675, 12.345, 0.285, 99.995, 100, 1e7, 
+                          -0.0, -1.5, Double.NaN, Double.POSITIVE_INFINITY};
+        long[] counts = {0, 7, 999, 1000, 123456789, -4321, Long.MAX_VALUE, Long.MIN_VALUE};
+        java.util.Random random = new java.util.Random(18);
+        
+        try
+        {
+            java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+            java.io.PrintStream stream = new java.io.PrintStream(bytes, true, "UTF-8");
+            CensusReportWriter writer = new CensusReportWriter(stream);
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 20000; i++)
+            {
+                double rate = (i < rates.length) ? rates[i] : 
+                    (i % 2 == 0) ? random.nextInt(10001) / 100.0 + 0.005 : random.nextDouble() * 100;
+                long count = (i < counts.length) ? counts[i] : random.nextLong() >> random.nextInt(64);
+                int code = random.nextInt(100);
+                writer.zeroPadded(code, 2).spaces(2).grouped(count, 16).put("|")
+                      .fixed2(rate, 15).put("x", 3).newLine();
+                expected.append(String.format("%02d  %,16d|%15.2f%3s%n", code, count, rate, "x"));
+            }
+            writer.flush();
+            assert (bytes.toString("UTF-8").equals(expected.toString())) : "Output differs from printf";
+        }
+        catch (java.io.UnsupportedEncodingException ex)
+        {
+            System.out.println("reportWriterMatchesPrintf Failed");
+        }
+    }
+    
+    static void rowsInMemoryMatchRowsWritten()
+    {
+        try
+        {
+            CensusAggregates census = new CensusAggregates(true);
+            census.getStates().add(36, 100, 50, 10);
+            census.getStates().add(6, 300, 90, 0);
+            census.getDistricts().add(DistrictAggregator.key(36, 12510), 100, 50, 10);
+            census.getDistricts().add(DistrictAggregator.key(6, 7), 300, 90, 0);
+            
+            //The rows the dashboard prints are the rows the file holds
+            java.util.List<long[]> rows = new java.util.ArrayList<>();
+            CensusAnalyzer.writeRows(census, true, (level, code, totalPop, childPop, childPovPop) ->
+                rows.add(new long[] {level, code, totalPop, childPop, childPovPop}));
+            assert (rows.size() == CensusAnalyzer.countRows(census, true)) : "Incorrect row count";
+            
+            java.io.File file = java.io.File.createTempFile("census", ".dat");
+            file.deleteOnExit();
+            CensusAnalyzer.writeDataToFile(file.getPath(), census, CensusDataFile.FORMAT_2, true, true);
+            CensusDataIndex index = new CensusDataIndex(file.getPath());
+            assert (index.getRowCount() == rows.size()) : "Rows missing from the file";
+            for (int i = 0; i < rows.size(); i++)
+            {
+                long[] row = rows.get(i);
+                assert (index.getLevel(i) == row[0] && index.getCode(i) == row[1] &&
+                        index.getTotalPopulation(i) == row[2] && index.getChildPopulation(i) == row[3] &&
+                        index.getChildPovertyPopulation(i) == row[4]) : "Row " + i + " differs";
+            }
+        }
+        catch (java.io.IOException ex)
+        {
+            System.out.println("rowsInMemoryMatchRowsWritten Failed");
+        }
+    }
+    
+    static void serverAnswersFromLoadedTotals()
+    {
+        CensusServer server = null;
+        try
+        {
+            CensusAggregates census = new CensusAggregates(true);
+            census.getStates().add(6, 300, 90, 9);
+            census.getDistricts().add(DistrictAggregator.key(6, 7), 300, 90, 9);
+            server = new CensusServer(census, false);
+            server.start(0);
+            
+            String base = "http://localhost:" + server.getPort();
+            java.net.HttpURLConnection state = (java.net.HttpURLConnection)
+                new java.net.URL(base + "/states/06").openConnection();
+            String json = new String(state.getInputStream().readAllBytes(), "UTF-8");
+            assert (json.contains("\"childPovertyPopulation\":9") && 
+                    json.contains("\"childPovertyPercentage\":10.0")) : "Incorrect state answer";
+            
+            java.net.HttpURLConnection district = (java.net.HttpURLConnection)
+                new java.net.URL(base + "/districts/06-00007?format=text").openConnection();
+            String text = new String(district.getInputStream().readAllBytes(), "UTF-8");
+            assert (text.contains("06-00007") && text.contains("10.00")) : "Incorrect district text";
+            
+            java.net.HttpURLConnection missing = (java.net.HttpURLConnection)
+                new java.net.URL(base + "/states/48").openConnection();
+            assert (missing.getResponseCode() == 404) : "Missing state found";
+            
+            //A decoded control character is escaped in the error
+            java.net.HttpURLConnection unknown = (java.net.HttpURLConnection)
+                new java.net.URL(base + "/foo%0Abar").openConnection();
+            assert (unknown.getResponseCode() == 404) : "Unknown query found";
+            String error = new String(unknown.getErrorStream().readAllBytes(), "UTF-8");
+            assert (error.contains("/foo\\nbar") && error.indexOf('\n') < 0) : "Invalid error JSON";
+        }
+        catch (java.io.IOException ex)
+        {
+            System.out.println("serverAnswersFromLoadedTotals Failed");
+        }
+        finally
+        {
+            if (server != null)
+            {
+                server.stop();
+            }
+        }
+    }
+    
+    static void watcherReadsOnlyChangedFiles()
+    {
+        String line = "01 00190 Alabaster City School District                                              " +
+                      "31754     6475      733 USSD13.txt 24NOV2014  \n";
+        try
+        {
+            java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("census");
+            java.nio.file.Path first = directory.resolve("a.txt");
+            java.nio.file.Path second = directory.resolve("b.txt");
+            java.nio.file.Files.write(first, line.getBytes("US-ASCII"));
+            java.nio.file.Files.write(second, line.replace("01 00190", "06 00007").getBytes("US-ASCII"));
+            String output = directory.resolve("combined.dat").toString();
+            
+            try (CensusWatcher watcher = new CensusWatcher(directory, output,
+                    AnalyzerOptions.parse(new String[0]), 0, 2, "*.txt"))
+            {
+                watcher.refresh();
+                CensusDataIndex index = new CensusDataIndex(output);
+                assert (index.find(CensusDataFile.LEVEL_STATE, 1) >= 0 && 
+                        index.find(CensusDataFile.LEVEL_STATE, 6) >= 0) : "File missing from output";
+                
+                //Touched, but not changed: neither read again nor written
+                java.nio.file.Files.setLastModifiedTime(first, 
+                    java.nio.file.attribute.FileTime.fromMillis(0));
+                watcher.refresh();
+                assert (watcher.getFilesRead() == 2 && watcher.getOutputsWritten() == 1) : 
+                    "Unchanged file read again";
+                
+                //Replaced by another state, and the other file removed
+                java.nio.file.Files.write(first, line.replace("01 00190", "48 00001").getBytes("US-ASCII"));
+                java.nio.file.Files.delete(second);
+                watcher.refresh();
+                index = new CensusDataIndex(output);
+                assert (watcher.getFilesRead() == 3 && index.getRowCount() == 2 &&
+                        index.find(CensusDataFile.LEVEL_STATE, 48) >= 0) : "Output not updated";
+                
+                //A failed write is tried again by the next refresh, even
+                //though no file changed since
+                java.nio.file.Path blocked = java.nio.file.Paths.get(output + ".tmp");
+                java.nio.file.Files.createDirectory(blocked);
+                java.nio.file.Files.write(first, line.getBytes("US-ASCII"));
+                try
+                {
+                    watcher.refresh();
+                    assert (false) : "Blocked output written";
+                }
+                catch (java.io.IOException ex)
+                {
+                }
+                java.nio.file.Files.delete(blocked);
+                watcher.refresh();
+                index = new CensusDataIndex(output);
+                assert (watcher.getOutputsWritten() == 3 &&
+                        index.find(CensusDataFile.LEVEL_STATE, 1) >= 0) : "Failed write not retried";
+            }
+            
+            //A cache entry follows one file
+            try
+            {
+                CensusWatcher.checkOptions(AnalyzerOptions.parse(new String[] {"--cache"}));
+                assert (false) : "--cache accepted";
+            }
+            catch (IllegalArgumentException ex)
+            {
+            }
+            java.nio.file.Files.delete(first);
+            java.nio.file.Files.delete(java.nio.file.Paths.get(output));
+            java.nio.file.Files.delete(directory);
+        }
+        catch (Exception ex)
+        {
+            System.out.println("watcherReadsOnlyChangedFiles Failed");
+        }
+    }
+    
+    static void resultCacheServesIdenticalRunsOnly()
+    {
+        String line = "01 00190 Alabaster City School District                                              " +
+                      "31754     6475      733 USSD13.txt 24NOV2014  \n";
+        try
+        {
+            java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("census");
+            java.nio.file.Path input = directory.resolve("input.txt");
+            java.nio.file.Path output = directory.resolve("output.dat");
+            java.nio.file.Files.write(input, line.getBytes("US-ASCII"));
+            java.nio.file.Files.write(output, new byte[] {1, 2, 3});
+            String cacheDirectory = directory.resolve("cache").toString();
+            AnalyzerOptions options = AnalyzerOptions.parse(new String[] {"--state=01"});
+            
+            //First a miss, then a hit writing the stored bytes back
+            CensusResultCache first = new CensusResultCache(cacheDirectory, 1000, input.toString(), options);
+            assert (!first.restore(output.toString()) && first.getMisses() == 1) : "Empty cache hit";
+            first.store(output.toString(), CensusResultCache.outputSuffixes(options));
+            java.nio.file.Files.delete(output);
+            CensusResultCache again = new CensusResultCache(cacheDirectory, 1000, input.toString(), options);
+            assert (again.restore(output.toString()) && again.getHits() == 1) : "Identical run missed";
+            assert (java.util.Arrays.equals(java.nio.file.Files.readAllBytes(output), new byte[] {1, 2, 3})) :
+                "Incorrect output restored";
+            
+            //Other settings miss, and with room for one entry the older goes
+            AnalyzerOptions other = AnalyzerOptions.parse(new String[] {"--state=02"});
+            java.nio.file.Path entry;
+            try (java.util.stream.Stream<java.nio.file.Path> files = 
+                    java.nio.file.Files.list(java.nio.file.Paths.get(cacheDirectory)))
+            {
+                entry = files.filter(p -> p.toString().endsWith(".entry")).findFirst().get();
+            }
+            java.nio.file.Files.setLastModifiedTime(entry, java.nio.file.attribute.FileTime.fromMillis(0));
+            long room = java.nio.file.Files.size(entry) * 3 / 2; //one entry, not two
+            CensusResultCache small = new CensusResultCache(cacheDirectory, room, input.toString(), other);
+            assert (!small.restore(output.toString())) : "Other settings hit";
+            small.store(output.toString(), CensusResultCache.outputSuffixes(other));
+            assert (!new CensusResultCache(cacheDirectory, room, input.toString(), options)
+                        .restore(output.toString())) : "Least recently used entry kept";
+            assert (new CensusResultCache(cacheDirectory, room, input.toString(), other)
+                        .restore(output.toString())) : "Newest entry evicted";
+            
+            //Below loop removes the temporary files
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.walk(directory))
+            {
+                files.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+        catch (java.io.IOException ex)
+        {
+            System.out.println("resultCacheServesIdenticalRunsOnly Failed");
+        }
+    }
+    
+    static void batchMergesFilesAndNamesFailures()
+    {
+        String line = "01 00190 Alabaster City School District                                              " +
+                      "31754     6475      733 USSD13.txt 24NOV2014  \n";
+        try
+        {
+            java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("census");
+            java.nio.file.Files.write(directory.resolve("a.txt"), line.getBytes("US-ASCII"));
+            java.nio.file.Files.write(directory.resolve("b.txt"), 
+                line.replace("01 00190", "48 00001").getBytes("US-ASCII"));
+            java.nio.file.Files.write(directory.resolve("c.dat"), (line + line).getBytes("US-ASCII"));
+            AnalyzerOptions options = AnalyzerOptions.parse(new String[0]);
+            
+            //A pattern and a list naming a file twice; each file is read once
+            java.util.List<String> files = CensusBatch.resolveInputs(
+                directory.resolve("*.txt") + "," + directory.resolve("c.dat") + "," + 
+                directory.resolve("a.txt"));
+            assert (files.size() == 3 && files.get(0).endsWith("a.txt") && 
+                    files.get(2).endsWith("c.dat")) : "Incorrect files resolved";
+            CensusAggregates merged = CensusBatch.readAll(files, Integer.MAX_VALUE, options);
+            assert (merged.getLineCount() == 4 && merged.getStates().getStateCount() == 2 &&
+                    merged.getStates().getTotalPopulation(1) == 3 * 31754L) : "Incorrect merge";
+            
+            //A missing file, or a pattern matching nothing, is named
+            String[] missing = {directory.resolve("a.txt") + "," + directory.resolve("nope.txt"),
+                                directory.resolve("*.csv").toString()};
+            for (String argument : missing)
+            {
+                try
+                {
+                    CensusBatch.resolveInputs(argument);
+                    assert false : "Missing input not reported";
+                }
+                catch (java.io.FileNotFoundException ex)
+                {
+                    assert (ex.getMessage().contains(argument.endsWith("csv") ? "*.csv" : "nope.txt")) :
+                        "Missing input not named";
+                }
+            }
+            
+            //A bad file fails the batch, and is named in the error
+            java.nio.file.Files.write(directory.resolve("d.txt"), "garbage\n".getBytes("US-ASCII"));
+            files = CensusBatch.resolveInputs(directory.resolve("*.txt").toString());
+            try
+            {
+                CensusBatch.readAll(files, Integer.MAX_VALUE, options);
+                assert false : "Bad file not reported";
+            }
+            catch (java.io.IOException ex)
+            {
+                assert (ex.getMessage().startsWith("1 of 3 input files failed") &&
+                        ex.getMessage().contains("d.txt: ")) : "Failure not described";
+            }
+            
+            //Below loop removes the temporary files
+            try (java.util.stream.Stream<java.nio.file.Path> paths = java.nio.file.Files.walk(directory))
+            {
+                paths.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+        catch (Exception ex)
+        {
+            System.out.println("batchMergesFilesAndNamesFailures Failed");
+        }
+    }
+    
+    static void pipelineMatchesSequentialScan()
+    {
+        String line = "01 00190 Alabaster City School District                                              " +
+                      "31754     6475      733 USSD13.txt 24NOV2014  \n";
+        try
+        {
+            //Enough lines for several blocks, from two states
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 1200; i++)
+            {
+                text.append((i % 3 == 0) ? line.replace("01 00190", "48 00001") : line);
+            }
+            java.nio.file.Path input = java.nio.file.Files.createTempFile("census", ".txt");
+            java.nio.file.Files.write(input, text.toString().getBytes("US-ASCII"));
+            long size = java.nio.file.Files.size(input);
+            AnalyzerOptions options = AnalyzerOptions.parse(new String[] {"--districts"});
+            
+            CensusAggregates expected = new CensusAggregates(options);
+            new CensusScanner(expected, Long.MAX_VALUE).scanStream(input.toString());
+            CensusAggregates actual = new CensusAggregates(options);
+            CensusPipeline pipeline = new CensusPipeline(actual, 1);
+            pipeline.run(input.toString(), 0, size);
+            assert (actual.getLineCount() == 1200 && 
+                    actual.getStates().getStateCode(0) == expected.getStates().getStateCode(0) &&
+                    actual.getStates().getTotalPopulation(48) == expected.getStates().getTotalPopulation(48) &&
+                    actual.getDistricts().size() == 2) : "Incorrect pipeline totals";
+            assert (pipeline.getReader().getBatches() > 1 && 
+                    pipeline.getAggregator().getBatches() == pipeline.getReader().getBatches() &&
+                    pipeline.getParser().getLines() == 1200 && 
+                    pipeline.getAggregator().getBytes() == size) : "Incorrect stage counters";
+            
+            //A line breaking a constraint stops the run with its error
+            java.nio.file.Files.write(input, line.replace(" 6475 ", "99999 ").getBytes("US-ASCII"),
+                java.nio.file.StandardOpenOption.APPEND);
+            try
+            {
+                new CensusPipeline(new CensusAggregates(options), 1).run(input.toString(), 0, 
+                    java.nio.file.Files.size(input));
+                assert false : "Invalid line not reported";
+            }
+            catch (InvalidArgumentException ex)
+            {
+                //Expected
+            }
+            java.nio.file.Files.delete(input);
+        }
+        catch (Exception ex)
+        {
+            System.out.println("pipelineMatchesSequentialScan Failed");
+        }
+    }
+    
+    static void engineAnalyzesEverySource()
+    {
+        String line = "01 00190 Alabaster City School District                                              " +
+                      "31754     6475      733 USSD13.txt 24NOV2014  \n";
+        try
+        {
+            byte[] bytes = (line + line.replace("01 00190", "48 00001")).getBytes("US-ASCII");
+            java.nio.file.Path input = java.nio.file.Files.createTempFile("census", ".txt");
+            java.nio.file.Files.write(input, bytes);
+            CensusEngine engine = CensusEngine.of("--districts");
+            
+            //A file, a buffer and a stream give the same totals
+            CensusAggregates fromFile = engine.analyze(input);
+            CensusAggregates fromBuffer = engine.analyze(java.nio.ByteBuffer.wrap(bytes));
+            CensusAggregates fromStream = engine.analyze(new java.io.ByteArrayInputStream(bytes));
+            for (CensusAggregates census : new CensusAggregates[] {fromFile, fromBuffer, fromStream})
+            {
+                assert (census.getLineCount() == 2 && census.getStates().getStateCount() == 2 &&
+                        census.getStates().getChildPopulation(48) == 6475 &&
+                        census.getDistricts().size() == 2) : "Incorrect engine totals";
+            }
+            
+            //Visited rows are the filtered lines, as district rows
+            long[] keys = new long[2];
+            long rows = CensusEngine.of("--state=48").visitDistricts(input, 
+                (level, code, total, child, poverty) -> keys[0] = code);
+            assert (rows == 1 && keys[0] == DistrictAggregator.key(48, 1)) : "Incorrect rows visited";
+            
+            //An error of the sink ends the visit
+            try
+            {
+                engine.visitDistricts(java.nio.ByteBuffer.wrap(bytes), 
+                    (level, code, total, child, poverty) -> { throw new java.io.IOException("full"); });
+                assert false : "Sink error lost";
+            }
+            catch (java.io.IOException ex)
+            {
+                assert ex.getMessage().equals("full") : "Incorrect sink error";
+            }
+            java.nio.file.Files.delete(input);
+            
+            //Switches that write files of their own are turned down
+            try
+            {
+                CensusEngine.of("--checkpoint");
+                assert false : "Checkpoint accepted";
+            }
+            catch (IllegalArgumentException ex)
+            {
+                //Expected
+            }
+        }
+        catch (Exception ex)
+        {
+            System.out.println("engineAnalyzesEverySource Failed");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,137 @@
+import java.io.*;
+
+/**
+    * This class keeps a QuantileSketch of district child poverty rates for
+    * every state, so that the median, 90th and 99th percentile district of
+    * each state can be reported next to its pooled totals. Sketches are
+    * updated as lines are parsed, and the sketches of separate ranges or
+    * files merge into the same error bound as a single scan.
+    *
+    * Districts without children have no rate and are left out.
+    *
+    * @version 1.0.0.0
+*/
+public class StateQuantiles implements CensusRecordHandler
+{
+    //Below 3 constants are the quantiles reported for every state
+    public static final double MEDIAN = 0.5;
+    public static final double P90 = 0.9;
+    public static final double P99 = 0.99;
+
+    private QuantileSketch[] sketches = new QuantileSketch[StateAggregator.STATE_CODES]; //Per state, or null
+
+    /**
+        * Adds the child poverty rate of a parsed line to its state's sketch.
+        *
+        * @param line CensusLineParser holding the decoded values of the line
+    */
+    public void record(CensusLineParser line)
+    {
+        if (line.getChildPopulation() > 0)
+        {
+            add(line.getStateCode(), CensusDataFile.percentage(
+                line.getChildPovertyPopulation(), line.getChildPopulation()));
+        }
+    }
+
+    /**
+        * Adds a district rate to a state's sketch.
+        *
+        * @param stateCode integer state code, 0 to 99
+        * @param rate double child poverty percentage of the district
+    */
+    public void add(int stateCode, double rate)
+    {
+        if (sketches[stateCode] == null) //first district of this state
+        {
+            sketches[stateCode] = new QuantileSketch();
+        }
+        sketches[stateCode].add(rate);
+    }
+
+    /**
+        * Folds the sketches of another StateQuantiles into this one.
+        *
+        * @param other StateQuantiles to fold in
+    */
+    public void merge(StateQuantiles other)
+    {
+        for (int state = 0; state < StateAggregator.STATE_CODES; state++)
+        {
+            if (other.sketches[state] == null)
+            {
+                continue; //nothing to add
+            }
+            if (sketches[state] == null)
+            {
+                sketches[state] = new QuantileSketch();
+            }
+            sketches[state].merge(other.sketches[state]);
+        }
+    }
+
+    /**
+        * Returns the sketch of a state, or null if none of its districts had
+        * a rate.
+        *
+        * @param stateCode integer state code
+        * @return the state's QuantileSketch, or null
+    */
+    public QuantileSketch getSketch(int stateCode)
+    {
+        return sketches[stateCode];
+    }
+
+    /**
+        * Writes the sketches to a stream, preceded by the number of states
+        * that have one, each sketch preceded by its state code. This is also
+        * the content of the quantile block of a format 2 file.
+        *
+        * @param dout DataOutputStream to write to
+    */
+    public void writeTo(DataOutputStream dout) throws IOException
+    {
+        int states = 0; //states that have a sketch
+        for (QuantileSketch sketch : sketches)
+        {
+            states += (sketch != null) ? 1 : 0;
+        }
+
+        dout.writeInt(states);
+        for (int state = 0; state < StateAggregator.STATE_CODES; state++)
+        {
+            if (sketches[state] != null)
+            {
+                dout.writeInt(state);
+                sketches[state].writeTo(dout);
+            }
+        }
+    }
+
+    /**
+        * Merges sketches previously written with writeTo() into this one.
+        *
+        * @param din DataInputStream to read from
+    */
+    public void readFrom(DataInputStream din) throws IOException
+    {
+        int states = din.readInt(); //states written
+        for (int i = 0; i < states; i++)
+        {
+            int state = din.readInt();
+            if (state < 0 || state >= StateAggregator.STATE_CODES)
+            {
+                throw new IOException("State code out of range in quantile block: " + state);
+            }
+            QuantileSketch sketch = QuantileSketch.readFrom(din);
+            if (sketches[state] == null)
+            {
+                sketches[state] = sketch;
+            }
+            else
+            {
+                sketches[state].merge(sketch);
+            }
+        }
+    }
+}
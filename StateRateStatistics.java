@@ -0,0 +1,208 @@
+import java.io.*;
+
+/**
+    * This class keeps, for every state, streaming statistics of the child
+    * poverty rates of its districts, each district weighted by its child
+    * population:
+    * 1. The weighted mean rate
+    * 2. The weighted variance of the rates around that mean
+    * 3. The Theil index of the rates, a measure of inequality between the
+    *    districts (0 if every district has the same rate)
+    *
+    * The mean and variance are updated with Welford's method, which stays
+    * accurate where the textbook sum-of-squares formula would cancel out.
+    * The Theil index only needs running sums, so it is computed in the same
+    * pass. Statistics of separate ranges or files merge exactly.
+    *
+    * Districts without children carry no weight and are left out.
+    *
+    * @version 1.0.0.0
+*/
+public class StateRateStatistics implements CensusRecordHandler
+{
+    private long[] districts = new long[StateAggregator.STATE_CODES]; //Districts with a rate per state
+    private double[] weight = new double[StateAggregator.STATE_CODES]; //Sum of weights per state
+    private double[] mean = new double[StateAggregator.STATE_CODES]; //Weighted mean rate per state
+    private double[] squares = new double[StateAggregator.STATE_CODES]; //Weighted squared deviations per state
+    private double[] theilSum = new double[StateAggregator.STATE_CODES]; //Sum of weight * rate * ln(rate) per state
+
+    /**
+        * Adds the child poverty rate of a parsed line to its state's
+        * statistics, weighted by the line's child population.
+        *
+        * @param line CensusLineParser holding the decoded values of the line
+    */
+    public void record(CensusLineParser line)
+    {
+        if (line.getChildPopulation() > 0)
+        {
+            add(line.getStateCode(), CensusDataFile.percentage(
+                line.getChildPovertyPopulation(), line.getChildPopulation()),
+                line.getChildPopulation());
+        }
+    }
+
+    /**
+        * Adds a weighted district rate to a state's statistics.
+        *
+        * @param stateCode integer state code, 0 to 99
+        * @param rate double child poverty percentage of the district
+        * @param w double weight of the district, greater than 0
+    */
+    public void add(int stateCode, double rate, double w)
+    {
+        //Below four lines are the weighted form of Welford's update
+        weight[stateCode] += w;
+        double delta = rate - mean[stateCode];
+        mean[stateCode] += delta * w / weight[stateCode];
+        squares[stateCode] += w * delta * (rate - mean[stateCode]);
+
+        //A district without poverty adds nothing (x ln x tends to 0)
+        if (rate > 0)
+        {
+            theilSum[stateCode] += w * rate * Math.log(rate);
+        }
+        districts[stateCode]++;
+    }
+
+    /**
+        * Folds the statistics of another StateRateStatistics into this one,
+        * as if every district it saw had been added here.
+        *
+        * @param other StateRateStatistics to fold in
+    */
+    public void merge(StateRateStatistics other)
+    {
+        for (int state = 0; state < StateAggregator.STATE_CODES; state++)
+        {
+            combine(state, other.districts[state], other.weight[state], other.mean[state],
+                    other.squares[state], other.theilSum[state]);
+        }
+    }
+
+    /**
+        * Method to return how many districts of a state had a rate.
+        *
+        * @param stateCode integer state code
+        * @return number of districts
+    */
+    public long getDistrictCount(int stateCode)
+    {
+        return districts[stateCode];
+    }
+
+    /**
+        * Returns the child population weighted mean district rate of a
+        * state. It equals the state's pooled child poverty percentage.
+        *
+        * @param stateCode integer state code
+        * @return weighted mean rate, or NaN if the state has no districts
+    */
+    public double getMean(int stateCode)
+    {
+        return (weight[stateCode] > 0) ? mean[stateCode] : Double.NaN;
+    }
+
+    /**
+        * Returns the child population weighted variance of the district
+        * rates of a state around its weighted mean.
+        *
+        * @param stateCode integer state code
+        * @return weighted variance, or NaN if the state has no districts
+    */
+    public double getVariance(int stateCode)
+    {
+        return (weight[stateCode] > 0) ? squares[stateCode] / weight[stateCode] : Double.NaN;
+    }
+
+    /**
+        * Returns the Theil index of the district rates of a state: the
+        * weighted mean of (rate / mean) * ln(rate / mean). It is 0 when all
+        * districts have the same rate and grows with inequality.
+        *
+        * @param stateCode integer state code
+        * @return Theil index, or NaN if the state has no poverty at all
+    */
+    public double getTheilIndex(int stateCode)
+    {
+        double mu = mean[stateCode]; //weighted mean rate
+        if (weight[stateCode] == 0 || mu <= 0)
+        {
+            return Double.NaN;
+        }
+
+        //Sum of w * r * ln(r / mu), divided by the total of w * r
+        return Math.max(0, theilSum[stateCode] / (weight[stateCode] * mu) - Math.log(mu));
+    }
+
+    /**
+        * Writes the statistics of every state with districts to a stream,
+        * preceded by the number of such states. This is also the content of
+        * the statistics block of a format 2 file.
+        *
+        * @param dout DataOutputStream to write to
+    */
+    public void writeTo(DataOutputStream dout) throws IOException
+    {
+        int states = 0; //states with districts
+        for (long count : districts)
+        {
+            states += (count > 0) ? 1 : 0;
+        }
+
+        dout.writeInt(states);
+        for (int state = 0; state < StateAggregator.STATE_CODES; state++)
+        {
+            if (districts[state] > 0)
+            {
+                //Below six lines write a state's running values
+                dout.writeInt(state);
+                dout.writeLong(districts[state]);
+                dout.writeDouble(weight[state]);
+                dout.writeDouble(mean[state]);
+                dout.writeDouble(squares[state]);
+                dout.writeDouble(theilSum[state]);
+            }
+        }
+    }
+
+    /**
+        * Merges statistics previously written with writeTo() into this one.
+        *
+        * @param din DataInputStream to read from
+    */
+    public void readFrom(DataInputStream din) throws IOException
+    {
+        int states = din.readInt(); //states written
+        for (int i = 0; i < states; i++)
+        {
+            int state = din.readInt();
+            if (state < 0 || state >= StateAggregator.STATE_CODES)
+            {
+                throw new IOException("State code out of range in statistics block: " + state);
+            }
+            combine(state, din.readLong(), din.readDouble(), din.readDouble(),
+                    din.readDouble(), din.readDouble());
+        }
+    }
+
+    /**
+        * Combines a state's running values with another set of them, using
+        * the pairwise form of Welford's method (Chan et al.).
+    */
+    private void combine(int state, long otherDistricts, double otherWeight,
+                         double otherMean, double otherSquares, double otherTheil)
+    {
+        if (otherWeight == 0)
+        {
+            return; //nothing to add
+        }
+        double total = weight[state] + otherWeight;
+        double delta = otherMean - mean[state];
+        squares[state] += otherSquares + delta * delta * weight[state] * otherWeight / total;
+        mean[state] += delta * otherWeight / total;
+        weight[state] = total;
+        theilSum[state] += otherTheil;
+        districts[state] += otherDistricts;
+    }
+}
@@ -0,0 +1,291 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+    * This class keeps, while the input is being scanned, the K districts of
+    * each state with the highest child poverty rate. Each state has a
+    * bounded min-heap of at most K entries; an entry is only the byte
+    * offset of the district's line in the input file and its rate, held in
+    * primitive arrays. A line that ranks below the weakest entry of a full
+    * heap is dropped at once, so memory stays at states times K entries no
+    * matter how large the input is.
+    *
+    * The district code and name of the surviving entries are read back
+    * from the input file by offset only when the ranking is written.
+    *
+    * Ties in rate are broken by file offset (the earlier line ranks higher),
+    * so the ranking does not depend on the order lines were seen in, and
+    * partial rankings from separate ranges of a file merge exactly.
+    *
+    * @version 1.0.0.0
+*/
+public class TopKDistricts implements CensusRecordHandler
+{
+    private final int k; //Number of districts kept per state
+    private double[][] rates = new double[StateAggregator.STATE_CODES][]; //Heap rates per state
+    private long[][] offsets = new long[StateAggregator.STATE_CODES][]; //Heap line offsets per state
+    private int[] sizes = new int[StateAggregator.STATE_CODES]; //Heap size per state
+
+    /**
+        * Constructor, taking the number of districts to keep per state.
+        *
+        * @param k integer number of districts to keep per state, at least 1
+    */
+    public TopKDistricts(int k)
+    {
+        if (k < 1)
+        {
+            throw new IllegalArgumentException("Top-K needs K of at least 1: " + k);
+        }
+        this.k = k;
+    }
+
+    /**
+        * Method to return the number of districts kept per state.
+        *
+        * @return k integer
+    */
+    public int getK()
+    {
+        return k;
+    }
+
+    /**
+        * Offers a parsed line to its state's heap. Districts without
+        * children have no rate and are skipped.
+        *
+        * @param line CensusLineParser holding the decoded values of the line
+    */
+    public void record(CensusLineParser line)
+    {
+        if (line.getChildPopulation() > 0)
+        {
+            offer(line.getStateCode(), line.getLineOffset(),
+                  CensusDataFile.percentage(line.getChildPovertyPopulation(),
+                                            line.getChildPopulation()));
+        }
+    }
+
+    /**
+        * Offers a district to its state's heap. It is kept if the heap is not
+        * yet full, or if it ranks above the weakest district held.
+        *
+        * @param stateCode integer state code, 0 to 99
+        * @param offset long byte offset of the district's line
+        * @param rate double child poverty percentage of the district
+    */
+    public void offer(int stateCode, long offset, double rate)
+    {
+        if (rates[stateCode] == null) //first district of this state
+        {
+            rates[stateCode] = new double[k];
+            offsets[stateCode] = new long[k];
+        }
+        double[] heapRates = rates[stateCode];
+        long[] heapOffsets = offsets[stateCode];
+        int size = sizes[stateCode];
+
+        if (size < k)
+        {
+            //Room left: add at the bottom and sift up
+            int i = size;
+            sizes[stateCode] = size + 1;
+            while (i > 0)
+            {
+                int parent = (i - 1) >>> 1;
+                if (!ranksBelow(rate, offset, heapRates[parent], heapOffsets[parent]))
+                {
+                    break;
+                }
+                heapRates[i] = heapRates[parent];
+                heapOffsets[i] = heapOffsets[parent];
+                i = parent;
+            }
+            heapRates[i] = rate;
+            heapOffsets[i] = offset;
+        }
+        else if (ranksBelow(heapRates[0], heapOffsets[0], rate, offset))
+        {
+            //Replace the weakest district at the root and sift down
+            int i = 0;
+            while (true)
+            {
+                int child = 2 * i + 1;
+                if (child >= k)
+                {
+                    break;
+                }
+                if (child + 1 < k && ranksBelow(heapRates[child + 1], heapOffsets[child + 1],
+                                                heapRates[child], heapOffsets[child]))
+                {
+                    child++; //the weaker of the two children
+                }
+                if (!ranksBelow(heapRates[child], heapOffsets[child], rate, offset))
+                {
+                    break;
+                }
+                heapRates[i] = heapRates[child];
+                heapOffsets[i] = heapOffsets[child];
+                i = child;
+            }
+            heapRates[i] = rate;
+            heapOffsets[i] = offset;
+        }
+    }
+
+    /**
+        * Folds another ranking into this one.
+        *
+        * @param other TopKDistricts with the same K
+    */
+    public void merge(TopKDistricts other)
+    {
+        for (int state = 0; state < StateAggregator.STATE_CODES; state++)
+        {
+            for (int i = 0; i < other.sizes[state]; i++)
+            {
+                offer(state, other.offsets[state][i], other.rates[state][i]);
+            }
+        }
+    }
+
+    /**
+        * Returns the line offsets of a state's kept districts, highest rate
+        * first.
+        *
+        * @param stateCode integer state code
+        * @return array of line offsets, best ranked first
+    */
+    public long[] ranked(int stateCode)
+    {
+        int size = sizes[stateCode];
+        long[] order = new long[size];
+        if (size == 0)
+        {
+            return order;
+        }
+
+        //Selection by rank over a copy; K is small
+        double[] heapRates = rates[stateCode].clone();
+        long[] heapOffsets = offsets[stateCode].clone();
+        for (int r = 0; r < size; r++)
+        {
+            int best = r;
+            for (int i = r + 1; i < size; i++)
+            {
+                if (ranksBelow(heapRates[best], heapOffsets[best], heapRates[i], heapOffsets[i]))
+                {
+                    best = i;
+                }
+            }
+            order[r] = heapOffsets[best];
+            double rate = heapRates[best];
+            heapRates[best] = heapRates[r];
+            heapOffsets[best] = heapOffsets[r];
+            heapRates[r] = rate;
+            heapOffsets[r] = order[r];
+        }
+        return order;
+    }
+
+    /**
+        * Writes the ranking as a text report: for each state in code order,
+        * its kept districts from highest to lowest child poverty rate. The
+        * district code, name and counts are read back from the input file
+        * at each kept line's offset.
+        *
+        * precondition The input file is the one that was scanned
+        *
+        * @param fileName String detailing the output file path
+        * @param inputFile String detailing the scanned input file
+    */
+    public void writeRanking(String fileName, String inputFile) throws IOException
+    {
+        CensusLineParser parser = new CensusLineParser(); //re-parses kept lines
+        ByteBuffer line = ByteBuffer.allocate(4096); //one input line at a time
+
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile),
+                StandardOpenOption.READ);
+             PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(fileName))))
+        {
+            out.printf("Top %d districts per state by child poverty rate%n", k);
+            out.printf("%nState  Rank  District  %-50s  %16s  %24s  %15s%n",
+                       "Name", "Child Population", "Child Poverty Population", "% Child Poverty");
+            out.printf("-----  ----  --------  %s  %s  %s  %s%n", "-".repeat(50),
+                       "-".repeat(16), "-".repeat(24), "-".repeat(15));
+
+            for (int state = 0; state < StateAggregator.STATE_CODES; state++)
+            {
+                long[] order = ranked(state);
+                for (int rank = 0; rank < order.length; rank++)
+                {
+                    //Read the line back; it ends at the next terminator
+                    line.clear();
+                    channel.read(line, order[rank]);
+                    int end = 0;
+                    while (end < line.position() && line.get(end) != '\n' && line.get(end) != '\r')
+                    {
+                        end++;
+                    }
+                    parser.parse(line, 0, end);
+
+                    out.printf("   %02d  %4d  %02d-%05d  %-50.50s  %,16d  %,24d  %15.2f%n",
+                        state, rank + 1, state, parser.getLeaCode(), parser.getDistrictName(),
+                        parser.getChildPopulation(), parser.getChildPovertyPopulation(),
+                        CensusDataFile.percentage(parser.getChildPovertyPopulation(),
+                                                  parser.getChildPopulation()));
+                }
+            }
+        }
+    }
+
+    /**
+        * Writes the heaps to a stream, so that they can be restored with
+        * readFrom().
+        *
+        * @param dout DataOutputStream to write to
+    */
+    public void writeTo(DataOutputStream dout) throws IOException
+    {
+        for (int state = 0; state < StateAggregator.STATE_CODES; state++)
+        {
+            dout.writeInt(sizes[state]);
+            for (int i = 0; i < sizes[state]; i++)
+            {
+                dout.writeLong(offsets[state][i]);
+                dout.writeDouble(rates[state][i]);
+            }
+        }
+    }
+
+    /**
+        * Offers the districts previously written with writeTo() to this
+        * ranking.
+        *
+        * @param din DataInputStream to read from
+    */
+    public void readFrom(DataInputStream din) throws IOException
+    {
+        for (int state = 0; state < StateAggregator.STATE_CODES; state++)
+        {
+            int size = din.readInt(); //districts written for this state
+            for (int i = 0; i < size; i++)
+            {
+                long offset = din.readLong();
+                offer(state, offset, din.readDouble());
+            }
+        }
+    }
+
+    /**
+        * Returns whether district a ranks below district b: a lower rate, or
+        * the same rate on a later line.
+    */
+    private static boolean ranksBelow(double rateA, long offsetA, double rateB, long offsetB)
+    {
+        return rateA < rateB || (rateA == rateB && offsetA > offsetB);
+    }
+}